@@ -46,6 +46,29 @@ public abstract class AbstractList extends AbstractCollection implements List {
    */
   protected transient int modCount = 0;
 
+  /**
+   * The multiplicative inverse of 31 modulo 2^32, which undoes one step of
+   * the hash code calculation when the last element is removed.
+   */
+  private static final int INVERSE_31 = 0xbdef7bdf;
+
+  /**
+   * True if hashCode() keeps its result between calls. Subclasses which
+   * support this (Vector and ArrayList) switch it on with
+   * cacheHashCode() and report their changes through the hash...()
+   * methods below.
+   */
+  private transient boolean hashCodeCached;
+
+  /**
+   * The hash code of the list as it was when modCount was hashStamp; only
+   * meaningful if hashValid. Any structural change the subclass does not
+   * report moves modCount on and so invalidates it.
+   */
+  private transient int cachedHash;
+  private transient int hashStamp;
+  private transient boolean hashValid;
+
   public abstract Object get(int index);
 
   public void add(int index, Object o) {
@@ -79,6 +102,12 @@ public abstract class AbstractList extends AbstractCollection implements List {
       return true;
     } else if (!(o instanceof List)) {
       return false;
+    } else if (size() != ((List)o).size()) {
+      return false;
+    } else if (hashCodeCached && o instanceof AbstractList
+               && ((AbstractList)o).isHashCodeCached()
+               && hashCode() != o.hashCode()) {
+      return false;
     } else {
       Iterator i1 = iterator();
       Iterator i2 = ((List)o).iterator();
@@ -101,15 +130,81 @@ public abstract class AbstractList extends AbstractCollection implements List {
   }
 
   public int hashCode() {
+    if (hashCodeCached && hashValid && hashStamp == modCount) {
+      return cachedHash;
+    }
     int hashCode = 1;
     Iterator i = iterator();
     while (i.hasNext()) {
       Object obj = i.next();
       hashCode = 31 * hashCode + (obj == null ? 0 : obj.hashCode());
     }
+    if (hashCodeCached) {
+      cachedHash = hashCode;
+      hashStamp = modCount;
+      hashValid = true;
+    }
     return hashCode;
   }
 
+  /**
+   * Switches the caching of hashCode() on or off, forgetting any hash code
+   * already cached.
+   */
+  void cacheHashCode(boolean cached) {
+    hashCodeCached = cached;
+    hashValid = false;
+  }
+
+  boolean isHashCodeCached() {
+    return hashCodeCached;
+  }
+
+  /**
+   * Updates the cached hash code, if it was good when modCount was
+   * <b>knownMod</b>, for <b>o</b> having been appended since.
+   */
+  void hashAppended(int knownMod, Object o) {
+    if (hashValid && hashStamp == knownMod) {
+      cachedHash = 31 * cachedHash + (o == null ? 0 : o.hashCode());
+      hashStamp = modCount;
+    }
+  }
+
+  /**
+   * Updates the cached hash code, if it was good when modCount was
+   * <b>knownMod</b>, for the last element, <b>o</b>, having been removed
+   * since.
+   */
+  void hashRemovedLast(int knownMod, Object o) {
+    if (hashValid && hashStamp == knownMod) {
+      cachedHash = (cachedHash - (o == null ? 0 : o.hashCode())) * INVERSE_31;
+      hashStamp = modCount;
+    }
+  }
+
+  /**
+   * Updates the cached hash code, if it was good when modCount was
+   * <b>knownMod</b>, for the element at <b>index</b> of a list of
+   * <b>size</b> elements having been replaced since. The element's hash
+   * is weighted by 31 once for each element after it.
+   */
+  void hashReplaced(int knownMod, int index, int size, Object old, Object o) {
+    if (hashValid && hashStamp == knownMod) {
+      int weight = 1;
+      int base = 31;
+      for (int e = size - 1 - index; e > 0; e >>>= 1) {
+        if ((e & 1) != 0) {
+          weight *= base;
+        }
+        base *= base;
+      }
+      cachedHash += weight * ((o == null ? 0 : o.hashCode())
+                              - (old == null ? 0 : old.hashCode()));
+      hashStamp = modCount;
+    }
+  }
+
   public int indexOf(Object o) {
     int index = 0;
     ListIterator i = listIterator();
@@ -132,7 +227,7 @@ public abstract class AbstractList extends AbstractCollection implements List {
   }
 
   public Iterator iterator() {
-    return new Iterator() {
+    return new BatchIterator() {
       private int knownMod = modCount;
       private int position = 0;
       boolean removed = true;
@@ -158,6 +253,18 @@ public abstract class AbstractList extends AbstractCollection implements List {
         }
       }
 
+      public int nextBatch(Object[] buf) {
+        checkMod();
+        int n = Math.min(buf.length, size() - position);
+        if (n <= 0) {
+          return 0;
+        }
+        getRange(position, buf, n);
+        position += n;
+        removed = false;
+        return n;
+      }
+
       public void remove() {
         checkMod();
         if (removed) {
@@ -170,6 +277,18 @@ public abstract class AbstractList extends AbstractCollection implements List {
     };
   }
 
+  /**
+   * Copies the <b>n</b> elements starting at index <b>from</b> into the
+   * start of <b>dest</b>, for the batches of the iterator. This
+   * implementation calls get() for each; lists backed by an array
+   * override it with System.arraycopy.
+   */
+  void getRange(int from, Object[] dest, int n) {
+    for (int i = 0; i < n; i++) {
+      dest[i] = get(from + i);
+    }
+  }
+
   public int lastIndexOf(Object o) {
     int index = size();
     ListIterator i = listIterator(index);
@@ -0,0 +1,203 @@
+/////////////////////////////////////////////////////////////////////////////
+// AbstractSubMap.java -- the range views of TreeMap and BTreeMap
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU Library General Public License as published
+// by the Free Software Foundation, version 2. (see COPYING.LIB)
+//
+// This program is distributed in the hope that it will be useful, but
+// WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Library General Public License for more details.
+//
+// You should have received a copy of the GNU Library General Public License
+// along with this program; if not, write to the Free Software Foundation
+// Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307 USA
+/////////////////////////////////////////////////////////////////////////////
+
+package java.util;
+
+import java.io.Serializable;
+
+/**
+ * A live view of the keys of a SortedMap from fromKey (inclusive, unless
+ * fromStart) to toKey (exclusive, unless toEnd).  It holds only its
+ * bounds: lookups and writes are checked against them and then go to the
+ * backing map, and its key, entry and value views are built on iterator().
+ * The backing map supplies the iterator, a way to make nested views, and
+ * whatever size(), firstKey() and lastKey() its structure makes cheap.
+ */
+abstract class AbstractSubMap extends AbstractMap implements SortedMap, Serializable {
+
+    /** the kinds of iterator that iterator(int) must make */
+    static final int KEYS = 0;
+    static final int VALUES = 1;
+    static final int ENTRIES = 2;
+
+    private final SortedMap map;
+    private final Comparator comparator;
+    final boolean fromStart;
+    final Object fromKey;
+    final boolean toEnd;
+    final Object toKey;
+
+    AbstractSubMap(SortedMap map, boolean fromStart, Object fromKey,
+                   boolean toEnd, Object toKey) {
+        this.map = map;
+        comparator = map.comparator();
+        if (!fromStart && !toEnd) {
+            if (compare(fromKey, toKey) > 0) {
+                throw new IllegalArgumentException("fromKey > toKey");
+            }
+        } else {
+            // rejects bounds the ordering cannot handle
+            if (!fromStart) {
+                compare(fromKey, fromKey);
+            }
+            if (!toEnd) {
+                compare(toKey, toKey);
+            }
+        }
+        this.fromStart = fromStart;
+        this.fromKey = fromKey;
+        this.toEnd = toEnd;
+        this.toKey = toKey;
+    }
+
+    /** returns a view of the same map with the given bounds */
+    abstract AbstractSubMap newSubMap(boolean fromStart, Object fromKey,
+                                      boolean toEnd, Object toKey);
+
+    /** returns an iterator over the keys, values or entries in range */
+    abstract Iterator iterator(int type);
+
+    public abstract int size();
+
+    final int compare(Object k1, Object k2) {
+        return (comparator == null) ? ((Comparable) k1).compareTo(k2)
+            : comparator.compare(k1, k2);
+    }
+
+    final boolean inRange(Object key) {
+        return (fromStart || compare(key, fromKey) >= 0)
+            && (toEnd || compare(key, toKey) < 0);
+    }
+
+    /** like inRange, but also accepts toKey itself, for a nested view's bound */
+    private boolean inClosedRange(Object key) {
+        return (fromStart || compare(key, fromKey) >= 0)
+            && (toEnd || compare(key, toKey) <= 0);
+    }
+
+    public Comparator comparator() {
+        return comparator;
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public boolean containsKey(Object key) {
+        return inRange(key) && map.containsKey(key);
+    }
+
+    public Object get(Object key) {
+        return inRange(key) ? map.get(key) : null;
+    }
+
+    public Object put(Object key, Object value) {
+        if (!inRange(key)) {
+            throw new IllegalArgumentException("key out of range");
+        }
+        return map.put(key, value);
+    }
+
+    public Object remove(Object key) {
+        return inRange(key) ? map.remove(key) : null;
+    }
+
+    public Set keySet() {
+        return new RangeSet(KEYS);
+    }
+
+    public Set entrySet() {
+        return new RangeSet(ENTRIES);
+    }
+
+    public Collection values() {
+        return new RangeValues();
+    }
+
+    public SortedMap headMap(Object toKey) {
+        if (!inClosedRange(toKey)) {
+            throw new IllegalArgumentException("toKey out of range");
+        }
+        return newSubMap(fromStart, fromKey, false, toKey);
+    }
+
+    public SortedMap tailMap(Object fromKey) {
+        if (!inClosedRange(fromKey)) {
+            throw new IllegalArgumentException("fromKey out of range");
+        }
+        return newSubMap(false, fromKey, toEnd, toKey);
+    }
+
+    public SortedMap subMap(Object fromKey, Object toKey) {
+        if (!inClosedRange(fromKey) || !inClosedRange(toKey)) {
+            throw new IllegalArgumentException("key out of range");
+        }
+        return newSubMap(false, fromKey, false, toKey);
+    }
+
+    /** the keys or entries in range */
+    private class RangeSet extends AbstractSet {
+        private final int setType;
+
+        RangeSet(int type) {
+            setType = type;
+        }
+
+        public int size() {
+            return AbstractSubMap.this.size();
+        }
+
+        public boolean isEmpty() {
+            return AbstractSubMap.this.isEmpty();
+        }
+
+        public boolean contains(Object o) {
+            if (setType == KEYS) {
+                return containsKey(o);
+            }
+            return o instanceof Map.Entry && inRange(((Map.Entry) o).getKey())
+                && map.entrySet().contains(o);
+        }
+
+        public boolean remove(Object o) {
+            if (setType == KEYS) {
+                if (!containsKey(o)) {
+                    return false;
+                }
+                map.remove(o);
+                return true;
+            }
+            return o instanceof Map.Entry && inRange(((Map.Entry) o).getKey())
+                && map.entrySet().remove(o);
+        }
+
+        public Iterator iterator() {
+            return AbstractSubMap.this.iterator(setType);
+        }
+    }
+
+    /** the values in range */
+    private class RangeValues extends AbstractCollection {
+        public int size() {
+            return AbstractSubMap.this.size();
+        }
+
+        public Iterator iterator() {
+            return AbstractSubMap.this.iterator(VALUES);
+        }
+    }
+}
@@ -282,10 +282,11 @@ public class Arrays {
    * This method does the work for the Object binary search methods. If the
    * specified comparator is null, uses the natural ordering.
    */
-  private static int objectSearch(Object[] a, Object key, final Comparator c) {
-    int low = 0;
-    int hi = a.length - 1;
-    int mid = 0;
+  private static int objectSearch(Object[] a, int fromIndex, int toIndex,
+                                  Object key, final Comparator c) {
+    int low = fromIndex;
+    int hi = toIndex - 1;
+    int mid = fromIndex;
     while (low <= hi) {
       mid = (low + hi) >> 1;
       final int d = compare(key, a[mid], c);
@@ -320,7 +321,7 @@ public class Arrays {
    * @exception NullPointerException if a null element has compareTo called
    */
   public static int binarySearch(Object[] a, Object key) {
-    return objectSearch(a, key, null);
+    return objectSearch(a, 0, a.length, key, null);
   }
 
   /**
@@ -346,7 +347,76 @@ public class Arrays {
     if (c == null) {
       throw new NullPointerException();
     }
-    return objectSearch(a, key, c);
+    return objectSearch(a, 0, a.length, key, c);
+  }
+
+  /**
+   * Perform a binary search of part of an Object array for a key, using the
+   * natural ordering of the elements. Only a[fromIndex] to a[toIndex - 1]
+   * are examined, and they must be sorted; the rest of the array may hold
+   * anything.
+   *
+   * @param a the array to search
+   * @param fromIndex the index of the first element to search, inclusive
+   * @param toIndex the index of the last element to search, exclusive
+   * @param key the value to search for
+   * @returns the index at which the key was found, or -n-1 if it was not
+   *   found, where n is the index of the first value higher than key or
+   *   toIndex if there is no such value.
+   * @exception ClassCastException if key could not be compared with one of the
+   *   elements searched
+   * @exception IllegalArgumentException if fromIndex > toIndex
+   * @exception ArrayIndexOutOfBoundsException if fromIndex < 0 or
+   *   toIndex > a.length
+   */
+  public static int binarySearch(Object[] a, int fromIndex, int toIndex,
+                                 Object key) {
+    rangeCheck(a.length, fromIndex, toIndex);
+    return objectSearch(a, fromIndex, toIndex, key, null);
+  }
+
+  /**
+   * Perform a binary search of part of an Object array for a key, using a
+   * supplied Comparator. Only a[fromIndex] to a[toIndex - 1] are examined,
+   * and they must be sorted by that Comparator.
+   *
+   * @param a the array to search
+   * @param fromIndex the index of the first element to search, inclusive
+   * @param toIndex the index of the last element to search, exclusive
+   * @param key the value to search for
+   * @param c the comparator by which the range is sorted
+   * @returns the index at which the key was found, or -n-1 if it was not
+   *   found, where n is the index of the first value higher than key or
+   *   toIndex if there is no such value.
+   * @exception ClassCastException if key could not be compared with one of the
+   *   elements searched
+   * @exception IllegalArgumentException if fromIndex > toIndex
+   * @exception ArrayIndexOutOfBoundsException if fromIndex < 0 or
+   *   toIndex > a.length
+   */
+  public static int binarySearch(Object[] a, int fromIndex, int toIndex,
+                                 Object key, Comparator c) {
+    if (c == null) {
+      throw new NullPointerException();
+    }
+    rangeCheck(a.length, fromIndex, toIndex);
+    return objectSearch(a, fromIndex, toIndex, key, c);
+  }
+
+  /**
+   * Check that fromIndex and toIndex describe a range of an array of the
+   * given length.
+   */
+  private static void rangeCheck(int length, int fromIndex, int toIndex) {
+    if (fromIndex > toIndex) {
+      throw new IllegalArgumentException("fromIndex > toIndex");
+    }
+    if (fromIndex < 0) {
+      throw new ArrayIndexOutOfBoundsException(fromIndex);
+    }
+    if (toIndex > length) {
+      throw new ArrayIndexOutOfBoundsException(toIndex);
+    }
   }
 
   /**
@@ -1570,12 +1640,12 @@ public class Arrays {
         // need to merge
         if (size2 <= 0 ||
             compare(x[start + size - 1], x[start + size], c) <= 0) {
-          //System.arraycopy(x, start, y, start, size + size2);
+          System.arraycopy(x, start, y, start, size + size2);
 
         // The two halves just need swapping - no need to merge
-        } else if (compare(x[start], x[start + size + size2 - 1], c) >= 0) {
-          //System.arraycopy(x, start, y, start + size2, size);
-          //System.arraycopy(x, start + size, y, start, size2);
+        } else if (compare(x[start], x[start + size + size2 - 1], c) > 0) {
+          System.arraycopy(x, start, y, start + size2, size);
+          System.arraycopy(x, start + size, y, start, size2);
 
         } else {
           // Declare a lot of variables to save repeating calculations.
@@ -1600,7 +1670,7 @@ public class Arrays {
 
           // Finish up by copying the remainder of whichever half wasn't
           // finished.
-          //System.arraycopy(x, d1 > 0 ? p1 : p2, y, i, d1 > 0 ? d1 : d2);
+          System.arraycopy(x, d1 > 0 ? p1 : p2, y, i, d1 > 0 ? d1 : d2);
         } 
       }
       t = x; x = y; y = t; // swap x and y ready for the next merge
@@ -1608,7 +1678,7 @@ public class Arrays {
 
     // make sure the result ends up back in the right place.
     if (x != a) {
-      //System.arraycopy(x, 0, a, 0, n);
+      System.arraycopy(x, 0, a, 0, n);
     }
   }
 
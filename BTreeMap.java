@@ -0,0 +1,983 @@
+/////////////////////////////////////////////////////////////////////////////
+// BTreeMap.java -- a B+tree implementation of SortedMap
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU Library General Public License as published
+// by the Free Software Foundation, version 2. (see COPYING.LIB)
+//
+// This program is distributed in the hope that it will be useful, but
+// WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Library General Public License for more details.
+//
+// You should have received a copy of the GNU Library General Public License
+// along with this program; if not, write to the Free Software Foundation
+// Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307 USA
+/////////////////////////////////////////////////////////////////////////////
+
+package java.util;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+
+/**
+ * An unsynchronized SortedMap kept in a B+tree.  Each node holds up to
+ * NODE_CAPACITY keys in one array, searched by binary search, so a lookup
+ * touches about log64(n) nodes where a binary tree such as TreeMap
+ * touches log2(n): four or five nodes for fifty million keys, against
+ * twenty-six.  All the mappings live in the leaves, which are linked to
+ * their neighbours, so iteration and range scans move along arrays and
+ * never climb back up the tree.  Keys are ordered as in TreeMap.
+ *
+ * Every branch also records how many mappings lie under each of its
+ * children, which gives rank() and select() in O(log n), and lets the
+ * views returned by headMap(), tailMap() and subMap() (live, as with
+ * TreeMap) report their size in O(log n) rather than by counting.
+ *
+ * The SortedMap constructor builds the tree bottom up from the already
+ * sorted mappings, in linear time and with no comparisons.
+ *
+ * Iterators are fail-fast in the same manner as Hashtable's.
+ */
+public class BTreeMap extends AbstractMap implements SortedMap, Serializable {
+
+    /** the most keys a leaf, or children a branch, may hold */
+    static final int NODE_CAPACITY = 64;
+
+    /** the fewest keys or children any node but the root may hold */
+    static final int MIN_FILL = NODE_CAPACITY / 2;
+
+    private static final int KEYS = AbstractSubMap.KEYS;
+    private static final int VALUES = AbstractSubMap.VALUES;
+    private static final int ENTRIES = AbstractSubMap.ENTRIES;
+
+    /** the ordering of the keys, or null for their natural ordering */
+    private final Comparator comparator;
+
+    private transient Node root;
+    private transient Leaf head;
+    private transient Leaf tail;
+    private transient int size;
+    transient int modCount;
+
+    // results passed back up by insert() and delete()
+    private transient boolean grew;
+    private transient boolean shrank;
+    private transient Node splitNode;
+    private transient Object splitKey;
+
+    public BTreeMap() {
+        comparator = null;
+        init();
+    }
+
+    public BTreeMap(Comparator c) {
+        comparator = c;
+        init();
+    }
+
+    public BTreeMap(Map m) {
+        comparator = null;
+        init();
+        putAll(m);
+    }
+
+    /**
+     * makes a BTreeMap with the same ordering and mappings as m, built
+     * bottom up in linear time: the leaves are filled straight from m's
+     * iterator and each level of branches is laid over the one below
+     */
+    public BTreeMap(SortedMap m) {
+        comparator = m.comparator();
+        Object[] keys = new Object[m.size()];
+        Object[] values = new Object[keys.length];
+        Iterator it = m.entrySet().iterator();
+        for (int i = 0; i < keys.length; i++) {
+            Map.Entry e = (Map.Entry) it.next();
+            keys[i] = e.getKey();
+            values[i] = e.getValue();
+        }
+        buildFromSorted(keys, values);
+    }
+
+    private void init() {
+        head = tail = new Leaf();
+        root = head;
+        size = 0;
+    }
+
+    public Comparator comparator() {
+        return comparator;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean containsKey(Object key) {
+        Leaf l = findLeaf(key);
+        return search(l.keys, l.n, key) >= 0;
+    }
+
+    public boolean containsValue(Object value) {
+        for (Leaf l = head; l != null; l = l.next) {
+            for (int i = 0; i < l.n; i++) {
+                if (value == null ? l.values[i] == null : value.equals(l.values[i])) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    public Object get(Object key) {
+        Leaf l = findLeaf(key);
+        int i = search(l.keys, l.n, key);
+        return (i >= 0) ? l.values[i] : null;
+    }
+
+    public Object firstKey() {
+        if (size == 0) {
+            throw new NoSuchElementException();
+        }
+        return head.keys[0];
+    }
+
+    public Object lastKey() {
+        if (size == 0) {
+            throw new NoSuchElementException();
+        }
+        return tail.keys[tail.n - 1];
+    }
+
+    public Object put(Object key, Object value) {
+        if (size == 0) {
+            compare(key, key); // rejects keys the ordering cannot handle
+        }
+        grew = false;
+        Object old = insert(root, key, value);
+        if (splitNode != null) {
+            Branch b = new Branch();
+            b.n = 2;
+            b.children[0] = root;
+            b.children[1] = splitNode;
+            b.keys[0] = splitKey;
+            b.counts[1] = count(splitNode);
+            b.counts[0] = size + 1 - b.counts[1];
+            root = b;
+            splitNode = null;
+            splitKey = null;
+        }
+        if (grew) {
+            size++;
+            modCount++;
+        }
+        return old;
+    }
+
+    public Object remove(Object key) {
+        if (size == 0) {
+            return null;
+        }
+        shrank = false;
+        Object old = delete(root, key);
+        if (!shrank) {
+            return null;
+        }
+        size--;
+        modCount++;
+        if (root instanceof Branch && root.n == 1) {
+            root = ((Branch) root).children[0];
+        }
+        return old;
+    }
+
+    public void clear() {
+        modCount++;
+        init();
+    }
+
+    /** returns the number of keys in this map strictly less than key */
+    public int rank(Object key) {
+        int r = 0;
+        Node x = root;
+        while (x instanceof Branch) {
+            Branch b = (Branch) x;
+            int ci = childIndex(b, key);
+            for (int j = 0; j < ci; j++) {
+                r += b.counts[j];
+            }
+            x = b.children[ci];
+        }
+        int i = search(x.keys, x.n, key);
+        return r + ((i >= 0) ? i : -i - 1);
+    }
+
+    /**
+     * returns the key with the given rank, that is the index'th smallest
+     * key counting from 0
+     *
+     * @exception IndexOutOfBoundsException if index < 0 || index >= size()
+     */
+    public Object select(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("index: " + index + ", size: " + size);
+        }
+        Node x = root;
+        while (x instanceof Branch) {
+            Branch b = (Branch) x;
+            int j = 0;
+            while (index >= b.counts[j]) {
+                index -= b.counts[j++];
+            }
+            x = b.children[j];
+        }
+        return x.keys[index];
+    }
+
+    public Set keySet() {
+        return new BTreeSetView(KEYS);
+    }
+
+    public Set entrySet() {
+        return new BTreeSetView(ENTRIES);
+    }
+
+    public Collection values() {
+        return new BTreeValues();
+    }
+
+    /** returns a view of the keys strictly less than toKey */
+    public SortedMap headMap(Object toKey) {
+        return new SubMap(true, null, false, toKey);
+    }
+
+    /** returns a view of the keys greater than or equal to fromKey */
+    public SortedMap tailMap(Object fromKey) {
+        return new SubMap(false, fromKey, true, null);
+    }
+
+    /** returns a view of the keys from fromKey, inclusive, to toKey, exclusive */
+    public SortedMap subMap(Object fromKey, Object toKey) {
+        return new SubMap(false, fromKey, false, toKey);
+    }
+
+    // Searching
+    // ---------
+
+    final int compare(Object k1, Object k2) {
+        return (comparator == null) ? ((Comparable) k1).compareTo(k2)
+            : comparator.compare(k1, k2);
+    }
+
+    /**
+     * searches keys[0..len) as Arrays.binarySearch does: returns the index
+     * of key, or -(insertion point) - 1 if it is absent
+     */
+    private int search(Object[] keys, int len, Object key) {
+        int lo = 0;
+        int hi = len - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = compare(keys[mid], key);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(lo + 1);
+    }
+
+    /**
+     * returns the child of b which would hold key.  keys[i] is no greater
+     * than any key under children[i + 1], and greater than any key under
+     * children[0..i].
+     */
+    private int childIndex(Branch b, Object key) {
+        int i = search(b.keys, b.n - 1, key);
+        return (i >= 0) ? i + 1 : -i - 1;
+    }
+
+    private Leaf findLeaf(Object key) {
+        Node x = root;
+        while (x instanceof Branch) {
+            Branch b = (Branch) x;
+            x = b.children[childIndex(b, key)];
+        }
+        return (Leaf) x;
+    }
+
+    /** the number of mappings under x */
+    private static int count(Node x) {
+        if (x instanceof Leaf) {
+            return x.n;
+        }
+        int[] counts = ((Branch) x).counts;
+        int c = 0;
+        for (int i = 0; i < x.n; i++) {
+            c += counts[i];
+        }
+        return c;
+    }
+
+    /** sets the value of key, if present, without changing the tree's shape */
+    final void setValueFor(Object key, Object value) {
+        Leaf l = findLeaf(key);
+        int i = search(l.keys, l.n, key);
+        if (i >= 0) {
+            l.values[i] = value;
+        }
+    }
+
+    // Inserting
+    // ---------
+
+    /**
+     * adds or replaces key's mapping in the subtree x, setting grew if it
+     * was added.  If x overflows it is split, and the new right half and
+     * the least key under it are left in splitNode and splitKey for the
+     * caller to link in.
+     */
+    private Object insert(Node x, Object key, Object value) {
+        if (x instanceof Leaf) {
+            Leaf l = (Leaf) x;
+            int i = search(l.keys, l.n, key);
+            if (i >= 0) {
+                Object old = l.values[i];
+                l.values[i] = value;
+                return old;
+            }
+            i = -i - 1;
+            System.arraycopy(l.keys, i, l.keys, i + 1, l.n - i);
+            System.arraycopy(l.values, i, l.values, i + 1, l.n - i);
+            l.keys[i] = key;
+            l.values[i] = value;
+            l.n++;
+            grew = true;
+            if (l.n > NODE_CAPACITY) {
+                splitLeaf(l);
+            }
+            return null;
+        }
+        Branch b = (Branch) x;
+        int ci = childIndex(b, key);
+        Object old = insert(b.children[ci], key, value);
+        if (grew) {
+            b.counts[ci]++;
+            if (splitNode != null) {
+                Node right = splitNode;
+                int moved = count(right);
+                int tailLen = b.n - ci - 1;
+                System.arraycopy(b.keys, ci, b.keys, ci + 1, tailLen);
+                System.arraycopy(b.children, ci + 1, b.children, ci + 2, tailLen);
+                System.arraycopy(b.counts, ci + 1, b.counts, ci + 2, tailLen);
+                b.keys[ci] = splitKey;
+                b.children[ci + 1] = right;
+                b.counts[ci + 1] = moved;
+                b.counts[ci] -= moved;
+                b.n++;
+                splitNode = null;
+                splitKey = null;
+                if (b.n > NODE_CAPACITY) {
+                    splitBranch(b);
+                }
+            }
+        }
+        return old;
+    }
+
+    private void splitLeaf(Leaf l) {
+        Leaf r = new Leaf();
+        int keep = l.n - l.n / 2;
+        r.n = l.n - keep;
+        System.arraycopy(l.keys, keep, r.keys, 0, r.n);
+        System.arraycopy(l.values, keep, r.values, 0, r.n);
+        for (int i = keep; i < l.n; i++) {
+            l.keys[i] = null;
+            l.values[i] = null;
+        }
+        l.n = keep;
+        r.next = l.next;
+        if (r.next != null) {
+            r.next.prev = r;
+        } else {
+            tail = r;
+        }
+        r.prev = l;
+        l.next = r;
+        splitNode = r;
+        splitKey = r.keys[0];
+    }
+
+    private void splitBranch(Branch b) {
+        Branch r = new Branch();
+        int keep = b.n - b.n / 2;
+        r.n = b.n - keep;
+        splitKey = b.keys[keep - 1];
+        System.arraycopy(b.keys, keep, r.keys, 0, r.n - 1);
+        System.arraycopy(b.children, keep, r.children, 0, r.n);
+        System.arraycopy(b.counts, keep, r.counts, 0, r.n);
+        for (int i = keep; i < b.n; i++) {
+            b.keys[i - 1] = null;
+            b.children[i] = null;
+            b.counts[i] = 0;
+        }
+        b.n = keep;
+        splitNode = r;
+    }
+
+    // Deleting
+    // --------
+
+    /**
+     * removes key's mapping from the subtree x, setting shrank if there
+     * was one.  A child left with fewer than MIN_FILL entries takes one
+     * from a neighbour or, if that neighbour has none to spare, is merged
+     * with it; the caller deals with x itself.
+     */
+    private Object delete(Node x, Object key) {
+        if (x instanceof Leaf) {
+            Leaf l = (Leaf) x;
+            int i = search(l.keys, l.n, key);
+            if (i < 0) {
+                return null;
+            }
+            Object old = l.values[i];
+            System.arraycopy(l.keys, i + 1, l.keys, i, l.n - i - 1);
+            System.arraycopy(l.values, i + 1, l.values, i, l.n - i - 1);
+            l.n--;
+            l.keys[l.n] = null;
+            l.values[l.n] = null;
+            shrank = true;
+            return old;
+        }
+        Branch b = (Branch) x;
+        int ci = childIndex(b, key);
+        Object old = delete(b.children[ci], key);
+        if (shrank) {
+            b.counts[ci]--;
+            if (b.children[ci].n < MIN_FILL) {
+                rebalance(b, ci);
+            }
+        }
+        return old;
+    }
+
+    private void rebalance(Branch p, int ci) {
+        int li = (ci > 0) ? ci - 1 : ci;
+        Node left = p.children[li];
+        Node right = p.children[li + 1];
+        if (left.n + right.n <= NODE_CAPACITY) {
+            if (left instanceof Leaf) {
+                mergeLeaves(p, li, (Leaf) left, (Leaf) right);
+            } else {
+                mergeBranches(p, li, (Branch) left, (Branch) right);
+            }
+        } else if (left instanceof Leaf) {
+            if (li == ci) {
+                shiftLeafLeft(p, li, (Leaf) left, (Leaf) right);
+            } else {
+                shiftLeafRight(p, li, (Leaf) left, (Leaf) right);
+            }
+        } else {
+            if (li == ci) {
+                shiftBranchLeft(p, li, (Branch) left, (Branch) right);
+            } else {
+                shiftBranchRight(p, li, (Branch) left, (Branch) right);
+            }
+        }
+    }
+
+    /** drops p's child li + 1, whose contents have been moved into child li */
+    private static void removeChild(Branch p, int li) {
+        p.counts[li] += p.counts[li + 1];
+        int tailLen = p.n - li - 2;
+        System.arraycopy(p.keys, li + 1, p.keys, li, tailLen);
+        System.arraycopy(p.children, li + 2, p.children, li + 1, tailLen);
+        System.arraycopy(p.counts, li + 2, p.counts, li + 1, tailLen);
+        p.n--;
+        p.keys[p.n - 1] = null;
+        p.children[p.n] = null;
+        p.counts[p.n] = 0;
+    }
+
+    private void mergeLeaves(Branch p, int li, Leaf l, Leaf r) {
+        System.arraycopy(r.keys, 0, l.keys, l.n, r.n);
+        System.arraycopy(r.values, 0, l.values, l.n, r.n);
+        l.n += r.n;
+        l.next = r.next;
+        if (l.next != null) {
+            l.next.prev = l;
+        } else {
+            tail = l;
+        }
+        removeChild(p, li);
+    }
+
+    private void mergeBranches(Branch p, int li, Branch l, Branch r) {
+        l.keys[l.n - 1] = p.keys[li];
+        System.arraycopy(r.keys, 0, l.keys, l.n, r.n - 1);
+        System.arraycopy(r.children, 0, l.children, l.n, r.n);
+        System.arraycopy(r.counts, 0, l.counts, l.n, r.n);
+        l.n += r.n;
+        removeChild(p, li);
+    }
+
+    /** moves the first entry of r to the end of l */
+    private static void shiftLeafLeft(Branch p, int li, Leaf l, Leaf r) {
+        l.keys[l.n] = r.keys[0];
+        l.values[l.n] = r.values[0];
+        l.n++;
+        r.n--;
+        System.arraycopy(r.keys, 1, r.keys, 0, r.n);
+        System.arraycopy(r.values, 1, r.values, 0, r.n);
+        r.keys[r.n] = null;
+        r.values[r.n] = null;
+        p.keys[li] = r.keys[0];
+        p.counts[li]++;
+        p.counts[li + 1]--;
+    }
+
+    /** moves the last entry of l to the start of r */
+    private static void shiftLeafRight(Branch p, int li, Leaf l, Leaf r) {
+        System.arraycopy(r.keys, 0, r.keys, 1, r.n);
+        System.arraycopy(r.values, 0, r.values, 1, r.n);
+        r.n++;
+        l.n--;
+        r.keys[0] = l.keys[l.n];
+        r.values[0] = l.values[l.n];
+        l.keys[l.n] = null;
+        l.values[l.n] = null;
+        p.keys[li] = r.keys[0];
+        p.counts[li]--;
+        p.counts[li + 1]++;
+    }
+
+    /** moves the first child of r to the end of l, rotating the separators through p */
+    private static void shiftBranchLeft(Branch p, int li, Branch l, Branch r) {
+        int moved = r.counts[0];
+        l.keys[l.n - 1] = p.keys[li];
+        l.children[l.n] = r.children[0];
+        l.counts[l.n] = moved;
+        l.n++;
+        p.keys[li] = r.keys[0];
+        r.n--;
+        System.arraycopy(r.keys, 1, r.keys, 0, r.n - 1);
+        System.arraycopy(r.children, 1, r.children, 0, r.n);
+        System.arraycopy(r.counts, 1, r.counts, 0, r.n);
+        r.keys[r.n - 1] = null;
+        r.children[r.n] = null;
+        r.counts[r.n] = 0;
+        p.counts[li] += moved;
+        p.counts[li + 1] -= moved;
+    }
+
+    /** moves the last child of l to the start of r, rotating the separators through p */
+    private static void shiftBranchRight(Branch p, int li, Branch l, Branch r) {
+        int moved = l.counts[l.n - 1];
+        System.arraycopy(r.keys, 0, r.keys, 1, r.n - 1);
+        System.arraycopy(r.children, 0, r.children, 1, r.n);
+        System.arraycopy(r.counts, 0, r.counts, 1, r.n);
+        r.keys[0] = p.keys[li];
+        r.children[0] = l.children[l.n - 1];
+        r.counts[0] = moved;
+        r.n++;
+        p.keys[li] = l.keys[l.n - 2];
+        l.n--;
+        l.keys[l.n - 1] = null;
+        l.children[l.n] = null;
+        l.counts[l.n] = 0;
+        p.counts[li] -= moved;
+        p.counts[li + 1] += moved;
+    }
+
+    // Bulk building and serialization
+    // -------------------------------
+
+    /**
+     * replaces the contents of this map with the given pairs, which must
+     * be in ascending key order.  Each level is spread evenly over as few
+     * nodes as will hold it, which leaves every node at least half full.
+     */
+    private void buildFromSorted(Object[] keys, Object[] values) {
+        int n = keys.length;
+        modCount++;
+        size = n;
+        if (n <= NODE_CAPACITY) {
+            Leaf l = new Leaf();
+            System.arraycopy(keys, 0, l.keys, 0, n);
+            System.arraycopy(values, 0, l.values, 0, n);
+            l.n = n;
+            root = head = tail = l;
+            return;
+        }
+        int width = (n + NODE_CAPACITY - 1) / NODE_CAPACITY;
+        Node[] level = new Node[width];
+        Object[] low = new Object[width];
+        int[] counts = new int[width];
+        Leaf prev = null;
+        int pos = 0;
+        for (int i = 0; i < width; i++) {
+            Leaf l = new Leaf();
+            l.n = (n - pos) / (width - i);
+            System.arraycopy(keys, pos, l.keys, 0, l.n);
+            System.arraycopy(values, pos, l.values, 0, l.n);
+            l.prev = prev;
+            if (prev != null) {
+                prev.next = l;
+            }
+            prev = l;
+            level[i] = l;
+            low[i] = keys[pos];
+            counts[i] = l.n;
+            pos += l.n;
+        }
+        head = (Leaf) level[0];
+        tail = prev;
+        while (width > 1) {
+            int n2 = width;
+            width = (n2 + NODE_CAPACITY - 1) / NODE_CAPACITY;
+            Node[] up = new Node[width];
+            Object[] upLow = new Object[width];
+            int[] upCounts = new int[width];
+            pos = 0;
+            for (int i = 0; i < width; i++) {
+                Branch b = new Branch();
+                b.n = (n2 - pos) / (width - i);
+                System.arraycopy(level, pos, b.children, 0, b.n);
+                System.arraycopy(counts, pos, b.counts, 0, b.n);
+                System.arraycopy(low, pos + 1, b.keys, 0, b.n - 1);
+                int c = 0;
+                for (int j = 0; j < b.n; j++) {
+                    c += b.counts[j];
+                }
+                up[i] = b;
+                upLow[i] = low[pos];
+                upCounts[i] = c;
+                pos += b.n;
+            }
+            level = up;
+            low = upLow;
+            counts = upCounts;
+        }
+        root = level[0];
+    }
+
+    private void writeObject(ObjectOutputStream s) throws IOException {
+        s.defaultWriteObject();
+        s.writeInt(size);
+        for (Leaf l = head; l != null; l = l.next) {
+            for (int i = 0; i < l.n; i++) {
+                s.writeObject(l.keys[i]);
+                s.writeObject(l.values[i]);
+            }
+        }
+    }
+
+    /** the pairs arrive in key order, so the tree is rebuilt bottom up */
+    private void readObject(ObjectInputStream s)
+        throws IOException, ClassNotFoundException {
+        s.defaultReadObject();
+        int n = s.readInt();
+        Object[] keys = new Object[n];
+        Object[] values = new Object[n];
+        for (int i = 0; i < n; i++) {
+            keys[i] = s.readObject();
+            values[i] = s.readObject();
+        }
+        buildFromSorted(keys, values);
+    }
+
+    // Nodes
+    // -----
+    // Arrays have one slot more than a node may keep, so that an insert
+    // can go in first and the split follow.
+
+    static abstract class Node {
+        /** the number of keys in a leaf, or of children in a branch */
+        int n;
+        Object[] keys;
+    }
+
+    static final class Leaf extends Node {
+        Object[] values = new Object[NODE_CAPACITY + 1];
+        Leaf prev;
+        Leaf next;
+
+        Leaf() {
+            keys = new Object[NODE_CAPACITY + 1];
+        }
+    }
+
+    /** n children, with n - 1 separating keys, and the mapping count under each child */
+    static final class Branch extends Node {
+        Node[] children = new Node[NODE_CAPACITY + 1];
+        int[] counts = new int[NODE_CAPACITY + 1];
+
+        Branch() {
+            keys = new Object[NODE_CAPACITY];
+        }
+    }
+
+    // Views
+    // -----
+
+    /**
+     * the Map.Entry handed out by the entry iterators.  Entries move
+     * between leaves as the tree changes, so setValue() finds its key
+     * afresh.
+     */
+    private class LeafEntry implements Map.Entry {
+        private final Object key;
+        private Object value;
+
+        LeafEntry(Object key, Object value) {
+            this.key = key;
+            this.value = value;
+        }
+
+        public Object getKey() {
+            return key;
+        }
+
+        public Object getValue() {
+            return value;
+        }
+
+        public Object setValue(Object value) {
+            Object old = this.value;
+            this.value = value;
+            setValueFor(key, value);
+            return old;
+        }
+
+        public boolean equals(Object o) {
+            if (!(o instanceof Map.Entry)) {
+                return false;
+            }
+            Map.Entry e = (Map.Entry) o;
+            return (key == null ? e.getKey() == null : key.equals(e.getKey()))
+                && (value == null ? e.getValue() == null : value.equals(e.getValue()));
+        }
+
+        public int hashCode() {
+            return (key == null ? 0 : key.hashCode()) ^ (value == null ? 0 : value.hashCode());
+        }
+
+        public String toString() {
+            return key + "=" + value;
+        }
+    }
+
+    /** a Set view of the keys or entries of the whole map */
+    private class BTreeSetView extends AbstractSet {
+        private final int setType;
+
+        BTreeSetView(int type) {
+            setType = type;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public boolean isEmpty() {
+            return size == 0;
+        }
+
+        public void clear() {
+            BTreeMap.this.clear();
+        }
+
+        public boolean contains(Object o) {
+            if (setType == KEYS) {
+                return containsKey(o);
+            }
+            if (!(o instanceof Map.Entry)) {
+                return false;
+            }
+            Map.Entry e = (Map.Entry) o;
+            Object key = e.getKey();
+            Leaf l = findLeaf(key);
+            int i = search(l.keys, l.n, key);
+            Object v = e.getValue();
+            return i >= 0 && (v == null ? l.values[i] == null : v.equals(l.values[i]));
+        }
+
+        public boolean remove(Object o) {
+            if (!contains(o)) {
+                return false;
+            }
+            BTreeMap.this.remove((setType == KEYS) ? o : ((Map.Entry) o).getKey());
+            return true;
+        }
+
+        public Iterator iterator() {
+            return new LeafIterator(setType, true, null, true, null);
+        }
+    }
+
+    /** a Collection view of the values of the whole map */
+    private class BTreeValues extends AbstractCollection {
+        public int size() {
+            return size;
+        }
+
+        public void clear() {
+            BTreeMap.this.clear();
+        }
+
+        public Iterator iterator() {
+            return new LeafIterator(VALUES, true, null, true, null);
+        }
+    }
+
+    /**
+     * walks along the leaves from fromKey (inclusive, or the first key if
+     * fromStart) to toKey (exclusive, or the last key if toEnd).  remove()
+     * may split or merge leaves, so afterwards the iterator finds its
+     * place again by searching for the key it last returned.
+     */
+    private class LeafIterator implements Iterator {
+        private final int type;
+        private final boolean toEnd;
+        private final Object toKey;
+        private int knownMods = modCount;
+        private Leaf leaf;
+        private int index;
+        private Object lastKey;
+        private boolean canRemove;
+
+        LeafIterator(int type, boolean fromStart, Object fromKey, boolean toEnd, Object toKey) {
+            this.type = type;
+            this.toEnd = toEnd;
+            this.toKey = toKey;
+            if (fromStart) {
+                leaf = head;
+                index = 0;
+                fence();
+            } else {
+                seek(fromKey);
+            }
+        }
+
+        /** moves to the least key greater than or equal to key */
+        private void seek(Object key) {
+            leaf = findLeaf(key);
+            int i = search(leaf.keys, leaf.n, key);
+            index = (i >= 0) ? i : -i - 1;
+            fence();
+        }
+
+        /** steps to the next leaf if this one is used up, and stops at toKey */
+        private void fence() {
+            if (index == leaf.n) {
+                leaf = leaf.next;
+                index = 0;
+            }
+            if (leaf != null && !toEnd && compare(leaf.keys[index], toKey) >= 0) {
+                leaf = null;
+            }
+        }
+
+        private void checkMod() {
+            if (knownMods != modCount) {
+                throw new ConcurrentModificationException();
+            }
+        }
+
+        public boolean hasNext() {
+            checkMod();
+            return leaf != null;
+        }
+
+        public Object next() {
+            checkMod();
+            if (leaf == null) {
+                throw new NoSuchElementException();
+            }
+            Object key = leaf.keys[index];
+            Object value = leaf.values[index];
+            index++;
+            fence();
+            lastKey = key;
+            canRemove = true;
+            if (type == KEYS) {
+                return key;
+            } else if (type == VALUES) {
+                return value;
+            } else {
+                return new LeafEntry(key, value);
+            }
+        }
+
+        public void remove() {
+            checkMod();
+            if (!canRemove) {
+                throw new IllegalStateException();
+            }
+            BTreeMap.this.remove(lastKey);
+            knownMods = modCount;
+            canRemove = false;
+            if (leaf != null) {
+                seek(lastKey);
+            }
+        }
+    }
+
+    /** a range view whose size is the difference of two ranks */
+    private class SubMap extends AbstractSubMap {
+
+        SubMap(boolean fromStart, Object fromKey, boolean toEnd, Object toKey) {
+            super(BTreeMap.this, fromStart, fromKey, toEnd, toKey);
+        }
+
+        AbstractSubMap newSubMap(boolean fromStart, Object fromKey,
+                                 boolean toEnd, Object toKey) {
+            return new SubMap(fromStart, fromKey, toEnd, toKey);
+        }
+
+        /** the rank of the view's first key */
+        private int low() {
+            return fromStart ? 0 : rank(fromKey);
+        }
+
+        /** one past the rank of the view's last key */
+        private int high() {
+            return toEnd ? BTreeMap.this.size : rank(toKey);
+        }
+
+        Iterator iterator(int type) {
+            return new LeafIterator(type, fromStart, fromKey, toEnd, toKey);
+        }
+
+        public int size() {
+            return high() - low();
+        }
+
+        public Object firstKey() {
+            int lo = low();
+            if (lo >= high()) {
+                throw new NoSuchElementException();
+            }
+            return select(lo);
+        }
+
+        public Object lastKey() {
+            int hi = high();
+            if (hi <= low()) {
+                throw new NoSuchElementException();
+            }
+            return select(hi - 1);
+        }
+    }
+}
@@ -0,0 +1,38 @@
+/////////////////////////////////////////////////////////////////////////////
+// BatchIterator.java -- an Iterator which can hand over many elements at
+//                       once
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU Library General Public License as published
+// by the Free Software Foundation, version 2. (see COPYING.LIB)
+//
+// This program is distributed in the hope that it will be useful, but
+// WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Library General Public License for more details.
+//
+// You should have received a copy of the GNU Library General Public License
+// along with this program; if not, write to the Free Software Foundation
+// Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307 USA
+/////////////////////////////////////////////////////////////////////////////
+
+package java.util;
+
+/**
+ * an optional extension of Iterator, implemented by the iterators of
+ * ArrayList, Vector, LinkedList (and any other AbstractList) and of the
+ * Hashtable views.  nextBatch() pays the per-call overhead of next() (the
+ * dispatch and the fail-fast check) once for a whole run of elements,
+ * and list iterators copy the run with System.arraycopy where the storage
+ * allows.  Callers test for it with instanceof and fall back to next().
+ */
+public interface BatchIterator extends Iterator
+{
+    /**
+     * copies up to buf.length of the next elements into buf, starting at
+     * buf[0], and returns how many were copied; 0 means the iteration is
+     * over.  Afterwards the iterator stands as if next() had been called
+     * that many times, so remove() removes the last element copied.
+     */
+    public int nextBatch(Object[] buf);
+}
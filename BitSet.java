@@ -0,0 +1,541 @@
+/////////////////////////////////////////////////////////////////////////////
+// BitSet.java -- a growable vector of bits
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU Library General Public License as published
+// by the Free Software Foundation, version 2. (see COPYING.LIB)
+//
+// This program is distributed in the hope that it will be useful, but
+// WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Library General Public License for more details.
+//
+// You should have received a copy of the GNU Library General Public License
+// along with this program; if not, write to the Free Software Foundation
+// Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307 USA
+/////////////////////////////////////////////////////////////////////////////
+
+package java.util;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+
+/**
+ * a vector of bits, indexed from 0, which grows as bits are set.  The bits
+ * are packed 64 to a long, an eighth of the space of a boolean[], and the
+ * range operations (set, clear and flip over fromIndex to toIndex) and the
+ * set algebra (and, or, xor, andNot) work a whole word at a time, masking
+ * only the words at the ends of a range.  cardinality(), nextSetBit() and
+ * nextClearBit() likewise count or skip a word at a time, and bits() walks
+ * the set bits as ints, without boxing them.
+ *
+ * Not synchronized; a BitSet shared between threads must be locked by its
+ * users.
+ */
+public class BitSet implements Cloneable, Serializable
+{
+    /** a long holds 1 << ADDRESS_BITS bits */
+    private static final int ADDRESS_BITS = 6;
+    private static final int BITS_PER_WORD = 1 << ADDRESS_BITS;
+    private static final long WORD_MASK = 0xffffffffffffffffL;
+
+    private transient long[] words;
+
+    /** the number of words up to and including the last non-zero one */
+    private transient int wordsInUse;
+
+    public BitSet()
+    {
+	words = new long[1];
+    }
+
+    /**
+     * @param      nbits   the number of bits to make room for at first
+     * @exception  NegativeArraySizeException if nbits is negative
+     */
+    public BitSet(int nbits)
+    {
+	if (nbits < 0)
+	    throw new NegativeArraySizeException(Integer.toString(nbits));
+	words = new long[wordIndex(nbits - 1) + 1];
+    }
+
+    private static int wordIndex(int bitIndex)
+    {
+	return bitIndex >> ADDRESS_BITS;
+    }
+
+    /**
+     * counts the set bits of i, by the same parallel sum as
+     * PersistentHashMap.bitCount(int) carried to 64 bits
+     */
+    static int bitCount(long i)
+    {
+	i = i - ((i >>> 1) & 0x5555555555555555L);
+	i = (i & 0x3333333333333333L) + ((i >>> 2) & 0x3333333333333333L);
+	i = (i + (i >>> 4)) & 0x0f0f0f0f0f0f0f0fL;
+	return (int) ((i * 0x0101010101010101L) >>> 56);
+    }
+
+    /**
+     * returns the number of zero bits below the lowest set bit of i, or 64
+     * if i is 0.  (i & -i) - 1 has a one exactly where i has those zeros.
+     */
+    static int numberOfTrailingZeros(long i)
+    {
+	return bitCount((i & -i) - 1);
+    }
+
+    /**
+     * returns the number of zero bits above the highest set bit of i, or
+     * 64 if i is 0.  Smearing the highest bit downwards leaves ones in
+     * every place below it, and zeros only above.
+     */
+    static int numberOfLeadingZeros(long i)
+    {
+	i |= i >>> 1;
+	i |= i >>> 2;
+	i |= i >>> 4;
+	i |= i >>> 8;
+	i |= i >>> 16;
+	i |= i >>> 32;
+	return bitCount(~i);
+    }
+
+    private static void checkIndex(int bitIndex)
+    {
+	if (bitIndex < 0)
+	    throw new IndexOutOfBoundsException("bitIndex < 0: " + bitIndex);
+    }
+
+    private static void checkRange(int fromIndex, int toIndex)
+    {
+	if (fromIndex < 0)
+	    throw new IndexOutOfBoundsException("fromIndex < 0: " + fromIndex);
+	if (fromIndex > toIndex)
+	    throw new IndexOutOfBoundsException("fromIndex > toIndex: "
+						+ fromIndex + " > " + toIndex);
+    }
+
+    /** makes sure words[wordIndex] exists and is counted in wordsInUse */
+    private void expandTo(int wordIndex)
+    {
+	int required = wordIndex + 1;
+	if (words.length < required)
+	    {
+		long[] bigger = new long[Math.max(2 * words.length, required)];
+		System.arraycopy(words, 0, bigger, 0, wordsInUse);
+		words = bigger;
+	    }
+	if (wordsInUse < required)
+	    wordsInUse = required;
+    }
+
+    /** drops any zero words from the end of wordsInUse */
+    private void trimWordsInUse()
+    {
+	int n = wordsInUse;
+	while (n > 0 && words[n - 1] == 0)
+	    n--;
+	wordsInUse = n;
+    }
+
+    public boolean get(int bitIndex)
+    {
+	int w = wordIndex(bitIndex);
+	checkIndex(bitIndex);
+	return w < wordsInUse && (words[w] & (1L << bitIndex)) != 0;
+    }
+
+    public void set(int bitIndex)
+    {
+	int w = wordIndex(bitIndex);
+	checkIndex(bitIndex);
+	expandTo(w);
+	words[w] |= 1L << bitIndex;
+    }
+
+    public void set(int bitIndex, boolean value)
+    {
+	if (value)
+	    set(bitIndex);
+	else
+	    clear(bitIndex);
+    }
+
+    /** sets the bits from fromIndex, inclusive, to toIndex, exclusive */
+    public void set(int fromIndex, int toIndex)
+    {
+	int first, last;
+	long firstMask, lastMask;
+	checkRange(fromIndex, toIndex);
+	if (fromIndex == toIndex)
+	    return;
+	first = wordIndex(fromIndex);
+	last = wordIndex(toIndex - 1);
+	expandTo(last);
+	firstMask = WORD_MASK << fromIndex;
+	lastMask = WORD_MASK >>> -toIndex;
+	if (first == last)
+	    {
+		words[first] |= firstMask & lastMask;
+		return;
+	    }
+	words[first] |= firstMask;
+	for (int i = first + 1; i < last; i++)
+	    words[i] = WORD_MASK;
+	words[last] |= lastMask;
+    }
+
+    public void set(int fromIndex, int toIndex, boolean value)
+    {
+	if (value)
+	    set(fromIndex, toIndex);
+	else
+	    clear(fromIndex, toIndex);
+    }
+
+    public void clear(int bitIndex)
+    {
+	int w = wordIndex(bitIndex);
+	checkIndex(bitIndex);
+	if (w >= wordsInUse)
+	    return;
+	words[w] &= ~(1L << bitIndex);
+	trimWordsInUse();
+    }
+
+    /** clears the bits from fromIndex, inclusive, to toIndex, exclusive */
+    public void clear(int fromIndex, int toIndex)
+    {
+	int first, last;
+	long firstMask, lastMask;
+	checkRange(fromIndex, toIndex);
+	if (fromIndex == toIndex)
+	    return;
+	first = wordIndex(fromIndex);
+	if (first >= wordsInUse)
+	    return;
+	last = wordIndex(toIndex - 1);
+	lastMask = WORD_MASK >>> -toIndex;
+	if (last >= wordsInUse)
+	    {
+		last = wordsInUse - 1;
+		lastMask = WORD_MASK;
+	    }
+	firstMask = WORD_MASK << fromIndex;
+	if (first == last)
+	    words[first] &= ~(firstMask & lastMask);
+	else
+	    {
+		words[first] &= ~firstMask;
+		for (int i = first + 1; i < last; i++)
+		    words[i] = 0;
+		words[last] &= ~lastMask;
+	    }
+	trimWordsInUse();
+    }
+
+    public void clear()
+    {
+	while (wordsInUse > 0)
+	    words[--wordsInUse] = 0;
+    }
+
+    public void flip(int bitIndex)
+    {
+	int w = wordIndex(bitIndex);
+	checkIndex(bitIndex);
+	expandTo(w);
+	words[w] ^= 1L << bitIndex;
+	trimWordsInUse();
+    }
+
+    /** flips the bits from fromIndex, inclusive, to toIndex, exclusive */
+    public void flip(int fromIndex, int toIndex)
+    {
+	int first, last;
+	long firstMask, lastMask;
+	checkRange(fromIndex, toIndex);
+	if (fromIndex == toIndex)
+	    return;
+	first = wordIndex(fromIndex);
+	last = wordIndex(toIndex - 1);
+	expandTo(last);
+	firstMask = WORD_MASK << fromIndex;
+	lastMask = WORD_MASK >>> -toIndex;
+	if (first == last)
+	    words[first] ^= firstMask & lastMask;
+	else
+	    {
+		words[first] ^= firstMask;
+		for (int i = first + 1; i < last; i++)
+		    words[i] ^= WORD_MASK;
+		words[last] ^= lastMask;
+	    }
+	trimWordsInUse();
+    }
+
+    /** clears every bit which is clear in set */
+    public void and(BitSet set)
+    {
+	int n;
+	if (this == set)
+	    return;
+	n = Math.min(wordsInUse, set.wordsInUse);
+	for (int i = n; i < wordsInUse; i++)
+	    words[i] = 0;
+	wordsInUse = n;
+	for (int i = 0; i < n; i++)
+	    words[i] &= set.words[i];
+	trimWordsInUse();
+    }
+
+    /** sets every bit which is set in set */
+    public void or(BitSet set)
+    {
+	int common;
+	if (this == set)
+	    return;
+	common = Math.min(wordsInUse, set.wordsInUse);
+	if (wordsInUse < set.wordsInUse)
+	    {
+		expandTo(set.wordsInUse - 1);
+		System.arraycopy(set.words, common, words, common, wordsInUse - common);
+	    }
+	for (int i = 0; i < common; i++)
+	    words[i] |= set.words[i];
+    }
+
+    /** flips every bit which is set in set */
+    public void xor(BitSet set)
+    {
+	int common = Math.min(wordsInUse, set.wordsInUse);
+	if (this == set)
+	    {
+		clear();
+		return;
+	    }
+	if (wordsInUse < set.wordsInUse)
+	    {
+		expandTo(set.wordsInUse - 1);
+		System.arraycopy(set.words, common, words, common, wordsInUse - common);
+	    }
+	for (int i = 0; i < common; i++)
+	    words[i] ^= set.words[i];
+	trimWordsInUse();
+    }
+
+    /** clears every bit which is set in set */
+    public void andNot(BitSet set)
+    {
+	int n = Math.min(wordsInUse, set.wordsInUse);
+	if (this == set)
+	    {
+		clear();
+		return;
+	    }
+	for (int i = 0; i < n; i++)
+	    words[i] &= ~set.words[i];
+	trimWordsInUse();
+    }
+
+    /** returns true if some bit is set both here and in set */
+    public boolean intersects(BitSet set)
+    {
+	for (int i = Math.min(wordsInUse, set.wordsInUse) - 1; i >= 0; i--)
+	    {
+		if ((words[i] & set.words[i]) != 0)
+		    return true;
+	    }
+	return false;
+    }
+
+    /** returns the number of set bits */
+    public int cardinality()
+    {
+	int sum = 0;
+	for (int i = 0; i < wordsInUse; i++)
+	    sum += bitCount(words[i]);
+	return sum;
+    }
+
+    /**
+     * returns the index of the first set bit at or after fromIndex, or -1
+     * if there is none.  To visit every set bit:
+     * <pre>
+     * for (int i = bs.nextSetBit(0); i >= 0; i = bs.nextSetBit(i + 1))
+     * </pre>
+     */
+    public int nextSetBit(int fromIndex)
+    {
+	int w = wordIndex(fromIndex);
+	long word;
+	checkIndex(fromIndex);
+	if (w >= wordsInUse)
+	    return -1;
+	word = words[w] & (WORD_MASK << fromIndex);
+	for (;;)
+	    {
+		if (word != 0)
+		    return (w * BITS_PER_WORD) + numberOfTrailingZeros(word);
+		if (++w == wordsInUse)
+		    return -1;
+		word = words[w];
+	    }
+    }
+
+    /** returns the index of the first clear bit at or after fromIndex */
+    public int nextClearBit(int fromIndex)
+    {
+	int w = wordIndex(fromIndex);
+	long word;
+	checkIndex(fromIndex);
+	if (w >= wordsInUse)
+	    return fromIndex;
+	word = ~words[w] & (WORD_MASK << fromIndex);
+	for (;;)
+	    {
+		if (word != 0)
+		    return (w * BITS_PER_WORD) + numberOfTrailingZeros(word);
+		if (++w == wordsInUse)
+		    return wordsInUse * BITS_PER_WORD;
+		word = ~words[w];
+	    }
+    }
+
+    /** returns an enumeration of the indexes of the set bits, in ascending order */
+    public IntEnumeration bits()
+    {
+	return new IntEnumeration()
+	    {
+		/** the set bits of words[w] not yet returned */
+		private int w = -1;
+		private long word;
+
+		{
+		    advance();
+		}
+
+		private void advance()
+		{
+		    while (word == 0 && ++w < wordsInUse)
+			word = words[w];
+		}
+
+		public boolean hasMoreElements()
+		{
+		    return word != 0;
+		}
+
+		public int nextInt()
+		{
+		    int bit;
+		    if (word == 0)
+			throw new NoSuchElementException();
+		    bit = (w * BITS_PER_WORD) + numberOfTrailingZeros(word);
+		    word &= word - 1;
+		    advance();
+		    return bit;
+		}
+	    };
+    }
+
+    /** returns one more than the index of the highest set bit, or 0 if none is set */
+    public int length()
+    {
+	if (wordsInUse == 0)
+	    return 0;
+	return BITS_PER_WORD * wordsInUse
+	    - numberOfLeadingZeros(words[wordsInUse - 1]);
+    }
+
+    /** returns the number of bits of space in use */
+    public int size()
+    {
+	return words.length * BITS_PER_WORD;
+    }
+
+    public boolean isEmpty()
+    {
+	return wordsInUse == 0;
+    }
+
+    public boolean equals(Object o)
+    {
+	BitSet set;
+	if (!(o instanceof BitSet))
+	    return false;
+	set = (BitSet) o;
+	if (wordsInUse != set.wordsInUse)
+	    return false;
+	for (int i = 0; i < wordsInUse; i++)
+	    {
+		if (words[i] != set.words[i])
+		    return false;
+	    }
+	return true;
+    }
+
+    /** the same hash as the JDK's BitSet gives for the same bits */
+    public int hashCode()
+    {
+	long h = 1234;
+	for (int i = wordsInUse; --i >= 0; )
+	    h ^= words[i] * (i + 1);
+	return (int) ((h >> 32) ^ h);
+    }
+
+    public Object clone()
+    {
+	BitSet result;
+	try
+	    {
+		result = (BitSet) super.clone();
+	    }
+	catch (CloneNotSupportedException e)
+	    {
+		throw new InternalError();
+	    }
+	result.words = new long[Math.max(wordsInUse, 1)];
+	System.arraycopy(words, 0, result.words, 0, wordsInUse);
+	return result;
+    }
+
+    /** returns the indexes of the set bits, as in "{1, 4, 9}" */
+    public String toString()
+    {
+	StringBuffer buf = new StringBuffer("{");
+	boolean first = true;
+	for (IntEnumeration e = bits(); e.hasMoreElements(); )
+	    {
+		if (!first)
+		    buf.append(", ");
+		buf.append(e.nextInt());
+		first = false;
+	    }
+	return buf.append('}').toString();
+    }
+
+    /** only the words in use are written */
+    private void writeObject(ObjectOutputStream s) throws IOException
+    {
+	s.defaultWriteObject();
+	s.writeInt(wordsInUse);
+	for (int i = 0; i < wordsInUse; i++)
+	    s.writeLong(words[i]);
+    }
+
+    private void readObject(ObjectInputStream s)
+	throws IOException, ClassNotFoundException
+    {
+	s.defaultReadObject();
+	wordsInUse = s.readInt();
+	words = new long[Math.max(wordsInUse, 1)];
+	for (int i = 0; i < wordsInUse; i++)
+	    words[i] = s.readLong();
+	trimWordsInUse();
+    }
+}
@@ -20,62 +20,102 @@
 
 package java.util;
 
+/**
+ * a hash bucket: normally a singly linked list of Nodes.  A list which grows
+ * past TREEIFY_THRESHOLD nodes (many keys colliding, whether through a poor
+ * hashCode() or by design) is additionally organised as a red-black tree,
+ * ordered by hash, then by compareTo() for mutually Comparable keys, then
+ * by an arbitrary but consistent tie-break; lookups in such a bucket are
+ * O(log n) instead of O(n).  A tree bucket keeps its nodes threaded on the
+ * <pre>first</pre> list as well, so iteration does not care which form a
+ * bucket is in.  Trees turn back into plain lists at UNTREEIFY_THRESHOLD.
+ */
 class Bucket
 {
+    /** the list length above which a bucket becomes a tree */
+    static final int TREEIFY_THRESHOLD = 8;
+    /** the size at or below which a tree bucket becomes a list again */
+    static final int UNTREEIFY_THRESHOLD = 6;
+
     Node first;
+    /** the number of nodes in this bucket */
+    int count;
+    /** the root of the tree when this bucket is a tree, otherwise null */
+    TreeNode root;
     
     Bucket()
     {
     }
     
-    Node add(Node newNode)
+    /**
+     * maps key to value in this bucket; returns the previous value for the
+     * key, or null if it was not present and a node has been added
+     */
+    Object put(Object key, Object value, int hash)
     {
-	Object oKey;
-	Object oTestKey = newNode.getKey();
-	Node it = first;
-	Node prev = null;
-	if (it == null) // if empty (ideal case), make a new single-node list
+	Node node = getEntryByKey(key, hash);
+	Object oResult;
+	if (node != null)
 	    {
-		first = newNode;
-		return null;
+		oResult = node.getValue();
+		node.setValue(value);
+		return oResult;
 	    }
-	else // otherwise try to find where this key already exists in the list,
-	    {// and if it does, replace the value with the new one (and return the old one)
-		while (it != null)  
-		    {
-			oKey = it.getKey();
-			if ((oKey == null) ? (oTestKey == null) :
-			    oKey.equals(oTestKey))
-			    {
-				if (prev != null)
-				    prev.next = newNode;
-				else
-				    first = newNode;
-				newNode.next = it.next;
-				return it; 
-			    }
-			prev = it;  
-			it = it.next;
-		    }
-		prev.next = newNode; // otherwise, just stick this at the 
-                return null;
+	if (root != null)
+	    {
+		TreeNode t = new TreeNode(key, value, hash);
+		link(t);
+		treeInsert(t);
+	    }
+	else
+	    {
+		link(new Node(key, value, hash));
+		if (count > TREEIFY_THRESHOLD)
+		    treeify();
 	    }
+	return null;
     }
-    
-    Object removeByKey(Object key)
+
+    /**
+     * puts a node at the head of this list without looking for an existing
+     * node with the same key; the caller must already know there is none
+     */
+    void link(Node newNode)
+    {
+	newNode.next = first;
+	if (root != null)
+	    ((TreeNode) first).prev = (TreeNode) newNode;
+	first = newNode;
+	count++;
+    }
+
+    Object removeByKey(Object key, int hash)
     {
 	Object oEntryKey;
 	Node prev = null;
 	Node it = first;
+	if (root != null)
+	    {
+		TreeNode t = treeFind(root, key, hash);
+		if (t == null)
+		    return null;
+		unlink(t);
+		treeDelete(t);
+		if (count <= UNTREEIFY_THRESHOLD)
+		    untreeify();
+		return t.getValue();
+	    }
 	while (it != null)
 	    {
 		oEntryKey = it.getKey();
-		if ((oEntryKey == null) ? (key == null) : oEntryKey.equals(key))
+		if (it.hash == hash && 
+		    ((oEntryKey == null) ? (key == null) : oEntryKey.equals(key)))
 		    {
 			if (prev == null) // we are removing the first element
 			    first = it.next;
 			else
 			    prev.next = it.next;
+			count--;
 			return it.getValue();
 		    }
 		else
@@ -87,21 +127,42 @@ class Bucket
 	return null;
     }
     
-	Object getValueByKey(Object key)
+	Object getValueByKey(Object key, int hash)
 	{
-		Node entry = getEntryByKey(key);
+		Node entry = getEntryByKey(key, hash);
 		return (entry == null) ? null : entry.getValue();
 	}
 
-    Node getEntryByKey(Object key)
+    /**
+     * returns the node for the supplied key; the cached hash of each node
+     * is compared first, so equals() is only called on real candidates
+     */
+    Node getEntryByKey(Object key, int hash)
+    {
+	return getEntryByKey(key, hash, null);
+    }
+
+    /**
+     * as getEntryByKey(Object, int), but if equalsCalls is not null then
+     * equalsCalls[0] is incremented for each call to equals() the search
+     * makes (Hashtable's lookup sampling uses this)
+     */
+    Node getEntryByKey(Object key, int hash, int[] equalsCalls)
     {
 	Object oEntryKey;
 	Node it = first;
+	if (root != null)
+	    return treeFind(root, key, hash, equalsCalls);
 	while (it != null)
 	    {
 		oEntryKey = it.getKey();
-		if ((oEntryKey == null) ? (key == null) : oEntryKey.equals(key))
-		    return it;
+		if (it.hash == hash)
+		    {
+			if (equalsCalls != null && oEntryKey != null)
+			    equalsCalls[0]++;
+			if ((oEntryKey == null) ? (key == null) : oEntryKey.equals(key))
+			    return it;
+		    }
 		it = it.next;
 	    }
 	return null;
@@ -121,11 +182,546 @@ class Bucket
 	return false;
     }
 
-    static class Node 
+    /**
+     * splits this list for a table of twice the size: nodes whose hash has
+     * the <pre>oldLength</pre> bit clear stay at index, the rest move to
+     * index + oldLength.  Existing nodes are relinked in their original
+     * order, so no node is allocated and no key is compared (except that a
+     * tree bucket rebuilds its trees, and a half left too small to be a tree
+     * goes back to being a plain list).  This Bucket is reused for the low
+     * half; the result is written to <pre>table</pre>.
+     */
+    void split(Bucket[] table, int index, int oldLength)
+    {
+	Node loHead = null, loTail = null;
+	Node hiHead = null, hiTail = null;
+	int loCount = 0, hiCount = 0;
+	boolean wasTree = (root != null);
+	Node it = first;
+	Node next;
+	Bucket hi;
+	while (it != null)
+	    {
+		next = it.next;
+		it.next = null;
+		if ((it.hash & oldLength) == 0)
+		    {
+			if (loTail == null)
+			    loHead = it;
+			else
+			    loTail.next = it;
+			loTail = it;
+			loCount++;
+		    }
+		else
+		    {
+			if (hiTail == null)
+			    hiHead = it;
+			else
+			    hiTail.next = it;
+			hiTail = it;
+			hiCount++;
+		    }
+		it = next;
+	    }
+	first = loHead;
+	count = loCount;
+	root = null;
+	if (wasTree && loHead != null)
+	    retree();
+	table[index] = (loHead == null) ? null : this;
+	if (hiHead == null)
+	    {
+		table[index + oldLength] = null;
+	    }
+	else
+	    {
+		hi = new Bucket();
+		hi.first = hiHead;
+		hi.count = hiCount;
+		if (wasTree)
+		    hi.retree();
+		table[index + oldLength] = hi;
+	    }
+    }
+
+    /**
+     * like split(), but for a table any power of two larger than the old
+     * one: each node is relinked into the bucket of <pre>table</pre> its
+     * cached hash selects, which can only be index plus some multiple of
+     * <pre>oldLength</pre>.  This Bucket itself is dropped.
+     */
+    void redistribute(Bucket[] table, int index, int oldLength)
+    {
+	boolean wasTree = (root != null);
+	int mask = table.length - 1;
+	Node it = first;
+	Node next;
+	Bucket b;
+	int i;
+	while (it != null)
+	    {
+		next = it.next;
+		i = it.hash & mask;
+		b = table[i];
+		if (b == null)
+		    {
+			b = new Bucket();
+			table[i] = b;
+		    }
+		it.next = b.first;
+		b.first = it;
+		b.count++;
+		it = next;
+	    }
+	if (wasTree)
+	    {
+		for (i = index; i < table.length; i += oldLength)
+		    {
+			if (table[i] != null)
+			    table[i].retree();
+		    }
+	    }
+    }
+
+    // Tree buckets
+    // ------------
+
+    /**
+     * builds the tree over the nodes of this bucket.  Nodes which are
+     * already TreeNodes (left from an earlier untreeify()) are kept; a plain
+     * node has to be replaced by a TreeNode in its place on the list, which
+     * is safe only because this is reached from put() of a new key, after
+     * which iterators and entries already handed out are stale anyway.
+     */
+    private void treeify()
+    {
+	Node prev = null, next;
+	TreeNode t;
+	for (Node it = first; it != null; it = next)
+	    {
+		next = it.next;
+		if (it instanceof TreeNode)
+		    t = (TreeNode) it;
+		else
+		    {
+			t = new TreeNode(it.key, it.value, it.hash);
+			t.next = next;
+			if (prev == null)
+			    first = t;
+			else
+			    prev.next = t;
+		    }
+		prev = t;
+	    }
+	buildTree();
+    }
+
+    /**
+     * turns this tree bucket back into a plain list.  The TreeNodes stay on
+     * the list as they are, with only their tree links cleared, since this
+     * can happen under an iterator's remove(), and that iterator and the
+     * entries it has handed out still refer to these nodes.
+     */
+    private void untreeify()
+    {
+	TreeNode t;
+	for (Node it = first; it != null; it = it.next)
+	    {
+		t = (TreeNode) it;
+		t.prev = t.parent = t.left = t.right = null;
+	    }
+	root = null;
+    }
+
+    /** makes a tree (or a list, if too small) of a list of TreeNodes */
+    private void retree()
+    {
+	if (count <= UNTREEIFY_THRESHOLD)
+	    untreeify();
+	else
+	    buildTree();
+    }
+
+    private void buildTree()
+    {
+	TreeNode prev = null, t;
+	root = null;
+	for (Node it = first; it != null; it = it.next)
+	    {
+		t = (TreeNode) it;
+		t.prev = prev;
+		t.left = t.right = t.parent = null;
+		treeInsert(t);
+		prev = t;
+	    }
+    }
+
+    /** removes a TreeNode from the <pre>first</pre> list */
+    private void unlink(TreeNode t)
+    {
+	TreeNode next = (TreeNode) t.next;
+	if (t.prev == null)
+	    first = next;
+	else
+	    t.prev.next = next;
+	if (next != null)
+	    next.prev = t.prev;
+	count--;
+    }
+
+    /**
+     * returns the class of k if it is Comparable and of exactly the same
+     * class as other, so that the two can be ordered by compareTo()
+     */
+    private static Class comparableClass(Object k, Object other)
+    {
+	if (k instanceof Comparable && other != null && k.getClass() == other.getClass())
+	    return k.getClass();
+	return null;
+    }
+
+    /**
+     * finds the node for key in the subtree at p.  Nodes with equal hashes
+     * which cannot be ordered by compareTo() may lie on either side, so in
+     * that case both subtrees are searched.
+     */
+    private static TreeNode treeFind(TreeNode p, Object key, int hash)
+    {
+	return treeFind(p, key, hash, null);
+    }
+
+    /** treeFind, counting calls to equals() in equalsCalls[0] if it is not null */
+    private static TreeNode treeFind(TreeNode p, Object key, int hash, int[] equalsCalls)
+    {
+	int dir;
+	TreeNode q;
+	Object pk;
+	while (p != null)
+	    {
+		pk = p.key;
+		if (hash < p.hash)
+		    p = p.left;
+		else if (hash > p.hash)
+		    p = p.right;
+		else if (pk == key || (key != null && countEquals(equalsCalls) && key.equals(pk)))
+		    return p;
+		else if (p.left == null)
+		    p = p.right;
+		else if (p.right == null)
+		    p = p.left;
+		else if (comparableClass(key, pk) != null &&
+			 (dir = ((Comparable) key).compareTo(pk)) != 0)
+		    p = (dir < 0) ? p.left : p.right;
+		else if ((q = treeFind(p.right, key, hash, equalsCalls)) != null)
+		    return q;
+		else
+		    p = p.left;
+	    }
+	return null;
+    }
+
+    /** counts an equals() call about to be made; always true */
+    private static boolean countEquals(int[] equalsCalls)
+    {
+	if (equalsCalls != null)
+	    equalsCalls[0]++;
+	return true;
+    }
+
+    /**
+     * orders two keys which have equal hashes and no compareTo() ordering;
+     * the result only needs to be consistent while both are in the tree
+     */
+    private static int tieBreakOrder(Object a, Object b)
+    {
+	int d = 0;
+	if (a != null && b != null)
+	    d = a.getClass().getName().compareTo(b.getClass().getName());
+	if (d == 0)
+	    d = (System.identityHashCode(a) <= System.identityHashCode(b)) ? -1 : 1;
+	return d;
+    }
+
+    /** inserts a TreeNode, known not to duplicate a key, into the tree */
+    private void treeInsert(TreeNode x)
+    {
+	TreeNode p = root;
+	TreeNode parent = null;
+	int dir = 0;
+	Object k = x.key;
+	if (p == null)
+	    {
+		x.red = false;
+		root = x;
+		return;
+	    }
+	while (p != null)
+	    {
+		parent = p;
+		if (x.hash < p.hash)
+		    dir = -1;
+		else if (x.hash > p.hash)
+		    dir = 1;
+		else if (comparableClass(k, p.key) == null ||
+			 (dir = ((Comparable) k).compareTo(p.key)) == 0)
+		    dir = tieBreakOrder(k, p.key);
+		p = (dir < 0) ? p.left : p.right;
+	    }
+	x.parent = parent;
+	if (dir < 0)
+	    parent.left = x;
+	else
+	    parent.right = x;
+	fixAfterInsertion(x);
+    }
+
+    private void rotateLeft(TreeNode p)
+    {
+	TreeNode r = p.right;
+	p.right = r.left;
+	if (r.left != null)
+	    r.left.parent = p;
+	r.parent = p.parent;
+	if (p.parent == null)
+	    root = r;
+	else if (p.parent.left == p)
+	    p.parent.left = r;
+	else
+	    p.parent.right = r;
+	r.left = p;
+	p.parent = r;
+    }
+
+    private void rotateRight(TreeNode p)
+    {
+	TreeNode l = p.left;
+	p.left = l.right;
+	if (l.right != null)
+	    l.right.parent = p;
+	l.parent = p.parent;
+	if (p.parent == null)
+	    root = l;
+	else if (p.parent.right == p)
+	    p.parent.right = l;
+	else
+	    p.parent.left = l;
+	l.right = p;
+	p.parent = l;
+    }
+
+    private static boolean isRed(TreeNode t)
+    {
+	return t != null && t.red;
+    }
+
+    private void fixAfterInsertion(TreeNode x)
+    {
+	TreeNode p, g, y;
+	x.red = true;
+	while (x != root && x.parent.red)
+	    {
+		p = x.parent;
+		g = p.parent;
+		if (p == g.left)
+		    {
+			y = g.right;
+			if (isRed(y))
+			    {
+				p.red = false;
+				y.red = false;
+				g.red = true;
+				x = g;
+			    }
+			else
+			    {
+				if (x == p.right)
+				    {
+					x = p;
+					rotateLeft(x);
+					p = x.parent;
+				    }
+				p.red = false;
+				g.red = true;
+				rotateRight(g);
+			    }
+		    }
+		else
+		    {
+			y = g.left;
+			if (isRed(y))
+			    {
+				p.red = false;
+				y.red = false;
+				g.red = true;
+				x = g;
+			    }
+			else
+			    {
+				if (x == p.left)
+				    {
+					x = p;
+					rotateRight(x);
+					p = x.parent;
+				    }
+				p.red = false;
+				g.red = true;
+				rotateLeft(g);
+			    }
+		    }
+	    }
+	root.red = false;
+    }
+
+    /** replaces the subtree at u with the one at v */
+    private void transplant(TreeNode u, TreeNode v)
+    {
+	if (u.parent == null)
+	    root = v;
+	else if (u == u.parent.left)
+	    u.parent.left = v;
+	else
+	    u.parent.right = v;
+	if (v != null)
+	    v.parent = u.parent;
+    }
+
+    /**
+     * removes z from the tree.  Nodes are moved rather than having their
+     * contents swapped, because iterators and callers hold on to nodes.
+     */
+    private void treeDelete(TreeNode z)
+    {
+	TreeNode x, xParent, y;
+	boolean removedRed;
+	if (z.left == null)
+	    {
+		x = z.right;
+		xParent = z.parent;
+		removedRed = z.red;
+		transplant(z, z.right);
+	    }
+	else if (z.right == null)
+	    {
+		x = z.left;
+		xParent = z.parent;
+		removedRed = z.red;
+		transplant(z, z.left);
+	    }
+	else
+	    {
+		y = z.right;
+		while (y.left != null)
+		    y = y.left;
+		removedRed = y.red;
+		x = y.right;
+		if (y.parent == z)
+		    {
+			xParent = y;
+		    }
+		else
+		    {
+			xParent = y.parent;
+			transplant(y, y.right);
+			y.right = z.right;
+			y.right.parent = y;
+		    }
+		transplant(z, y);
+		y.left = z.left;
+		y.left.parent = y;
+		y.red = z.red;
+	    }
+	z.left = z.right = z.parent = null;
+	if (!removedRed)
+	    fixAfterDeletion(x, xParent);
+    }
+
+    private void fixAfterDeletion(TreeNode x, TreeNode parent)
+    {
+	TreeNode w;
+	while (x != root && !isRed(x))
+	    {
+		if (x == parent.left)
+		    {
+			w = parent.right;
+			if (w.red)
+			    {
+				w.red = false;
+				parent.red = true;
+				rotateLeft(parent);
+				w = parent.right;
+			    }
+			if (!isRed(w.left) && !isRed(w.right))
+			    {
+				w.red = true;
+				x = parent;
+				parent = x.parent;
+			    }
+			else
+			    {
+				if (!isRed(w.right))
+				    {
+					w.left.red = false;
+					w.red = true;
+					rotateRight(w);
+					w = parent.right;
+				    }
+				w.red = parent.red;
+				parent.red = false;
+				if (w.right != null)
+				    w.right.red = false;
+				rotateLeft(parent);
+				x = root;
+				parent = null;
+			    }
+		    }
+		else
+		    {
+			w = parent.left;
+			if (w.red)
+			    {
+				w.red = false;
+				parent.red = true;
+				rotateRight(parent);
+				w = parent.left;
+			    }
+			if (!isRed(w.right) && !isRed(w.left))
+			    {
+				w.red = true;
+				x = parent;
+				parent = x.parent;
+			    }
+			else
+			    {
+				if (!isRed(w.left))
+				    {
+					w.right.red = false;
+					w.red = true;
+					rotateLeft(w);
+					w = parent.left;
+				    }
+				w.red = parent.red;
+				parent.red = false;
+				if (w.left != null)
+				    w.left.red = false;
+				rotateRight(parent);
+				x = root;
+				parent = null;
+			    }
+		    }
+	    }
+	if (x != null)
+	    x.red = false;
+    }
+
+    /** a node; it is also the Map.Entry handed out by Hashtable.entrySet() */
+    static class Node implements Map.Entry
 	{
 		Node next;
 		Object key;
 		Object value;
+		/** the (spread) hash code of key, cached when the node is made */
+		int hash;
 		
 		Node(Object key, Object value)
 		{
@@ -133,9 +729,18 @@ class Bucket
 			this.value = value;
 		}
 
-		public void setValue(Object newValue) 
+		Node(Object key, Object value, int hash)
+		{
+			this.key = key;
+			this.value = value;
+			this.hash = hash;
+		}
+
+		public Object setValue(Object newValue) 
 		{
+			Object oldValue = value;
 			value = newValue;
+			return oldValue;
 		}
 
 		public Object getKey() 
@@ -146,5 +751,41 @@ class Bucket
 		{
 			return value;
 		}
+
+		public boolean equals(Object o)
+		{
+			Map.Entry e;
+			if (!(o instanceof Map.Entry))
+				return false;
+			e = (Map.Entry) o;
+			return ((key == null) ? (e.getKey() == null) : key.equals(e.getKey()))
+				&& ((value == null) ? (e.getValue() == null) : value.equals(e.getValue()));
+		}
+
+		public int hashCode()
+		{
+			return ((key == null) ? 0 : key.hashCode())
+				^ ((value == null) ? 0 : value.hashCode());
+		}
+
+		public String toString()
+		{
+			return key + "=" + value;
+		}
+    }
+
+    /** a Node in a tree bucket; it stays on the next / prev list too */
+    static class TreeNode extends Node
+	{
+		TreeNode prev;
+		TreeNode parent;
+		TreeNode left;
+		TreeNode right;
+		boolean red;
+
+		TreeNode(Object key, Object value, int hash)
+		{
+			super(key, value, hash);
+		}
     }
 }
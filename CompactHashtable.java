@@ -0,0 +1,577 @@
+/////////////////////////////////////////////////////////////////////////////
+// CompactHashtable.java -- an insertion-ordered Hashtable with a dense entry
+//                          array and a small sparse index
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU Library General Public License as published
+// by the Free Software Foundation, version 2. (see COPYING.LIB)
+//
+// This program is distributed in the hope that it will be useful, but
+// WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Library General Public License for more details.
+//
+// You should have received a copy of the GNU Library General Public License
+// along with this program; if not, write to the Free Software Foundation
+// Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307 USA
+/////////////////////////////////////////////////////////////////////////////
+
+package java.util;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+
+/**
+ * a synchronized, Hashtable-like Map laid out as a "compact dictionary":
+ * the entries live in dense parallel arrays (keys, values and cached
+ * hashes) in the order they were inserted, and hashing only goes through
+ * a separate open-addressed index table whose slots hold entry numbers.
+ *
+ * Iteration, containsValue() and the like are therefore a straight scan
+ * of contiguous arrays, never touching empty hash slots, and iteration
+ * order is insertion order (a key which is removed and put again moves
+ * to the end).  The index is only a byte per slot while the table holds
+ * fewer than 171 entries, and a short per slot below 43691, so a small
+ * table costs three short arrays and a few bytes of index, against a
+ * Bucket and a node per entry in Hashtable.
+ *
+ * A removed entry leaves a hole in the dense arrays (and keeps its index
+ * slot, so lookups need no tombstones); holes are squeezed out when the
+ * arrays next fill up.  Neither keys nor values may be null; a lookup or
+ * remove() of a null key finds nothing, as in Hashtable.  Iterators are
+ * fail-fast.
+ */
+public class CompactHashtable extends AbstractMap implements Map, Serializable
+{
+    private static final int DEFAULT_CAPACITY = 8;
+    private static final int MAXIMUM_INDEX = 1 << 30;
+
+    private static final int KEYS = 0;
+    private static final int VALUES = 1;
+    private static final int ENTRIES = 2;
+
+    /** the entries; keys[i] is null for a removed entry */
+    private transient Object[] keys;
+    private transient Object[] values;
+    private transient int[] hashes;
+    /** the number of entry positions used, including holes */
+    private transient int used;
+    private transient int size;
+    transient int modCount;
+
+    /**
+     * the index: slot values are entry numbers plus one, and 0 is an empty
+     * slot.  Exactly one of these is non-null, the narrowest which can hold
+     * the largest entry number.
+     */
+    private transient byte[] index8;
+    private transient short[] index16;
+    private transient int[] index32;
+    private transient int mask;
+
+    public CompactHashtable()
+    {	init(DEFAULT_CAPACITY);
+    }
+
+    public CompactHashtable(int initialCapacity)
+    {
+	if (initialCapacity < 0)
+	    throw new IllegalArgumentException();
+	init(initialCapacity);
+    }
+
+    public CompactHashtable(Map t)
+    {
+	init(t.size());
+	putAll(t);
+    }
+
+    /** the number of entries an index of the given length may hold */
+    private static int entryCapacity(int indexLength)
+    {
+	return indexLength / 3 * 2 + ((indexLength % 3) * 2) / 3;
+    }
+
+    private void init(int capacity)
+    {
+	int length = 4;
+	while (length < MAXIMUM_INDEX && entryCapacity(length) < capacity)
+	    length <<= 1;
+	keys = new Object[entryCapacity(length)];
+	values = new Object[keys.length];
+	hashes = new int[keys.length];
+	used = 0;
+	size = 0;
+	makeIndex(length);
+    }
+
+    private void makeIndex(int length)
+    {
+	index8 = null;
+	index16 = null;
+	index32 = null;
+	if (length <= 256)
+	    index8 = new byte[length];
+	else if (length <= 65536)
+	    index16 = new short[length];
+	else
+	    index32 = new int[length];
+	mask = length - 1;
+    }
+
+    private int slot(int i)
+    {
+	if (index8 != null)
+	    return index8[i] & 0xFF;
+	if (index16 != null)
+	    return index16[i] & 0xFFFF;
+	return index32[i];
+    }
+
+    private void setSlot(int i, int entry)
+    {
+	if (index8 != null)
+	    index8[i] = (byte) entry;
+	else if (index16 != null)
+	    index16[i] = (short) entry;
+	else
+	    index32[i] = entry;
+    }
+
+    /** the entry number of key, or -1 */
+    private int find(Object key, int h)
+    {
+	int i = h & mask;
+	int s, e;
+	Object k;
+	while ((s = slot(i)) != 0)
+	    {
+		e = s - 1;
+		if (hashes[e] == h && (k = keys[e]) != null && (k == key || key.equals(k)))
+		    return e;
+		i = (i + 1) & mask;
+	    }
+	return -1;
+    }
+
+    /** find(key, hash) for a key not yet hashed, which may be null */
+    private int find(Object key)
+    {	return (key == null) ? -1 : find(key, Hashtable.spread(key.hashCode()));
+    }
+
+    /** points a free index slot at entry e */
+    private void index(int e)
+    {
+	int i = hashes[e] & mask;
+	while (slot(i) != 0)
+	    i = (i + 1) & mask;
+	setSlot(i, e + 1);
+    }
+
+    public synchronized int size()
+    {	return size;
+    }
+
+    public synchronized boolean isEmpty()
+    {	return size == 0;
+    }
+
+    public synchronized Object get(Object key)
+    {
+	int e = find(key);
+	return (e < 0) ? null : values[e];
+    }
+
+    public synchronized boolean containsKey(Object key)
+    {	return find(key) >= 0;
+    }
+
+    /** a linear scan of the dense value array */
+    public synchronized boolean containsValue(Object value)
+    {
+	if (value == null)
+	    throw new NullPointerException();
+	for (int i = 0; i < used; i++)
+	    {
+		if (value.equals(values[i]) && keys[i] != null)
+		    return true;
+	    }
+	return false;
+    }
+
+    /** the Hashtable name for containsValue() */
+    public boolean contains(Object value)
+    {	return containsValue(value);
+    }
+
+    public synchronized Object put(Object key, Object value)
+    {
+	int h, e;
+	Object old;
+	if (key == null || value == null)
+	    throw new NullPointerException();
+	h = Hashtable.spread(key.hashCode());
+	e = find(key, h);
+	if (e >= 0)
+	    {
+		old = values[e];
+		values[e] = value;
+		return old;
+	    }
+	modCount++;
+	if (used == keys.length)
+	    rebuild();
+	e = used++;
+	keys[e] = key;
+	values[e] = value;
+	hashes[e] = h;
+	index(e);
+	size++;
+	return null;
+    }
+
+    public synchronized void putAll(Map t)
+    {
+	Map.Entry e;
+	for (Iterator it = t.entrySet().iterator(); it.hasNext(); )
+	    {
+		e = (Map.Entry) it.next();
+		put(e.getKey(), e.getValue());
+	    }
+    }
+
+    public synchronized Object remove(Object key)
+    {
+	int e = find(key);
+	Object old;
+	if (e < 0)
+	    return null;
+	old = values[e];
+	removeAt(e);
+	return old;
+    }
+
+    /** turns entry e into a hole; its index slot keeps pointing at it */
+    private void removeAt(int e)
+    {
+	keys[e] = null;
+	values[e] = null;
+	size--;
+	modCount++;
+    }
+
+    public synchronized void clear()
+    {
+	for (int i = 0; i < used; i++)
+	    {
+		keys[i] = null;
+		values[i] = null;
+	    }
+	used = 0;
+	size = 0;
+	makeIndex(mask + 1);
+	modCount++;
+    }
+
+    /**
+     * called when the entry arrays are full: squeezes out the holes, and
+     * doubles everything unless that frees at least a quarter of the room
+     */
+    private void rebuild()
+    {
+	Object[] oldKeys = keys;
+	Object[] oldValues = values;
+	int[] oldHashes = hashes;
+	int length = mask + 1;
+	int n = 0;
+	if (keys.length - size < Math.max(1, keys.length / 4))
+	    {
+		if (length >= MAXIMUM_INDEX)
+		    throw new IllegalStateException("CompactHashtable is full");
+		length <<= 1;
+		keys = new Object[entryCapacity(length)];
+		values = new Object[keys.length];
+		hashes = new int[keys.length];
+	    }
+	makeIndex(length);
+	for (int i = 0; i < used; i++)
+	    {
+		if (oldKeys[i] == null)
+		    continue;
+		keys[n] = oldKeys[i];
+		values[n] = oldValues[i];
+		hashes[n] = oldHashes[i];
+		index(n);
+		n++;
+	    }
+	for (int i = n; i < used; i++)
+	    {
+		keys[i] = null;
+		values[i] = null;
+	    }
+	used = n;
+    }
+
+    public Enumeration keys()
+    {	return new EntryIterator(KEYS);
+    }
+
+    public Enumeration elements()
+    {	return new EntryIterator(VALUES);
+    }
+
+    public Set keySet()
+    {	return new EntrySetView(KEYS);
+    }
+
+    public Set entrySet()
+    {	return new EntrySetView(ENTRIES);
+    }
+
+    public Collection values()
+    {
+	return new AbstractCollection()
+	    {
+		public Iterator iterator()
+		{
+		    return new EntryIterator(VALUES);
+		}
+
+		public int size()
+		{
+		    return CompactHashtable.this.size();
+		}
+
+		public boolean contains(Object o)
+		{
+		    return CompactHashtable.this.containsValue(o);
+		}
+
+		public void clear()
+		{
+		    CompactHashtable.this.clear();
+		}
+	    };
+    }
+
+    /** writes the entries in insertion order, so that order survives */
+    private synchronized void writeObject(ObjectOutputStream s) throws IOException
+    {
+	s.defaultWriteObject();
+	s.writeInt(size);
+	for (int i = 0; i < used; i++)
+	    {
+		if (keys[i] != null)
+		    {
+			s.writeObject(keys[i]);
+			s.writeObject(values[i]);
+		    }
+	    }
+    }
+
+    private void readObject(ObjectInputStream s)
+	throws IOException, ClassNotFoundException
+    {
+	int n;
+	s.defaultReadObject();
+	n = s.readInt();
+	init(n);
+	for (int i = 0; i < n; i++)
+	    put(s.readObject(), s.readObject());
+    }
+
+    /** the Map.Entry for entry number e; setValue() writes through */
+    private final class PositionEntry implements Map.Entry
+    {
+	private final int e;
+	private final Object key;
+	private Object value;
+
+	PositionEntry(int e)
+	{
+	    this.e = e;
+	    key = keys[e];
+	    value = values[e];
+	}
+
+	public Object getKey()
+	{
+	    return key;
+	}
+
+	public Object getValue()
+	{
+	    return value;
+	}
+
+	public Object setValue(Object value)
+	{
+	    Object old = this.value;
+	    if (value == null)
+		throw new NullPointerException();
+	    synchronized (CompactHashtable.this)
+		{
+		    if (keys[e] == key)
+			values[e] = value;
+		    else
+			put(key, value);
+		}
+	    this.value = value;
+	    return old;
+	}
+
+	public boolean equals(Object o)
+	{
+	    Map.Entry other;
+	    if (!(o instanceof Map.Entry))
+		return false;
+	    other = (Map.Entry) o;
+	    return key.equals(other.getKey()) && value.equals(other.getValue());
+	}
+
+	public int hashCode()
+	{
+	    return key.hashCode() ^ value.hashCode();
+	}
+
+	public String toString()
+	{
+	    return key + "=" + value;
+	}
+    }
+
+    /** a Set view of the keys or entries */
+    private final class EntrySetView extends AbstractSet
+    {
+	private final int setType;
+
+	EntrySetView(int type)
+	{
+	    setType = type;
+	}
+
+	public Iterator iterator()
+	{
+	    return new EntryIterator(setType);
+	}
+
+	public int size()
+	{
+	    return CompactHashtable.this.size();
+	}
+
+	public boolean contains(Object o)
+	{
+	    Map.Entry e;
+	    Object v;
+	    if (setType == KEYS)
+		return containsKey(o);
+	    if (!(o instanceof Map.Entry))
+		return false;
+	    e = (Map.Entry) o;
+	    v = get(e.getKey());
+	    return v != null && v.equals(e.getValue());
+	}
+
+	public boolean remove(Object o)
+	{
+	    if (setType == KEYS)
+		return CompactHashtable.this.remove(o) != null;
+	    synchronized (CompactHashtable.this)
+		{
+		    if (!contains(o))
+			return false;
+		    CompactHashtable.this.remove(((Map.Entry) o).getKey());
+		    return true;
+		}
+	}
+
+	public void clear()
+	{
+	    CompactHashtable.this.clear();
+	}
+    }
+
+    /**
+     * a fail-fast scan of the entry arrays in insertion order; remove()
+     * only makes a hole, so the positions ahead are unaffected
+     */
+    private final class EntryIterator implements Iterator, Enumeration
+    {
+	private final int type;
+	private int next;
+	private int lastReturned = -1;
+	private int knownMods;
+
+	EntryIterator(int type)
+	{
+	    this.type = type;
+	    synchronized (CompactHashtable.this)
+		{
+		    knownMods = modCount;
+		    skipHoles();
+		}
+	}
+
+	private void skipHoles()
+	{
+	    while (next < used && keys[next] == null)
+		next++;
+	}
+
+	public boolean hasNext()
+	{
+	    synchronized (CompactHashtable.this)
+		{
+		    return next < used;
+		}
+	}
+
+	public boolean hasMoreElements()
+	{
+	    return hasNext();
+	}
+
+	public Object next()
+	{
+	    synchronized (CompactHashtable.this)
+		{
+		    int e = next;
+		    if (knownMods != modCount)
+			throw new ConcurrentModificationException();
+		    if (e >= used)
+			throw new NoSuchElementException();
+		    lastReturned = e;
+		    next++;
+		    skipHoles();
+		    if (type == KEYS)
+			return keys[e];
+		    else if (type == VALUES)
+			return values[e];
+		    else
+			return new PositionEntry(e);
+		}
+	}
+
+	public Object nextElement()
+	{
+	    return next();
+	}
+
+	public void remove()
+	{
+	    if (lastReturned < 0)
+		throw new IllegalStateException();
+	    synchronized (CompactHashtable.this)
+		{
+		    if (knownMods != modCount)
+			throw new ConcurrentModificationException();
+		    removeAt(lastReturned);
+		    knownMods = modCount;
+		}
+	    lastReturned = -1;
+	}
+    }
+}
@@ -0,0 +1,906 @@
+/////////////////////////////////////////////////////////////////////////////
+// ConcurrentHashtable.java -- a Hashtable with lock striping and lock-free
+//                             reads
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU Library General Public License as published
+// by the Free Software Foundation, version 2. (see COPYING.LIB)
+//
+// This program is distributed in the hope that it will be useful, but
+// WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Library General Public License for more details.
+//
+// You should have received a copy of the GNU Library General Public License
+// along with this program; if not, write to the Free Software Foundation
+// Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307 USA
+/////////////////////////////////////////////////////////////////////////////
+
+package java.util;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+
+/**
+ * a thread-safe Map with the same semantics as Hashtable (neither keys nor
+ * values may be null) but without a single table-wide monitor.
+ *
+ * The table is partitioned into segments, each a small hash table with its
+ * own lock, chosen by the high bits of a key's hash.  Writers lock only the
+ * segment they change, so up to <pre>concurrencyLevel</pre> writers can
+ * proceed at once.  Readers take no lock at all: chain entries have final
+ * keys, hashes and next links and a volatile value, and a writer never
+ * modifies a chain which a reader may be walking; it either adds a new
+ * head or copies the part of the chain in front of a removed entry.  A
+ * reader therefore always sees a consistent chain, though perhaps not the
+ * very latest one.
+ *
+ * Iterators and Enumerations are weakly consistent: they reflect the table
+ * at some point at or after their creation, never throw
+ * ConcurrentModificationException, and may be used alongside concurrent
+ * updates.  size() and isEmpty() are only estimates while other threads
+ * are writing.
+ */
+public class ConcurrentHashtable extends AbstractMap implements Map, Serializable
+{
+    private static final int DEFAULT_CAPACITY = 16;
+    private static final float DEFAULT_LOAD_FACTOR = 0.75f;
+    private static final int DEFAULT_CONCURRENCY_LEVEL = 16;
+    private static final int MAXIMUM_CAPACITY = 1 << 30;
+    private static final int MAX_SEGMENTS = 1 << 16;
+
+    /**
+     * the number of unlocked attempts size() and containsValue() make to
+     * get a stable answer before locking every segment
+     */
+    private static final int RETRIES_BEFORE_LOCK = 2;
+
+    private final int segmentMask;
+    private final int segmentShift;
+    private final Segment[] segments;
+
+    public ConcurrentHashtable()
+    {
+	this(DEFAULT_CAPACITY, DEFAULT_LOAD_FACTOR, DEFAULT_CONCURRENCY_LEVEL);
+    }
+
+    public ConcurrentHashtable(int initialCapacity)
+    {
+	this(initialCapacity, DEFAULT_LOAD_FACTOR, DEFAULT_CONCURRENCY_LEVEL);
+    }
+
+    /**
+     * @param      initialCapacity    the number of entries to size for
+     * @param      loadFactor         the load factor of each segment
+     * @param      concurrencyLevel   the number of concurrently updating
+     *                                threads to expect; this is rounded up
+     *                                to a power of two to give the number
+     *                                of segments
+     */
+    public ConcurrentHashtable(int initialCapacity, float loadFactor,
+			       int concurrencyLevel)
+    {
+	int sshift = 0;
+	int ssize = 1;
+	int c, cap, i;
+	if (!(loadFactor > 0) || initialCapacity < 0 || concurrencyLevel <= 0)
+	    throw new IllegalArgumentException();
+	if (concurrencyLevel > MAX_SEGMENTS)
+	    concurrencyLevel = MAX_SEGMENTS;
+	while (ssize < concurrencyLevel)
+	    {
+		++sshift;
+		ssize <<= 1;
+	    }
+	segmentShift = 32 - sshift;
+	segmentMask = ssize - 1;
+	segments = new Segment[ssize];
+	if (initialCapacity > MAXIMUM_CAPACITY)
+	    initialCapacity = MAXIMUM_CAPACITY;
+	c = initialCapacity / ssize;
+	if (c * ssize < initialCapacity)
+	    ++c;
+	cap = 1;
+	while (cap < c)
+	    cap <<= 1;
+	for (i = 0; i < ssize; i++)
+	    segments[i] = new Segment(cap, loadFactor);
+    }
+
+    public ConcurrentHashtable(Map t)
+    {
+	this(Math.max((int) (t.size() / DEFAULT_LOAD_FACTOR) + 1, DEFAULT_CAPACITY),
+	     DEFAULT_LOAD_FACTOR, DEFAULT_CONCURRENCY_LEVEL);
+	putAll(t);
+    }
+
+    /**
+     * a Wang/Jenkins style mix; segments are chosen by the high bits of the
+     * result and buckets by the low bits, so both need to be well mixed
+     */
+    private static int hash(Object key)
+    {
+	int h = key.hashCode();
+	h += (h << 15) ^ 0xffffcd7d;
+	h ^= (h >>> 10);
+	h += (h << 3);
+	h ^= (h >>> 6);
+	h += (h << 2) + (h << 14);
+	return h ^ (h >>> 16);
+    }
+
+    private Segment segmentFor(int hash)
+    {
+	return segments[(hash >>> segmentShift) & segmentMask];
+    }
+
+    public boolean isEmpty()
+    {
+	int[] mc = new int[segments.length];
+	int mcsum = 0;
+	int i;
+	for (i = 0; i < segments.length; i++)
+	    {
+		if (segments[i].count != 0)
+		    return false;
+		mcsum += mc[i] = segments[i].modCount;
+	    }
+	// if a segment changed while we looked, it may have been non-empty
+	// while another looked empty; check the modCounts to be sure
+	if (mcsum != 0)
+	    {
+		for (i = 0; i < segments.length; i++)
+		    {
+			if (segments[i].count != 0 || mc[i] != segments[i].modCount)
+			    return false;
+		    }
+	    }
+	return true;
+    }
+
+    public int size()
+    {
+	int[] mc = new int[segments.length];
+	long sum = 0;
+	long check = 0;
+	int mcsum;
+	int i, k;
+	for (k = 0; k < RETRIES_BEFORE_LOCK; k++)
+	    {
+		check = 0;
+		sum = 0;
+		mcsum = 0;
+		for (i = 0; i < segments.length; i++)
+		    {
+			sum += segments[i].count;
+			mcsum += mc[i] = segments[i].modCount;
+		    }
+		if (mcsum != 0)
+		    {
+			for (i = 0; i < segments.length; i++)
+			    {
+				check += segments[i].count;
+				if (mc[i] != segments[i].modCount)
+				    {
+					check = -1;
+					break;
+				    }
+			    }
+		    }
+		if (check == sum)
+		    break;
+	    }
+	if (check != sum)
+	    {
+		// writers keep getting in the way; wait for each in turn
+		sum = 0;
+		for (i = 0; i < segments.length; i++)
+		    {
+			synchronized (segments[i])
+			    {
+				sum += segments[i].count;
+			    }
+		    }
+	    }
+	return (sum > Integer.MAX_VALUE) ? Integer.MAX_VALUE : (int) sum;
+    }
+
+    public Object get(Object key)
+    {
+	int hash = hash(key); // throws NullPointerException if key is null
+	return segmentFor(hash).get(key, hash);
+    }
+
+    public boolean containsKey(Object key)
+    {
+	int hash = hash(key);
+	return segmentFor(hash).containsKey(key, hash);
+    }
+
+    public boolean containsValue(Object value)
+    {
+	int[] mc = new int[segments.length];
+	int mcsum;
+	int c;
+	int i, k;
+	boolean cleanSweep;
+	if (value == null)
+	    throw new NullPointerException();
+	for (k = 0; k < RETRIES_BEFORE_LOCK; k++)
+	    {
+		mcsum = 0;
+		for (i = 0; i < segments.length; i++)
+		    {
+			c = segments[i].count; // read-volatile before modCount
+			mcsum += mc[i] = segments[i].modCount;
+			if (segments[i].containsValue(value))
+			    return true;
+		    }
+		cleanSweep = true;
+		if (mcsum != 0)
+		    {
+			for (i = 0; i < segments.length; i++)
+			    {
+				c = segments[i].count; // read-volatile before modCount
+				if (mc[i] != segments[i].modCount)
+				    {
+					cleanSweep = false;
+					break;
+				    }
+			    }
+		    }
+		if (cleanSweep)
+		    return false;
+	    }
+	for (i = 0; i < segments.length; i++)
+	    {
+		synchronized (segments[i])
+		    {
+			if (segments[i].containsValue(value))
+			    return true;
+		    }
+	    }
+	return false;
+    }
+
+    /** the Hashtable name for containsValue() */
+    public boolean contains(Object value)
+    {
+	return containsValue(value);
+    }
+
+    public Object put(Object key, Object value)
+    {
+	int hash;
+	if (value == null)
+	    throw new NullPointerException();
+	hash = hash(key);
+	return segmentFor(hash).put(key, hash, value, false);
+    }
+
+    /**
+     * maps key to value only if key is not already mapped; returns the
+     * existing value, or null if the mapping was added
+     */
+    public Object putIfAbsent(Object key, Object value)
+    {
+	int hash;
+	if (value == null)
+	    throw new NullPointerException();
+	hash = hash(key);
+	return segmentFor(hash).put(key, hash, value, true);
+    }
+
+    public void putAll(Map t)
+    {
+	Map.Entry e;
+	for (Iterator it = t.entrySet().iterator(); it.hasNext(); )
+	    {
+		e = (Map.Entry) it.next();
+		put(e.getKey(), e.getValue());
+	    }
+    }
+
+    public Object remove(Object key)
+    {
+	int hash = hash(key);
+	return segmentFor(hash).remove(key, hash, null);
+    }
+
+    /** removes key only if it is currently mapped to value */
+    public boolean remove(Object key, Object value)
+    {
+	int hash;
+	if (value == null)
+	    return false;
+	hash = hash(key);
+	return segmentFor(hash).remove(key, hash, value) != null;
+    }
+
+    public void clear()
+    {
+	for (int i = 0; i < segments.length; i++)
+	    segments[i].clear();
+    }
+
+    public Set keySet()
+    {
+	return new KeySet();
+    }
+
+    public Collection values()
+    {
+	return new Values();
+    }
+
+    public Set entrySet()
+    {
+	return new EntrySet();
+    }
+
+    public Enumeration keys()
+    {
+	return new KeyIterator();
+    }
+
+    public Enumeration elements()
+    {
+	return new ValueIterator();
+    }
+
+    private void writeObject(ObjectOutputStream s) throws IOException
+    {
+	HashEntry[] tab;
+	HashEntry e;
+	Segment seg;
+	s.defaultWriteObject();
+	for (int k = 0; k < segments.length; k++)
+	    {
+		seg = segments[k];
+		synchronized (seg)
+		    {
+			tab = seg.table;
+			for (int i = 0; i < tab.length; i++)
+			    {
+				for (e = tab[i]; e != null; e = e.next)
+				    {
+					s.writeObject(e.key);
+					s.writeObject(e.value);
+				    }
+			    }
+		    }
+	    }
+	s.writeObject(null);
+	s.writeObject(null);
+    }
+
+    private void readObject(ObjectInputStream s)
+	throws IOException, ClassNotFoundException
+    {
+	Object key;
+	s.defaultReadObject();
+	for (int i = 0; i < segments.length; i++)
+	    segments[i].setTable(new HashEntry[1]);
+	while ((key = s.readObject()) != null)
+	    put(key, s.readObject());
+    }
+
+    /**
+     * a chain entry.  Everything but the value is final, which is what
+     * lets readers walk chains without locking; the value is volatile so
+     * that an update through put() is seen by readers at once.
+     */
+    static final class HashEntry
+    {
+	final Object key;
+	final int hash;
+	volatile Object value;
+	final HashEntry next;
+
+	HashEntry(Object key, int hash, HashEntry next, Object value)
+	{
+	    this.key = key;
+	    this.hash = hash;
+	    this.next = next;
+	    this.value = value;
+	}
+    }
+
+    /**
+     * one stripe of the table.  All changes happen while holding the
+     * Segment's monitor; reads happen without it, relying on the volatile
+     * <pre>count</pre> being written last by every change and read first
+     * by every read.
+     */
+    static final class Segment implements Serializable
+    {
+	transient volatile int count;
+	transient int modCount;
+	transient int threshold;
+	transient volatile HashEntry[] table;
+	final float loadFactor;
+
+	Segment(int initialCapacity, float loadFactor)
+	{
+	    this.loadFactor = loadFactor;
+	    setTable(new HashEntry[initialCapacity]);
+	}
+
+	void setTable(HashEntry[] newTable)
+	{
+	    threshold = (int) (newTable.length * loadFactor);
+	    table = newTable;
+	}
+
+	HashEntry getFirst(int hash)
+	{
+	    HashEntry[] tab = table;
+	    return tab[hash & (tab.length - 1)];
+	}
+
+	/**
+	 * reads the value of an entry under the lock.  This is only needed
+	 * if a reader sees an entry before its constructor's write of value,
+	 * which the memory model permits but which should hardly ever happen.
+	 */
+	synchronized Object readValueUnderLock(HashEntry e)
+	{
+	    return e.value;
+	}
+
+	Object get(Object key, int hash)
+	{
+	    HashEntry e;
+	    Object v;
+	    if (count != 0)
+		{
+		    for (e = getFirst(hash); e != null; e = e.next)
+			{
+			    if (e.hash == hash && key.equals(e.key))
+				{
+				    v = e.value;
+				    return (v != null) ? v : readValueUnderLock(e);
+				}
+			}
+		}
+	    return null;
+	}
+
+	boolean containsKey(Object key, int hash)
+	{
+	    HashEntry e;
+	    if (count != 0)
+		{
+		    for (e = getFirst(hash); e != null; e = e.next)
+			{
+			    if (e.hash == hash && key.equals(e.key))
+				return true;
+			}
+		}
+	    return false;
+	}
+
+	boolean containsValue(Object value)
+	{
+	    HashEntry[] tab;
+	    HashEntry e;
+	    Object v;
+	    if (count != 0)
+		{
+		    tab = table;
+		    for (int i = 0; i < tab.length; i++)
+			{
+			    for (e = tab[i]; e != null; e = e.next)
+				{
+				    v = e.value;
+				    if (v == null)
+					v = readValueUnderLock(e);
+				    if (value.equals(v))
+					return true;
+				}
+			}
+		}
+	    return false;
+	}
+
+	synchronized Object put(Object key, int hash, Object value, boolean onlyIfAbsent)
+	{
+	    HashEntry[] tab;
+	    HashEntry first, e;
+	    Object oldValue;
+	    int index;
+	    int c = count;
+	    if (c++ > threshold)
+		rehash();
+	    tab = table;
+	    index = hash & (tab.length - 1);
+	    first = tab[index];
+	    e = first;
+	    while (e != null && (e.hash != hash || !key.equals(e.key)))
+		e = e.next;
+	    if (e != null)
+		{
+		    oldValue = e.value;
+		    if (!onlyIfAbsent)
+			e.value = value;
+		}
+	    else
+		{
+		    oldValue = null;
+		    ++modCount;
+		    tab[index] = new HashEntry(key, hash, first, value);
+		    count = c; // write-volatile
+		}
+	    return oldValue;
+	}
+
+	/**
+	 * doubles the table.  Since the table is a power of two, each chain
+	 * splits between its own index and the one oldCapacity above it, and
+	 * the longest tail of a chain which all goes to one place is reused
+	 * as it is; only the entries in front of it are copied.  Readers of
+	 * the old table are unaffected.
+	 */
+	void rehash()
+	{
+	    HashEntry[] oldTable = table;
+	    HashEntry[] newTable;
+	    HashEntry e, next, lastRun, last, p;
+	    int oldCapacity = oldTable.length;
+	    int sizeMask, idx, lastIdx, k;
+	    if (oldCapacity >= MAXIMUM_CAPACITY)
+		return;
+	    newTable = new HashEntry[oldCapacity << 1];
+	    threshold = (int) (newTable.length * loadFactor);
+	    sizeMask = newTable.length - 1;
+	    for (int i = 0; i < oldCapacity; i++)
+		{
+		    e = oldTable[i];
+		    if (e == null)
+			continue;
+		    next = e.next;
+		    idx = e.hash & sizeMask;
+		    if (next == null)
+			{
+			    newTable[idx] = e;
+			    continue;
+			}
+		    lastRun = e;
+		    lastIdx = idx;
+		    for (last = next; last != null; last = last.next)
+			{
+			    k = last.hash & sizeMask;
+			    if (k != lastIdx)
+				{
+				    lastIdx = k;
+				    lastRun = last;
+				}
+			}
+		    newTable[lastIdx] = lastRun;
+		    for (p = e; p != lastRun; p = p.next)
+			{
+			    k = p.hash & sizeMask;
+			    newTable[k] = new HashEntry(p.key, p.hash, newTable[k], p.value);
+			}
+		}
+	    table = newTable;
+	}
+
+	/**
+	 * removes key (only if mapped to value, when value is not null); the
+	 * entries in front of the removed one are copied onto its successor,
+	 * since their next links cannot change
+	 */
+	synchronized Object remove(Object key, int hash, Object value)
+	{
+	    HashEntry[] tab = table;
+	    int index = hash & (tab.length - 1);
+	    HashEntry first = tab[index];
+	    HashEntry e = first;
+	    HashEntry newFirst, p;
+	    Object oldValue = null;
+	    int c = count - 1;
+	    while (e != null && (e.hash != hash || !key.equals(e.key)))
+		e = e.next;
+	    if (e != null)
+		{
+		    Object v = e.value;
+		    if (value == null || value.equals(v))
+			{
+			    oldValue = v;
+			    ++modCount;
+			    newFirst = e.next;
+			    for (p = first; p != e; p = p.next)
+				newFirst = new HashEntry(p.key, p.hash, newFirst, p.value);
+			    tab[index] = newFirst;
+			    count = c; // write-volatile
+			}
+		}
+	    return oldValue;
+	}
+
+	synchronized void clear()
+	{
+	    HashEntry[] tab;
+	    if (count != 0)
+		{
+		    tab = table;
+		    for (int i = 0; i < tab.length; i++)
+			tab[i] = null;
+		    ++modCount;
+		    count = 0; // write-volatile
+		}
+	}
+    }
+
+    /**
+     * walks the segments and their tables backwards from the last, taking
+     * whatever chain is current in each slot as it reaches it
+     */
+    abstract class HashIterator
+    {
+	int nextSegmentIndex;
+	int nextTableIndex;
+	HashEntry[] currentTable;
+	HashEntry nextEntry;
+	HashEntry lastReturned;
+
+	HashIterator()
+	{
+	    nextSegmentIndex = segments.length - 1;
+	    nextTableIndex = -1;
+	    advance();
+	}
+
+	public boolean hasMoreElements()
+	{
+	    return hasNext();
+	}
+
+	final void advance()
+	{
+	    Segment seg;
+	    if (nextEntry != null && (nextEntry = nextEntry.next) != null)
+		return;
+	    while (nextTableIndex >= 0)
+		{
+		    if ((nextEntry = currentTable[nextTableIndex--]) != null)
+			return;
+		}
+	    while (nextSegmentIndex >= 0)
+		{
+		    seg = segments[nextSegmentIndex--];
+		    if (seg.count != 0)
+			{
+			    currentTable = seg.table;
+			    for (int j = currentTable.length - 1; j >= 0; --j)
+				{
+				    if ((nextEntry = currentTable[j]) != null)
+					{
+					    nextTableIndex = j - 1;
+					    return;
+					}
+				}
+			}
+		}
+	}
+
+	public boolean hasNext()
+	{
+	    return nextEntry != null;
+	}
+
+	HashEntry nextEntry()
+	{
+	    if (nextEntry == null)
+		throw new NoSuchElementException();
+	    lastReturned = nextEntry;
+	    advance();
+	    return lastReturned;
+	}
+
+	public void remove()
+	{
+	    if (lastReturned == null)
+		throw new IllegalStateException();
+	    ConcurrentHashtable.this.remove(lastReturned.key);
+	    lastReturned = null;
+	}
+    }
+
+    final class KeyIterator extends HashIterator implements Iterator, Enumeration
+    {
+	public Object next()
+	{
+	    return nextEntry().key;
+	}
+
+	public Object nextElement()
+	{
+	    return nextEntry().key;
+	}
+    }
+
+    final class ValueIterator extends HashIterator implements Iterator, Enumeration
+    {
+	public Object next()
+	{
+	    return nextEntry().value;
+	}
+
+	public Object nextElement()
+	{
+	    return nextEntry().value;
+	}
+    }
+
+    final class EntryIterator extends HashIterator implements Iterator
+    {
+	public Object next()
+	{
+	    HashEntry e = nextEntry();
+	    return new WriteThroughEntry(e.key, e.value);
+	}
+    }
+
+    /**
+     * the Map.Entry handed out by entry iterators; setValue() writes
+     * through to the table with put()
+     */
+    final class WriteThroughEntry implements Map.Entry
+    {
+	private final Object key;
+	private Object value;
+
+	WriteThroughEntry(Object key, Object value)
+	{
+	    this.key = key;
+	    this.value = value;
+	}
+
+	public Object getKey()
+	{
+	    return key;
+	}
+
+	public Object getValue()
+	{
+	    return value;
+	}
+
+	public Object setValue(Object value)
+	{
+	    Object old = this.value;
+	    if (value == null)
+		throw new NullPointerException();
+	    this.value = value;
+	    ConcurrentHashtable.this.put(key, value);
+	    return old;
+	}
+
+	public boolean equals(Object o)
+	{
+	    Map.Entry e;
+	    if (!(o instanceof Map.Entry))
+		return false;
+	    e = (Map.Entry) o;
+	    return key.equals(e.getKey()) && value.equals(e.getValue());
+	}
+
+	public int hashCode()
+	{
+	    return key.hashCode() ^ value.hashCode();
+	}
+
+	public String toString()
+	{
+	    return key + "=" + value;
+	}
+    }
+
+    final class KeySet extends AbstractSet
+    {
+	public Iterator iterator()
+	{
+	    return new KeyIterator();
+	}
+
+	public int size()
+	{
+	    return ConcurrentHashtable.this.size();
+	}
+
+	public boolean isEmpty()
+	{
+	    return ConcurrentHashtable.this.isEmpty();
+	}
+
+	public boolean contains(Object o)
+	{
+	    return ConcurrentHashtable.this.containsKey(o);
+	}
+
+	public boolean remove(Object o)
+	{
+	    return ConcurrentHashtable.this.remove(o) != null;
+	}
+
+	public void clear()
+	{
+	    ConcurrentHashtable.this.clear();
+	}
+    }
+
+    final class Values extends AbstractCollection
+    {
+	public Iterator iterator()
+	{
+	    return new ValueIterator();
+	}
+
+	public int size()
+	{
+	    return ConcurrentHashtable.this.size();
+	}
+
+	public boolean isEmpty()
+	{
+	    return ConcurrentHashtable.this.isEmpty();
+	}
+
+	public boolean contains(Object o)
+	{
+	    return ConcurrentHashtable.this.containsValue(o);
+	}
+
+	public void clear()
+	{
+	    ConcurrentHashtable.this.clear();
+	}
+    }
+
+    final class EntrySet extends AbstractSet
+    {
+	public Iterator iterator()
+	{
+	    return new EntryIterator();
+	}
+
+	public boolean contains(Object o)
+	{
+	    Map.Entry e;
+	    Object v;
+	    if (!(o instanceof Map.Entry))
+		return false;
+	    e = (Map.Entry) o;
+	    v = ConcurrentHashtable.this.get(e.getKey());
+	    return v != null && v.equals(e.getValue());
+	}
+
+	public boolean remove(Object o)
+	{
+	    Map.Entry e;
+	    if (!(o instanceof Map.Entry))
+		return false;
+	    e = (Map.Entry) o;
+	    return ConcurrentHashtable.this.remove(e.getKey(), e.getValue());
+	}
+
+	public int size()
+	{
+	    return ConcurrentHashtable.this.size();
+	}
+
+	public boolean isEmpty()
+	{
+	    return ConcurrentHashtable.this.isEmpty();
+	}
+
+	public void clear()
+	{
+	    ConcurrentHashtable.this.clear();
+	}
+    }
+}
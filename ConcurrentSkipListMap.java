@@ -0,0 +1,1158 @@
+/////////////////////////////////////////////////////////////////////////////
+// ConcurrentSkipListMap.java -- a thread-safe SortedMap with lock-free
+//                               reads
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU Library General Public License as published
+// by the Free Software Foundation, version 2. (see COPYING.LIB)
+//
+// This program is distributed in the hope that it will be useful, but
+// WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Library General Public License for more details.
+//
+// You should have received a copy of the GNU Library General Public License
+// along with this program; if not, write to the Free Software Foundation
+// Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307 USA
+/////////////////////////////////////////////////////////////////////////////
+
+package java.util;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+
+/**
+ * a thread-safe SortedMap kept in a skip list.  Like ConcurrentHashtable
+ * it rejects null keys and values, and its readers take no lock at all:
+ * get(), containsKey(), firstKey(), lastKey() and iteration run alongside
+ * each other and alongside writers without ever waiting.
+ *
+ * The mappings form a linked list in key order, with sparse levels of
+ * index above it, each level skipping about half the entries of the one
+ * below, so a search is O(log n).  Every link is volatile and keys never
+ * change, so a reader always walks a well formed list.  Writers lock only
+ * the nodes they change, as in the lazy skip list of Herlihy, Lev,
+ * Luchangco and Shavit: a writer finds the nodes before its key on each
+ * level without locking, then locks them, checks that they are still
+ * live and still lead to the nodes it found, and starts again if not.
+ * Writers to keys which are not neighbours therefore run in parallel.  A
+ * new node is linked in on every level before it is given its value,
+ * which is when readers first see it; a node is removed by locking it,
+ * clearing its value, which is how readers know it is gone, and only then
+ * unlinking it, leaving its own links in place so that a reader standing
+ * on it can carry on.
+ *
+ * The lock-free reads rely on the memory model of Java 5 and later (JSR
+ * 133): a reader which finds a node through a volatile link must also see
+ * its final key and the links written before it was published.  Earlier
+ * virtual machines did not promise that, and this class needs a virtual
+ * machine which does.
+ *
+ * Iterators, and the views returned by headMap(), tailMap() and subMap(),
+ * are weakly consistent: they reflect the map at some point at or after
+ * their creation, never throw ConcurrentModificationException, and may
+ * be used alongside concurrent updates.  size() is kept in stripes, so it
+ * is only an estimate while other threads are writing, and the size of a
+ * view is found by counting its entries.
+ */
+public class ConcurrentSkipListMap extends AbstractMap implements SortedMap, Serializable
+{
+    /** the most levels, the list itself included, the map may grow */
+    private static final int MAX_LEVEL = 32;
+
+    /** the number of stripes the size is kept in; a power of two */
+    private static final int COUNT_STRIPES = 16;
+
+    /** the ordering of the keys, or null for their natural ordering */
+    private final Comparator comparator;
+
+    /** the header, before the first node on every level */
+    private transient Node head;
+
+    /** the number of levels in use; it only grows */
+    private transient volatile int levels;
+
+    private transient Counter[] counts;
+
+    /** the state of the level generator */
+    private transient int seed;
+
+    public ConcurrentSkipListMap()
+    {
+	comparator = null;
+	init();
+    }
+
+    public ConcurrentSkipListMap(Comparator c)
+    {
+	comparator = c;
+	init();
+    }
+
+    public ConcurrentSkipListMap(Map t)
+    {
+	comparator = null;
+	init();
+	putAll(t);
+    }
+
+    /** makes a map with the same ordering and mappings as t */
+    public ConcurrentSkipListMap(SortedMap t)
+    {
+	comparator = t.comparator();
+	init();
+	putAll(t);
+    }
+
+    private void init()
+    {
+	head = new Node(null, MAX_LEVEL - 1);
+	levels = 1;
+	counts = new Counter[COUNT_STRIPES];
+	for (int i = 0; i < COUNT_STRIPES; i++)
+	    counts[i] = new Counter();
+	seed = System.identityHashCode(this) | 1;
+    }
+
+    public Comparator comparator()
+    {
+	return comparator;
+    }
+
+    public int size()
+    {
+	int sum = 0;
+	for (int i = 0; i < COUNT_STRIPES; i++)
+	    sum += counts[i].n;
+	return Math.max(sum, 0);
+    }
+
+    public boolean isEmpty()
+    {
+	return findFirst() == null;
+    }
+
+    public Object get(Object key)
+    {
+	Node n;
+	if (key == null)
+	    throw new NullPointerException();
+	n = findNode(key);
+	return (n == null) ? null : n.value;
+    }
+
+    public boolean containsKey(Object key)
+    {
+	return get(key) != null;
+    }
+
+    public boolean containsValue(Object value)
+    {
+	Object v;
+	if (value == null)
+	    throw new NullPointerException();
+	for (Node n = findFirst(); n != null; n = n.next)
+	    {
+		v = n.value;
+		if (v != null && value.equals(v))
+		    return true;
+	    }
+	return false;
+    }
+
+    public Object firstKey()
+    {
+	Node n = findFirst();
+	if (n == null)
+	    throw new NoSuchElementException();
+	return n.key;
+    }
+
+    public Object lastKey()
+    {
+	Node n = findLast(null);
+	if (n == null)
+	    throw new NoSuchElementException();
+	return n.key;
+    }
+
+    public Object put(Object key, Object value)
+    {
+	if (key == null || value == null)
+	    throw new NullPointerException();
+	return doPut(key, value, false);
+    }
+
+    /**
+     * maps key to value only if key is not already mapped; returns the
+     * existing value, or null if the mapping was added
+     */
+    public Object putIfAbsent(Object key, Object value)
+    {
+	if (key == null || value == null)
+	    throw new NullPointerException();
+	return doPut(key, value, true);
+    }
+
+    public void putAll(Map t)
+    {
+	Map.Entry e;
+	for (Iterator it = t.entrySet().iterator(); it.hasNext(); )
+	    {
+		e = (Map.Entry) it.next();
+		put(e.getKey(), e.getValue());
+	    }
+    }
+
+    public Object remove(Object key)
+    {
+	if (key == null)
+	    throw new NullPointerException();
+	return doRemove(key, null);
+    }
+
+    /** removes key only if it is currently mapped to value */
+    public boolean remove(Object key, Object value)
+    {
+	if (key == null)
+	    throw new NullPointerException();
+	if (value == null)
+	    return false;
+	return doRemove(key, value) != null;
+    }
+
+    /** removes the mappings one by one, so that it can run alongside other writers */
+    public void clear()
+    {
+	for (Node n = findFirst(); n != null; n = n.next)
+	    doRemove(n.key, null);
+    }
+
+    public Set keySet()
+    {
+	return new KeySet(null);
+    }
+
+    public Collection values()
+    {
+	return new Values(null);
+    }
+
+    public Set entrySet()
+    {
+	return new EntrySet(null);
+    }
+
+    /** returns a view of the keys strictly less than toKey */
+    public SortedMap headMap(Object toKey)
+    {
+	if (toKey == null)
+	    throw new NullPointerException();
+	return new SubMap(null, toKey);
+    }
+
+    /** returns a view of the keys greater than or equal to fromKey */
+    public SortedMap tailMap(Object fromKey)
+    {
+	if (fromKey == null)
+	    throw new NullPointerException();
+	return new SubMap(fromKey, null);
+    }
+
+    /** returns a view of the keys from fromKey, inclusive, to toKey, exclusive */
+    public SortedMap subMap(Object fromKey, Object toKey)
+    {
+	if (compare(fromKey, toKey) > 0)
+	    throw new IllegalArgumentException("fromKey > toKey");
+	return new SubMap(fromKey, toKey);
+    }
+
+    private void writeObject(ObjectOutputStream s) throws IOException
+    {
+	Object v;
+	s.defaultWriteObject();
+	for (Node n = findFirst(); n != null; n = n.next)
+	    {
+		v = n.value;
+		if (v != null)
+		    {
+			s.writeObject(n.key);
+			s.writeObject(v);
+		    }
+	    }
+	s.writeObject(null);
+    }
+
+    private void readObject(ObjectInputStream s)
+	throws IOException, ClassNotFoundException
+    {
+	Object key;
+	s.defaultReadObject();
+	init();
+	while ((key = s.readObject()) != null)
+	    put(key, s.readObject());
+    }
+
+    // Searching, without locks
+    // ------------------------
+
+    final int compare(Object k1, Object k2)
+    {
+	if (k1 == null || k2 == null)
+	    throw new NullPointerException();
+	return (comparator == null) ? ((Comparable) k1).compareTo(k2)
+	    : comparator.compare(k1, k2);
+    }
+
+    /** returns n's successor on the given level */
+    static Node next(Node n, int level)
+    {
+	Link r;
+	if (level == 0)
+	    return n.next;
+	r = n.up[level - 1].next;
+	return (r == null) ? null : r.node;
+    }
+
+    /**
+     * returns the node, live or not, with the greatest key less than key
+     * on level 1, or the header if there is none, going down through the
+     * levels above; the caller goes on along the list itself
+     */
+    private Node findPredecessor(Object key)
+    {
+	int top = levels - 1;
+	Link q;
+	Link r;
+	if (top == 0)
+	    return head;
+	q = head.up[top - 1];
+	for (;;)
+	    {
+		while ((r = q.next) != null && compare(key, r.node.key) > 0)
+		    q = r;
+		if (q.down == null)
+		    return q.node;
+		q = q.down;
+	    }
+    }
+
+    /** returns the live node holding key, or null */
+    final Node findNode(Object key)
+    {
+	int c;
+	for (Node n = findPredecessor(key).next; n != null; n = n.next)
+	    {
+		c = compare(key, n.key);
+		if (c == 0)
+		    return (n.value != null) ? n : null;
+		if (c < 0)
+		    return null;
+	    }
+	return null;
+    }
+
+    /** returns the first live node */
+    final Node findFirst()
+    {
+	for (Node n = head.next; n != null; n = n.next)
+	    {
+		if (n.value != null)
+		    return n;
+	    }
+	return null;
+    }
+
+    /** returns the first live node whose key is no less than key */
+    final Node findCeiling(Object key)
+    {
+	for (Node n = findPredecessor(key).next; n != null; n = n.next)
+	    {
+		if (n.value != null && compare(key, n.key) <= 0)
+		    return n;
+	    }
+	return null;
+    }
+
+    /**
+     * returns the last live node whose key is less than bound, or the last
+     * live node if bound is null.  The levels bring us to a node just
+     * before bound, and we go on along the list from there.  If that node
+     * is not live, and nothing live follows it, the answer lies before it,
+     * so we search again with its key as the bound.
+     */
+    final Node findLast(Object bound)
+    {
+	Node b;
+	Node n;
+	Node last;
+	Link q;
+	Link r;
+	int top;
+	for (;;)
+	    {
+		b = head;
+		top = levels - 1;
+		if (top > 0)
+		    {
+			q = head.up[top - 1];
+			for (;;)
+			    {
+				while ((r = q.next) != null
+				       && (bound == null || compare(bound, r.node.key) > 0))
+				    q = r;
+				if (q.down == null)
+				    break;
+				q = q.down;
+			    }
+			b = q.node;
+		    }
+		last = (b.value != null) ? b : null;
+		for (n = b.next; n != null && (bound == null || compare(bound, n.key) > 0);
+		     n = n.next)
+		    {
+			if (n.value != null)
+			    last = n;
+		    }
+		if (last != null || b == head)
+		    return last;
+		bound = b.key;
+	    }
+    }
+
+    // Updating, under node locks
+    // --------------------------
+
+    /**
+     * searches from the top level down for key, filling preds and succs,
+     * on each level below preds.length, with the last node before key and
+     * the node after it; returns the node holding key, live or not, or
+     * null if there is none
+     */
+    private Node findPreds(Object key, Node[] preds, Node[] succs)
+    {
+	int level = levels - 1;
+	int c = 0;
+	Node found = null;
+	Link q;
+	Link r;
+	Node b = head;
+	Node n;
+	if (level > 0)
+	    {
+		q = head.up[level - 1];
+		for (;;)
+		    {
+			while ((r = q.next) != null && (c = compare(key, r.node.key)) > 0)
+			    q = r;
+			if (found == null && r != null && c == 0)
+			    found = r.node;
+			if (level < preds.length)
+			    {
+				preds[level] = q.node;
+				succs[level] = (r == null) ? null : r.node;
+			    }
+			if (q.down == null)
+			    break;
+			q = q.down;
+			level--;
+		    }
+		b = q.node;
+	    }
+	while ((n = b.next) != null && (c = compare(key, n.key)) > 0)
+	    b = n;
+	if (found == null && n != null && c == 0)
+	    found = n;
+	preds[0] = b;
+	succs[0] = n;
+	return found;
+    }
+
+    /**
+     * returns the top level for a new node: 0 three times in four, else k
+     * with probability 2^-k.  Writers share the seed without a lock; when
+     * two of them race they may draw the same level, which does no harm.
+     */
+    private int randomLevel()
+    {
+	int x = seed;
+	int level = 0;
+	x ^= x << 13;
+	x ^= x >>> 17;
+	seed = x ^= x << 5;
+	if ((x & 0x80000001) == 0)
+	    {
+		do
+		    ++level;
+		while (((x >>>= 1) & 1) != 0);
+	    }
+	return level;
+    }
+
+    /** grows the number of levels in use; this happens O(log n) times in all */
+    private synchronized void raiseLevels(int n)
+    {
+	if (n > levels)
+	    levels = n;
+    }
+
+    private void addCount(int delta)
+    {
+	Counter c = counts[System.identityHashCode(Thread.currentThread()) & (COUNT_STRIPES - 1)];
+	synchronized (c)
+	    {
+		c.n += delta;
+	    }
+    }
+
+    private Object doPut(Object key, Object value, boolean onlyIfAbsent)
+    {
+	int top = randomLevel();
+	Node[] preds;
+	Node[] succs;
+	Node n;
+	Object old;
+	if (top >= levels)
+	    {
+		// levels are never taken away, so one is only added when the
+		// map is big enough to fill it, not whenever a node draws it
+		top = levels;
+		if (top < MAX_LEVEL && size() >= (1L << (top + 1)))
+		    raiseLevels(top + 1);
+		else
+		    top--;
+	    }
+	preds = new Node[top + 1];
+	succs = new Node[top + 1];
+	for (;;)
+	    {
+		n = findPreds(key, preds, succs);
+		if (n != null)
+		    {
+			synchronized (n)
+			    {
+				old = n.value;
+				if (!n.marked && old != null)
+				    {
+					if (!onlyIfAbsent)
+					    n.value = value;
+					return old;
+				    }
+			    }
+			// n is still being linked in, or is being unlinked
+			Thread.yield();
+			continue;
+		    }
+		if (succs[0] == null && preds[0] == head)
+		    compare(key, key); // the list is empty: rejects keys the ordering cannot handle
+		if (lockAndLink(new Node(key, top), value, 0, preds, succs))
+		    {
+			addCount(1);
+			return null;
+		    }
+	    }
+    }
+
+    /**
+     * locks preds[level], unless the level below has already locked the
+     * same node, and goes on with linkLevel(); the locks are thus taken
+     * bottom up, which is in decreasing key order, as doRemove() takes
+     * them too, so no two writers can wait on each other
+     */
+    private boolean lockAndLink(Node z, Object value, int level, Node[] preds, Node[] succs)
+    {
+	Node pred = preds[level];
+	if (level > 0 && pred == preds[level - 1])
+	    return linkLevel(z, value, level, preds, succs);
+	synchronized (pred)
+	    {
+		return linkLevel(z, value, level, preds, succs);
+	    }
+    }
+
+    /**
+     * checks that preds[level] still leads straight to succs[level] and
+     * that neither has been removed, then locks the next level up; with
+     * every level locked and checked, links z in from the bottom up and
+     * finally gives it its value, which is when readers first see it
+     */
+    private boolean linkLevel(Node z, Object value, int level, Node[] preds, Node[] succs)
+    {
+	Node pred = preds[level];
+	Node succ = succs[level];
+	if (pred.marked || (succ != null && succ.marked) || next(pred, level) != succ)
+	    return false;
+	if (level < z.up.length)
+	    return lockAndLink(z, value, level + 1, preds, succs);
+	z.next = succs[0];
+	preds[0].next = z;
+	for (int i = 1; i <= level; i++)
+	    {
+		z.up[i - 1].next = (succs[i] == null) ? null : succs[i].up[i - 1];
+		preds[i].up[i - 1].next = z.up[i - 1];
+	    }
+	z.value = value;
+	return true;
+    }
+
+    /**
+     * removes key if it is mapped to value, or to anything if value is
+     * null, returning the old value or null if nothing was removed.  The
+     * node is locked, marked and its value cleared, which is when readers
+     * stop seeing it; then its predecessors are locked and it is unlinked
+     * from every level, top down, keeping its own links so that a reader
+     * standing on it can carry on.
+     */
+    private Object doRemove(Object key, Object value)
+    {
+	Node[] preds = new Node[levels];
+	Node[] succs = new Node[preds.length];
+	Node victim = findPreds(key, preds, succs);
+	Object old;
+	if (victim == null)
+	    return null;
+	synchronized (victim)
+	    {
+		old = victim.value;
+		if (victim.marked || old == null || (value != null && !value.equals(old)))
+		    return null;
+		victim.marked = true;
+		victim.value = null;
+		while (victim.up.length >= preds.length || !lockAndUnlink(victim, 0, preds))
+		    {
+			preds = new Node[levels];
+			succs = new Node[preds.length];
+			findPreds(key, preds, succs);
+		    }
+	    }
+	addCount(-1);
+	return old;
+    }
+
+    /** locks the predecessors of victim bottom up, as lockAndLink() does */
+    private boolean lockAndUnlink(Node victim, int level, Node[] preds)
+    {
+	Node pred = preds[level];
+	if (level > 0 && pred == preds[level - 1])
+	    return unlinkLevel(victim, level, preds);
+	synchronized (pred)
+	    {
+		return unlinkLevel(victim, level, preds);
+	    }
+    }
+
+    private boolean unlinkLevel(Node victim, int level, Node[] preds)
+    {
+	Node pred = preds[level];
+	if (pred.marked || next(pred, level) != victim)
+	    return false;
+	if (level < victim.up.length)
+	    return lockAndUnlink(victim, level + 1, preds);
+	for (int i = level; i >= 1; i--)
+	    preds[i].up[i - 1].next = victim.up[i - 1].next;
+	preds[0].next = victim.next;
+	return true;
+    }
+
+    /**
+     * an entry of the list, with a tower of links to its successors on
+     * the levels above.  The key never changes.  The value is null until
+     * the node is linked in on every level, and null again once it has
+     * been removed, so a reader takes a non-null value to mean the node is
+     * live.  marked is set, under the node's lock, when it is removed.
+     */
+    static final class Node
+    {
+	private static final Link[] NO_LINKS = new Link[0];
+
+	final Object key;
+	volatile Object value;
+	volatile Node next;
+	/** up[i - 1] is this node's link on level i */
+	final Link[] up;
+	volatile boolean marked;
+
+	/** makes a node which will be linked on levels 0 to top */
+	Node(Object key, int top)
+	{
+	    this.key = key;
+	    up = (top == 0) ? NO_LINKS : new Link[top];
+	    for (int i = 0; i < top; i++)
+		up[i] = new Link(this, (i == 0) ? null : up[i - 1]);
+	}
+    }
+
+    /**
+     * a node's link on one of the levels above the list, pointing at the
+     * next node's link on the same level, and down at its own link on the
+     * level below (null on level 1), so that a reader never needs the
+     * node's tower
+     */
+    static final class Link
+    {
+	final Node node;
+	final Link down;
+	volatile Link next;
+
+	Link(Node node, Link down)
+	{
+	    this.node = node;
+	    this.down = down;
+	}
+    }
+
+    /** one stripe of the size, changed under its own lock */
+    static final class Counter
+    {
+	volatile int n;
+    }
+
+    // Views
+    // -----
+
+    /**
+     * walks the list from the first live node at or after fromKey (or the
+     * first node, if fromKey is null) up to, but not including, toKey (or
+     * the end, if toKey is null).  Each node's value is read as the
+     * iterator reaches it, so a node removed after that is still returned.
+     */
+    abstract class SkipIterator
+    {
+	private final Object toKey;
+	Node nextNode;
+	Object nextValue;
+	private Node lastReturned;
+
+	SkipIterator(Object fromKey, Object toKey)
+	{
+	    this.toKey = toKey;
+	    nextNode = (fromKey == null) ? findFirst() : findCeiling(fromKey);
+	    fence();
+	}
+
+	/** moves on to a live node, and stops at toKey */
+	private void fence()
+	{
+	    for (; nextNode != null; nextNode = nextNode.next)
+		{
+		    if (toKey != null && compare(nextNode.key, toKey) >= 0)
+			{
+			    nextNode = null;
+			    return;
+			}
+		    if ((nextValue = nextNode.value) != null)
+			return;
+		}
+	}
+
+	public boolean hasNext()
+	{
+	    return nextNode != null;
+	}
+
+	Node nextNode()
+	{
+	    if (nextNode == null)
+		throw new NoSuchElementException();
+	    lastReturned = nextNode;
+	    nextNode = nextNode.next;
+	    fence();
+	    return lastReturned;
+	}
+
+	public void remove()
+	{
+	    if (lastReturned == null)
+		throw new IllegalStateException();
+	    ConcurrentSkipListMap.this.remove(lastReturned.key);
+	    lastReturned = null;
+	}
+    }
+
+    final class KeyIterator extends SkipIterator implements Iterator
+    {
+	KeyIterator(Object fromKey, Object toKey)
+	{
+	    super(fromKey, toKey);
+	}
+
+	public Object next()
+	{
+	    return nextNode().key;
+	}
+    }
+
+    final class ValueIterator extends SkipIterator implements Iterator
+    {
+	ValueIterator(Object fromKey, Object toKey)
+	{
+	    super(fromKey, toKey);
+	}
+
+	public Object next()
+	{
+	    Object v = nextValue;
+	    nextNode();
+	    return v;
+	}
+    }
+
+    final class EntryIterator extends SkipIterator implements Iterator
+    {
+	EntryIterator(Object fromKey, Object toKey)
+	{
+	    super(fromKey, toKey);
+	}
+
+	public Object next()
+	{
+	    Object v = nextValue;
+	    return new WriteThroughEntry(nextNode().key, v);
+	}
+    }
+
+    /**
+     * the Map.Entry handed out by entry iterators; setValue() writes
+     * through to the map with put()
+     */
+    final class WriteThroughEntry implements Map.Entry
+    {
+	private final Object key;
+	private Object value;
+
+	WriteThroughEntry(Object key, Object value)
+	{
+	    this.key = key;
+	    this.value = value;
+	}
+
+	public Object getKey()
+	{
+	    return key;
+	}
+
+	public Object getValue()
+	{
+	    return value;
+	}
+
+	public Object setValue(Object value)
+	{
+	    Object old = this.value;
+	    if (value == null)
+		throw new NullPointerException();
+	    this.value = value;
+	    ConcurrentSkipListMap.this.put(key, value);
+	    return old;
+	}
+
+	public boolean equals(Object o)
+	{
+	    Map.Entry e;
+	    if (!(o instanceof Map.Entry))
+		return false;
+	    e = (Map.Entry) o;
+	    return key.equals(e.getKey()) && value.equals(e.getValue());
+	}
+
+	public int hashCode()
+	{
+	    return key.hashCode() ^ value.hashCode();
+	}
+
+	public String toString()
+	{
+	    return key + "=" + value;
+	}
+    }
+
+    /** the view classes serve both the whole map (range null) and SubMaps */
+    final class KeySet extends AbstractSet
+    {
+	private final SubMap range;
+
+	KeySet(SubMap range)
+	{
+	    this.range = range;
+	}
+
+	private Map map()
+	{
+	    return (range == null) ? (Map) ConcurrentSkipListMap.this : range;
+	}
+
+	public Iterator iterator()
+	{
+	    return (range == null) ? new KeyIterator(null, null)
+		: new KeyIterator(range.fromKey, range.toKey);
+	}
+
+	public int size()
+	{
+	    return map().size();
+	}
+
+	public boolean isEmpty()
+	{
+	    return map().isEmpty();
+	}
+
+	public boolean contains(Object o)
+	{
+	    return map().containsKey(o);
+	}
+
+	public boolean remove(Object o)
+	{
+	    return map().remove(o) != null;
+	}
+
+	public void clear()
+	{
+	    map().clear();
+	}
+    }
+
+    final class Values extends AbstractCollection
+    {
+	private final SubMap range;
+
+	Values(SubMap range)
+	{
+	    this.range = range;
+	}
+
+	public Iterator iterator()
+	{
+	    return (range == null) ? new ValueIterator(null, null)
+		: new ValueIterator(range.fromKey, range.toKey);
+	}
+
+	public int size()
+	{
+	    return (range == null) ? ConcurrentSkipListMap.this.size() : range.size();
+	}
+
+	public boolean isEmpty()
+	{
+	    return (range == null) ? ConcurrentSkipListMap.this.isEmpty() : range.isEmpty();
+	}
+
+	public void clear()
+	{
+	    if (range == null)
+		ConcurrentSkipListMap.this.clear();
+	    else
+		range.clear();
+	}
+    }
+
+    final class EntrySet extends AbstractSet
+    {
+	private final SubMap range;
+
+	EntrySet(SubMap range)
+	{
+	    this.range = range;
+	}
+
+	public Iterator iterator()
+	{
+	    return (range == null) ? new EntryIterator(null, null)
+		: new EntryIterator(range.fromKey, range.toKey);
+	}
+
+	public boolean contains(Object o)
+	{
+	    Map.Entry e;
+	    Object v;
+	    if (!(o instanceof Map.Entry))
+		return false;
+	    e = (Map.Entry) o;
+	    if (range != null && !range.inRange(e.getKey()))
+		return false;
+	    v = ConcurrentSkipListMap.this.get(e.getKey());
+	    return v != null && v.equals(e.getValue());
+	}
+
+	public boolean remove(Object o)
+	{
+	    Map.Entry e;
+	    if (!(o instanceof Map.Entry))
+		return false;
+	    e = (Map.Entry) o;
+	    if (range != null && !range.inRange(e.getKey()))
+		return false;
+	    return ConcurrentSkipListMap.this.remove(e.getKey(), e.getValue());
+	}
+
+	public int size()
+	{
+	    return (range == null) ? ConcurrentSkipListMap.this.size() : range.size();
+	}
+
+	public boolean isEmpty()
+	{
+	    return (range == null) ? ConcurrentSkipListMap.this.isEmpty() : range.isEmpty();
+	}
+
+	public void clear()
+	{
+	    if (range == null)
+		ConcurrentSkipListMap.this.clear();
+	    else
+		range.clear();
+	}
+    }
+
+    /**
+     * a live view of the keys from fromKey, inclusive, to toKey,
+     * exclusive; a null bound leaves that end open.  It holds only its
+     * bounds, so it is as thread-safe as the map itself.
+     */
+    final class SubMap extends AbstractMap implements SortedMap, Serializable
+    {
+	final Object fromKey;
+	final Object toKey;
+
+	SubMap(Object fromKey, Object toKey)
+	{
+	    // rejects bounds the ordering cannot handle
+	    if (fromKey != null)
+		compare(fromKey, fromKey);
+	    if (toKey != null)
+		compare(toKey, toKey);
+	    this.fromKey = fromKey;
+	    this.toKey = toKey;
+	}
+
+	boolean inRange(Object key)
+	{
+	    return (fromKey == null || compare(key, fromKey) >= 0)
+		&& (toKey == null || compare(key, toKey) < 0);
+	}
+
+	/** like inRange, but also accepts toKey itself, for a nested view's bound */
+	private boolean inClosedRange(Object key)
+	{
+	    if (key == null)
+		throw new NullPointerException();
+	    return (fromKey == null || compare(key, fromKey) >= 0)
+		&& (toKey == null || compare(key, toKey) <= 0);
+	}
+
+	private Node lowest()
+	{
+	    Node n = (fromKey == null) ? findFirst() : findCeiling(fromKey);
+	    return (n == null || toKey == null || compare(n.key, toKey) < 0) ? n : null;
+	}
+
+	private Node highest()
+	{
+	    Node n = findLast(toKey);
+	    return (n == null || fromKey == null || compare(n.key, fromKey) >= 0) ? n : null;
+	}
+
+	public Comparator comparator()
+	{
+	    return comparator;
+	}
+
+	public int size()
+	{
+	    int n = 0;
+	    for (Iterator it = new KeyIterator(fromKey, toKey); it.hasNext(); it.next())
+		n++;
+	    return n;
+	}
+
+	public boolean isEmpty()
+	{
+	    return lowest() == null;
+	}
+
+	public boolean containsKey(Object key)
+	{
+	    return inRange(key) && ConcurrentSkipListMap.this.containsKey(key);
+	}
+
+	public Object get(Object key)
+	{
+	    return inRange(key) ? ConcurrentSkipListMap.this.get(key) : null;
+	}
+
+	public Object put(Object key, Object value)
+	{
+	    if (!inRange(key))
+		throw new IllegalArgumentException("key out of range");
+	    return ConcurrentSkipListMap.this.put(key, value);
+	}
+
+	public Object remove(Object key)
+	{
+	    return inRange(key) ? ConcurrentSkipListMap.this.remove(key) : null;
+	}
+
+	public void clear()
+	{
+	    for (Iterator it = new KeyIterator(fromKey, toKey); it.hasNext(); )
+		ConcurrentSkipListMap.this.remove(it.next());
+	}
+
+	public Object firstKey()
+	{
+	    Node n = lowest();
+	    if (n == null)
+		throw new NoSuchElementException();
+	    return n.key;
+	}
+
+	public Object lastKey()
+	{
+	    Node n = highest();
+	    if (n == null)
+		throw new NoSuchElementException();
+	    return n.key;
+	}
+
+	public Set keySet()
+	{
+	    return new KeySet(this);
+	}
+
+	public Collection values()
+	{
+	    return new Values(this);
+	}
+
+	public Set entrySet()
+	{
+	    return new EntrySet(this);
+	}
+
+	public SortedMap headMap(Object toKey)
+	{
+	    if (!inClosedRange(toKey))
+		throw new IllegalArgumentException("toKey out of range");
+	    return new SubMap(fromKey, toKey);
+	}
+
+	public SortedMap tailMap(Object fromKey)
+	{
+	    if (!inClosedRange(fromKey))
+		throw new IllegalArgumentException("fromKey out of range");
+	    return new SubMap(fromKey, toKey);
+	}
+
+	public SortedMap subMap(Object fromKey, Object toKey)
+	{
+	    if (!inClosedRange(fromKey) || !inClosedRange(toKey))
+		throw new IllegalArgumentException("key out of range");
+	    if (compare(fromKey, toKey) > 0)
+		throw new IllegalArgumentException("fromKey > toKey");
+	    return new SubMap(fromKey, toKey);
+	}
+    }
+}
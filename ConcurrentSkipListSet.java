@@ -0,0 +1,129 @@
+/////////////////////////////////////////////////////////////////////////////
+// ConcurrentSkipListSet.java -- a thread-safe SortedSet with lock-free
+//                               reads
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU Library General Public License as published
+// by the Free Software Foundation, version 2. (see COPYING.LIB)
+//
+// This program is distributed in the hope that it will be useful, but
+// WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Library General Public License for more details.
+//
+// You should have received a copy of the GNU Library General Public License
+// along with this program; if not, write to the Free Software Foundation
+// Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307 USA
+/////////////////////////////////////////////////////////////////////////////
+
+package java.util;
+
+import java.io.Serializable;
+
+/**
+ * a thread-safe SortedSet, implemented on top of ConcurrentSkipListMap,
+ * whose notes on concurrency apply here too.  Each element is a key of
+ * the backing map; null elements are rejected.  headSet(), tailSet() and
+ * subSet() return live views over ranges of the map.
+ */
+public class ConcurrentSkipListSet extends AbstractSet implements SortedSet, Serializable
+{
+    /** the value stored against every key of the backing map */
+    private static final Object PRESENT = Boolean.TRUE;
+
+    /** the backing map, or a range view of it */
+    private final SortedMap map;
+
+    public ConcurrentSkipListSet()
+    {
+	map = new ConcurrentSkipListMap();
+    }
+
+    public ConcurrentSkipListSet(Comparator c)
+    {
+	map = new ConcurrentSkipListMap(c);
+    }
+
+    public ConcurrentSkipListSet(Collection c)
+    {
+	map = new ConcurrentSkipListMap();
+	addAll(c);
+    }
+
+    /** makes a set with the same ordering and elements as s */
+    public ConcurrentSkipListSet(SortedSet s)
+    {
+	map = new ConcurrentSkipListMap(s.comparator());
+	addAll(s);
+    }
+
+    private ConcurrentSkipListSet(SortedMap map)
+    {
+	this.map = map;
+    }
+
+    public boolean add(Object o)
+    {
+	return map.put(o, PRESENT) == null;
+    }
+
+    public boolean remove(Object o)
+    {
+	return map.remove(o) != null;
+    }
+
+    public boolean contains(Object o)
+    {
+	return map.containsKey(o);
+    }
+
+    public int size()
+    {
+	return map.size();
+    }
+
+    public boolean isEmpty()
+    {
+	return map.isEmpty();
+    }
+
+    public void clear()
+    {
+	map.clear();
+    }
+
+    public Iterator iterator()
+    {
+	return map.keySet().iterator();
+    }
+
+    public Comparator comparator()
+    {
+	return map.comparator();
+    }
+
+    public Object first()
+    {
+	return map.firstKey();
+    }
+
+    public Object last()
+    {
+	return map.lastKey();
+    }
+
+    public SortedSet headSet(Object toElement)
+    {
+	return new ConcurrentSkipListSet(map.headMap(toElement));
+    }
+
+    public SortedSet tailSet(Object fromElement)
+    {
+	return new ConcurrentSkipListSet(map.tailMap(fromElement));
+    }
+
+    public SortedSet subSet(Object fromElement, Object toElement)
+    {
+	return new ConcurrentSkipListSet(map.subMap(fromElement, toElement));
+    }
+}
@@ -0,0 +1,567 @@
+/////////////////////////////////////////////////////////////////////////////
+// CopyOnWriteHashtable.java -- a read-mostly Hashtable whose readers never
+//                              lock
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU Library General Public License as published
+// by the Free Software Foundation, version 2. (see COPYING.LIB)
+//
+// This program is distributed in the hope that it will be useful, but
+// WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Library General Public License for more details.
+//
+// You should have received a copy of the GNU Library General Public License
+// along with this program; if not, write to the Free Software Foundation
+// Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307 USA
+/////////////////////////////////////////////////////////////////////////////
+
+package java.util;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+
+/**
+ * a thread-safe Map with Hashtable's semantics (neither keys nor values
+ * may be null), tuned for tables which are read far more often than they
+ * are written.
+ *
+ * Every chain in the table is immutable: an entry's key, value and next
+ * link never change once it is built.  Writers serialize on the table's
+ * monitor, as they do in Hashtable, but instead of editing a chain they
+ * build a replacement for the one bucket they change (copying only the
+ * entries in front of the one being replaced or removed), store it, and
+ * then republish the table through a volatile field.  A rehash builds a
+ * whole new bucket array off to the side and publishes it the same way.
+ *
+ * get(), containsKey(), containsValue(), size() and iteration take no lock
+ * at all.  They read the volatile table once and then walk chains which
+ * cannot change underneath them, so they never wait for a writer or a
+ * rehash, and a reader always sees some complete state of each bucket.
+ * Iterators and Enumerations are weakly consistent and never throw
+ * ConcurrentModificationException.
+ *
+ * Each write costs a copy of part of one chain, so this class suits
+ * lookup tables with rare updates; for write-heavy use, prefer Hashtable
+ * or ConcurrentHashtable.
+ */
+public class CopyOnWriteHashtable extends AbstractMap implements Map, Serializable
+{
+    private static final int DEFAULT_CAPACITY = 16;
+    private static final float DEFAULT_LOAD_FACTOR = 0.75f;
+    private static final int MAXIMUM_CAPACITY = 1 << 30;
+
+    private static final int KEYS = 0;
+    private static final int VALUES = 1;
+    private static final int ENTRIES = 2;
+
+    /**
+     * the published table.  Writers store into a slot of this array and
+     * then write the field again; readers read the field before any slot,
+     * which orders the slot writes before their reads.
+     */
+    private transient volatile Entry[] table;
+    private transient volatile int size;
+    private final float loadFactor;
+    private transient int threshold;
+
+    public CopyOnWriteHashtable()
+    {
+	this(DEFAULT_CAPACITY, DEFAULT_LOAD_FACTOR);
+    }
+
+    public CopyOnWriteHashtable(int initialCapacity)
+    {
+	this(initialCapacity, DEFAULT_LOAD_FACTOR);
+    }
+
+    public CopyOnWriteHashtable(int initialCapacity, float loadFactor)
+    {
+	int c = 1;
+	if (initialCapacity < 0 || !(loadFactor > 0))
+	    throw new IllegalArgumentException();
+	while (c < initialCapacity && c < MAXIMUM_CAPACITY)
+	    c <<= 1;
+	this.loadFactor = loadFactor;
+	threshold = (int) (c * loadFactor);
+	table = new Entry[c];
+    }
+
+    public CopyOnWriteHashtable(Map t)
+    {
+	this(Math.max((int) (t.size() / DEFAULT_LOAD_FACTOR) + 1, DEFAULT_CAPACITY),
+	     DEFAULT_LOAD_FACTOR);
+	putAll(t);
+    }
+
+    /** the same spreading function as Hashtable's */
+    private static int spread(int h)
+    {
+	h ^= (h >>> 20) ^ (h >>> 12);
+	return h ^ (h >>> 7) ^ (h >>> 4);
+    }
+
+    public int size()
+    {
+	return size;
+    }
+
+    public boolean isEmpty()
+    {
+	return size == 0;
+    }
+
+    public Object get(Object key)
+    {
+	int h = spread(key.hashCode());
+	Entry[] tab = table;
+	for (Entry e = tab[h & (tab.length - 1)]; e != null; e = e.next)
+	    {
+		if (e.hash == h && key.equals(e.key))
+		    return e.value;
+	    }
+	return null;
+    }
+
+    public boolean containsKey(Object key)
+    {
+	return get(key) != null;
+    }
+
+    public boolean containsValue(Object value)
+    {
+	Entry[] tab = table;
+	if (value == null)
+	    throw new NullPointerException();
+	for (int i = 0; i < tab.length; i++)
+	    {
+		for (Entry e = tab[i]; e != null; e = e.next)
+		    {
+			if (value.equals(e.value))
+			    return true;
+		    }
+	    }
+	return false;
+    }
+
+    /** the Hashtable name for containsValue() */
+    public boolean contains(Object value)
+    {
+	return containsValue(value);
+    }
+
+    public synchronized Object put(Object key, Object value)
+    {
+	Entry[] tab;
+	Entry first, e;
+	int h, index;
+	if (key == null || value == null)
+	    throw new NullPointerException();
+	h = spread(key.hashCode());
+	tab = table;
+	index = h & (tab.length - 1);
+	first = tab[index];
+	for (e = first; e != null; e = e.next)
+	    {
+		if (e.hash == h && key.equals(e.key))
+		    {
+			tab[index] = replace(first, e, new Entry(key, value, h, e.next));
+			table = tab; // publish
+			return e.value;
+		    }
+	    }
+	if (size >= threshold && tab.length < MAXIMUM_CAPACITY)
+	    {
+		tab = grow(tab);
+		index = h & (tab.length - 1);
+		first = tab[index];
+	    }
+	tab[index] = new Entry(key, value, h, first);
+	size = size + 1;
+	table = tab; // publish
+	return null;
+    }
+
+    public synchronized Object remove(Object key)
+    {
+	Entry[] tab = table;
+	Entry first, e;
+	int h = spread(key.hashCode());
+	int index = h & (tab.length - 1);
+	first = tab[index];
+	for (e = first; e != null; e = e.next)
+	    {
+		if (e.hash == h && key.equals(e.key))
+		    {
+			tab[index] = replace(first, e, e.next);
+			size = size - 1;
+			table = tab; // publish
+			return e.value;
+		    }
+	    }
+	return null;
+    }
+
+    /**
+     * returns a copy of the chain at first in which target is replaced by
+     * the chain at tail; the entries after target are shared, not copied
+     */
+    private static Entry replace(Entry first, Entry target, Entry tail)
+    {
+	if (first == target)
+	    return tail;
+	return new Entry(first.key, first.value, first.hash,
+			 replace(first.next, target, tail));
+    }
+
+    /**
+     * builds a table of twice the size without touching the published one;
+     * chains are split as in Hashtable, and the longest tail of each chain
+     * which all moves to one place is shared rather than copied
+     */
+    private Entry[] grow(Entry[] oldTable)
+    {
+	int oldCapacity = oldTable.length;
+	Entry[] newTable = new Entry[oldCapacity << 1];
+	int mask = newTable.length - 1;
+	Entry e, lastRun, p;
+	int lastIdx, k;
+	for (int i = 0; i < oldCapacity; i++)
+	    {
+		e = oldTable[i];
+		if (e == null)
+		    continue;
+		lastRun = e;
+		lastIdx = e.hash & mask;
+		for (p = e.next; p != null; p = p.next)
+		    {
+			k = p.hash & mask;
+			if (k != lastIdx)
+			    {
+				lastIdx = k;
+				lastRun = p;
+			    }
+		    }
+		newTable[lastIdx] = lastRun;
+		for (p = e; p != lastRun; p = p.next)
+		    {
+			k = p.hash & mask;
+			newTable[k] = new Entry(p.key, p.value, p.hash, newTable[k]);
+		    }
+	    }
+	threshold = (int) (newTable.length * loadFactor);
+	return newTable;
+    }
+
+    public synchronized void putAll(Map t)
+    {
+	Map.Entry e;
+	for (Iterator it = t.entrySet().iterator(); it.hasNext(); )
+	    {
+		e = (Map.Entry) it.next();
+		put(e.getKey(), e.getValue());
+	    }
+    }
+
+    public synchronized void clear()
+    {
+	size = 0;
+	table = new Entry[table.length];
+    }
+
+    public Enumeration keys()
+    {
+	return new TableIterator(KEYS);
+    }
+
+    public Enumeration elements()
+    {
+	return new TableIterator(VALUES);
+    }
+
+    public Set keySet()
+    {
+	return new TableSet(KEYS);
+    }
+
+    public Set entrySet()
+    {
+	return new TableSet(ENTRIES);
+    }
+
+    public Collection values()
+    {
+	return new AbstractCollection()
+	    {
+		public Iterator iterator()
+		{
+		    return new TableIterator(VALUES);
+		}
+
+		public int size()
+		{
+		    return CopyOnWriteHashtable.this.size();
+		}
+
+		public boolean contains(Object o)
+		{
+		    return CopyOnWriteHashtable.this.containsValue(o);
+		}
+
+		public void clear()
+		{
+		    CopyOnWriteHashtable.this.clear();
+		}
+	    };
+    }
+
+    private synchronized void writeObject(ObjectOutputStream s) throws IOException
+    {
+	Entry[] tab = table;
+	s.defaultWriteObject();
+	s.writeInt(tab.length);
+	s.writeInt(size);
+	for (int i = 0; i < tab.length; i++)
+	    {
+		for (Entry e = tab[i]; e != null; e = e.next)
+		    {
+			s.writeObject(e.key);
+			s.writeObject(e.value);
+		    }
+	    }
+    }
+
+    private void readObject(ObjectInputStream s)
+	throws IOException, ClassNotFoundException
+    {
+	int capacity, n;
+	s.defaultReadObject();
+	capacity = s.readInt();
+	n = s.readInt();
+	threshold = (int) (capacity * loadFactor);
+	table = new Entry[capacity];
+	for (int i = 0; i < n; i++)
+	    put(s.readObject(), s.readObject());
+    }
+
+    /** an immutable chain entry */
+    private static final class Entry implements Map.Entry
+    {
+	final Object key;
+	final Object value;
+	final int hash;
+	final Entry next;
+
+	Entry(Object key, Object value, int hash, Entry next)
+	{
+	    this.key = key;
+	    this.value = value;
+	    this.hash = hash;
+	    this.next = next;
+	}
+
+	public Object getKey()
+	{
+	    return key;
+	}
+
+	public Object getValue()
+	{
+	    return value;
+	}
+
+	/** entries are immutable; see the entry iterator for a writable view */
+	public Object setValue(Object value)
+	{
+	    throw new UnsupportedOperationException();
+	}
+
+	public boolean equals(Object o)
+	{
+	    Map.Entry e;
+	    if (!(o instanceof Map.Entry))
+		return false;
+	    e = (Map.Entry) o;
+	    return key.equals(e.getKey()) && value.equals(e.getValue());
+	}
+
+	public int hashCode()
+	{
+	    return key.hashCode() ^ value.hashCode();
+	}
+
+	public String toString()
+	{
+	    return key + "=" + value;
+	}
+    }
+
+    /** a Map.Entry whose setValue() writes through to the table */
+    private final class WriteThroughEntry implements Map.Entry
+    {
+	private final Object key;
+	private Object value;
+
+	WriteThroughEntry(Entry e)
+	{
+	    key = e.key;
+	    value = e.value;
+	}
+
+	public Object getKey()
+	{
+	    return key;
+	}
+
+	public Object getValue()
+	{
+	    return value;
+	}
+
+	public Object setValue(Object value)
+	{
+	    Object old = this.value;
+	    if (value == null)
+		throw new NullPointerException();
+	    this.value = value;
+	    put(key, value);
+	    return old;
+	}
+
+	public boolean equals(Object o)
+	{
+	    Map.Entry e;
+	    if (!(o instanceof Map.Entry))
+		return false;
+	    e = (Map.Entry) o;
+	    return key.equals(e.getKey()) && value.equals(e.getValue());
+	}
+
+	public int hashCode()
+	{
+	    return key.hashCode() ^ value.hashCode();
+	}
+
+	public String toString()
+	{
+	    return key + "=" + value;
+	}
+    }
+
+    /** a Set view of the keys or entries */
+    private final class TableSet extends AbstractSet
+    {
+	private final int setType;
+
+	TableSet(int type)
+	{
+	    setType = type;
+	}
+
+	public Iterator iterator()
+	{
+	    return new TableIterator(setType);
+	}
+
+	public int size()
+	{
+	    return CopyOnWriteHashtable.this.size();
+	}
+
+	public boolean contains(Object o)
+	{
+	    Map.Entry e;
+	    Object v;
+	    if (setType == KEYS)
+		return containsKey(o);
+	    if (!(o instanceof Map.Entry))
+		return false;
+	    e = (Map.Entry) o;
+	    v = get(e.getKey());
+	    return v != null && v.equals(e.getValue());
+	}
+
+	public boolean remove(Object o)
+	{
+	    if (setType == KEYS)
+		return CopyOnWriteHashtable.this.remove(o) != null;
+	    if (!contains(o))
+		return false;
+	    CopyOnWriteHashtable.this.remove(((Map.Entry) o).getKey());
+	    return true;
+	}
+
+	public void clear()
+	{
+	    CopyOnWriteHashtable.this.clear();
+	}
+    }
+
+    /**
+     * iterates over the table as it was published when the iterator was
+     * made; a later rehash does not affect it, though writes to buckets it
+     * has not reached yet may or may not be seen
+     */
+    private final class TableIterator implements Iterator, Enumeration
+    {
+	private final int type;
+	private final Entry[] tab;
+	private int index;
+	private Entry next;
+	private Entry lastReturned;
+
+	TableIterator(int type)
+	{
+	    this.type = type;
+	    tab = table;
+	    advance();
+	}
+
+	private void advance()
+	{
+	    if (next != null)
+		next = next.next;
+	    while (next == null && index < tab.length)
+		next = tab[index++];
+	}
+
+	public boolean hasNext()
+	{
+	    return next != null;
+	}
+
+	public boolean hasMoreElements()
+	{
+	    return next != null;
+	}
+
+	public Object next()
+	{
+	    if (next == null)
+		throw new NoSuchElementException();
+	    lastReturned = next;
+	    advance();
+	    if (type == KEYS)
+		return lastReturned.key;
+	    else if (type == VALUES)
+		return lastReturned.value;
+	    else
+		return new WriteThroughEntry(lastReturned);
+	}
+
+	public Object nextElement()
+	{
+	    return next();
+	}
+
+	public void remove()
+	{
+	    if (lastReturned == null)
+		throw new IllegalStateException();
+	    CopyOnWriteHashtable.this.remove(lastReturned.key);
+	    lastReturned = null;
+	}
+    }
+}
@@ -0,0 +1,30 @@
+/////////////////////////////////////////////////////////////////////////////
+// ElementVisitor.java -- a callback for internal iteration over elements
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU Library General Public License as published
+// by the Free Software Foundation, version 2. (see COPYING.LIB)
+//
+// This program is distributed in the hope that it will be useful, but
+// WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Library General Public License for more details.
+//
+// You should have received a copy of the GNU Library General Public License
+// along with this program; if not, write to the Free Software Foundation
+// Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307 USA
+/////////////////////////////////////////////////////////////////////////////
+
+package java.util;
+
+/**
+ * a callback handed each element of a collection in turn by its
+ * forEachElement() (or each key of a Hashtable by forEachKey()).  The
+ * collection loops over its own storage, so no Iterator is made; the
+ * visitor must not modify the collection, which is checked once, when
+ * the traversal ends, with a ConcurrentModificationException.
+ */
+public interface ElementVisitor
+{
+    public void visit(Object element);
+}
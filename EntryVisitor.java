@@ -0,0 +1,30 @@
+/////////////////////////////////////////////////////////////////////////////
+// EntryVisitor.java -- a callback for internal iteration over key / value
+//                      pairs
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU Library General Public License as published
+// by the Free Software Foundation, version 2. (see COPYING.LIB)
+//
+// This program is distributed in the hope that it will be useful, but
+// WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Library General Public License for more details.
+//
+// You should have received a copy of the GNU Library General Public License
+// along with this program; if not, write to the Free Software Foundation
+// Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307 USA
+/////////////////////////////////////////////////////////////////////////////
+
+package java.util;
+
+/**
+ * a callback handed each key / value pair of a Hashtable in turn by its
+ * forEachEntry(); unlike iterating over entrySet(), no Set, Iterator or
+ * Map.Entry is made.  As with ElementVisitor, the visitor must not modify
+ * the table.
+ */
+public interface EntryVisitor
+{
+    public void visit(Object key, Object value);
+}
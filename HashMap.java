@@ -0,0 +1,573 @@
+/////////////////////////////////////////////////////////////////////////////
+// HashMap.java -- an open-addressing hash table implementation of Map
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU Library General Public License as published
+// by the Free Software Foundation, version 2. (see COPYING.LIB)
+//
+// This program is distributed in the hope that it will be useful, but
+// WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Library General Public License for more details.
+//
+// You should have received a copy of the GNU Library General Public License
+// along with this program; if not, write to the Free Software Foundation
+// Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307 USA
+/////////////////////////////////////////////////////////////////////////////
+
+package java.util;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+
+/**
+ * An unsynchronized implementation of Map which permits null keys and
+ * values.
+ *
+ * Unlike Hashtable, which chains entries off a Bucket per slot, HashMap
+ * uses open addressing: keys and values live in two flat parallel arrays
+ * and no object is allocated per entry.  Alongside them is an array of
+ * control bytes, one per slot, holding either EMPTY, DELETED, or the low
+ * seven bits of the key's hash.  The control bytes are packed eight to a
+ * long, so a probe examines a whole group of eight slots at once with a few
+ * word operations and only calls <pre>equals()</pre> on slots whose partial
+ * hash matches.  Because a probe only needs the control word until it finds
+ * a candidate, lookups touch one or two cache lines instead of walking
+ * bucket, node and key objects.
+ *
+ * The table is always a power of two in size and may fill to 7/8 of its
+ * capacity before growing.  Removal leaves a DELETED marker (a tombstone)
+ * only when a later probe might need to pass over the slot; tombstones are
+ * reclaimed when the table is rebuilt.
+ *
+ * Iterators are fail-fast in the same manner as Hashtable's.
+ */
+public class HashMap extends AbstractMap implements Map, Serializable {
+
+    /** the number of slots described by one control word */
+    private static final int GROUP_SIZE = 8;
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    /** control byte for a slot which has never held an entry */
+    private static final int EMPTY = 0x80;
+
+    /** control byte for a slot whose entry has been removed */
+    private static final int DELETED = 0xFE;
+
+    private static final long LSBS = 0x0101010101010101L;
+    private static final long MSBS = 0x8080808080808080L;
+    private static final long ALL_EMPTY = 0x8080808080808080L;
+
+    /** stands in for the null key, so that null can mean "no key" in keys[] */
+    private static final Object NULL_KEY = new Object();
+
+    private static final int KEYS = 0;
+    private static final int VALUES = 1;
+    private static final int ENTRIES = 2;
+
+    /** control words; byte <pre>i & 7</pre> of word <pre>i >>> 3</pre> describes slot i */
+    private transient long[] ctrl;
+    private transient Object[] keys;
+    private transient Object[] values;
+    private transient int groupMask;
+    private transient int size;
+    /** the number of EMPTY slots which may still be filled before growing */
+    private transient int growthLeft;
+    transient int modCount;
+
+    public HashMap() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public HashMap(int initialCapacity) {
+        if (initialCapacity < 0) {
+            throw new IllegalArgumentException();
+        }
+        init(tableSizeFor(initialCapacity));
+    }
+
+    public HashMap(Map m) {
+        this(m.size());
+        putAll(m);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean containsKey(Object key) {
+        return find(maskNull(key)) >= 0;
+    }
+
+    public boolean containsValue(Object value) {
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != null) {
+                Object v = values[i];
+                if (value == null ? v == null : value.equals(v)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    public Object get(Object key) {
+        int slot = find(maskNull(key));
+        return (slot < 0) ? null : values[slot];
+    }
+
+    public Object put(Object key, Object value) {
+        Object k = maskNull(key);
+        int hash = hash(k);
+        int slot = find(k, hash);
+        if (slot >= 0) {
+            Object old = values[slot];
+            values[slot] = value;
+            return old;
+        }
+        slot = findInsertSlot(hash);
+        if (growthLeft == 0 && ctrlAt(slot) == EMPTY) {
+            rebuild();
+            slot = findInsertSlot(hash);
+        }
+        if (ctrlAt(slot) == EMPTY) {
+            growthLeft--;
+        }
+        setCtrl(slot, hash & 0x7F);
+        keys[slot] = k;
+        values[slot] = value;
+        size++;
+        modCount++;
+        return null;
+    }
+
+    public Object remove(Object key) {
+        int slot = find(maskNull(key));
+        if (slot < 0) {
+            return null;
+        }
+        Object old = values[slot];
+        removeSlot(slot);
+        return old;
+    }
+
+    public void putAll(Map m) {
+        int needed = size + m.size();
+        if (needed > maxLoad(keys.length)) {
+            resize(tableSizeFor(needed));
+        }
+        super.putAll(m);
+    }
+
+    public void clear() {
+        modCount++;
+        for (int i = 0; i < ctrl.length; i++) {
+            ctrl[i] = ALL_EMPTY;
+        }
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = null;
+            values[i] = null;
+        }
+        size = 0;
+        growthLeft = maxLoad(keys.length);
+    }
+
+    public Set keySet() {
+        return new HashMapSet(KEYS);
+    }
+
+    public Set entrySet() {
+        return new HashMapSet(ENTRIES);
+    }
+
+    public Collection values() {
+        return new HashMapCollection();
+    }
+
+    // Probing
+    // -------
+
+    /**
+     * returns the slot holding the (already masked) key, or -1 if the key
+     * is not present
+     */
+    private int find(Object k) {
+        return find(k, hash(k));
+    }
+
+    private int find(Object k, int hash) {
+        long pattern = LSBS * (hash & 0x7F);
+        int group = (hash >>> 7) & groupMask;
+        for (int probe = 0; probe <= groupMask; probe++) {
+            long word = ctrl[group];
+            long x = word ^ pattern;
+            // bytes which equal the partial hash become zero; this finds them
+            // (with the occasional false positive, which equals() weeds out)
+            long matches = (x - LSBS) & ~x & MSBS;
+            while (matches != 0) {
+                int slot = (group << 3) + lowestByte(matches);
+                Object o = keys[slot];
+                if (o == k || (o != null && o.equals(k))) {
+                    return slot;
+                }
+                matches &= matches - 1;
+            }
+            if (matchEmpty(word) != 0) {
+                return -1;
+            }
+            group = (group + probe + 1) & groupMask;
+        }
+        return -1;
+    }
+
+    /**
+     * returns the first EMPTY or DELETED slot on the probe sequence for the
+     * given hash; the caller must know that the key is absent
+     */
+    private int findInsertSlot(int hash) {
+        int group = (hash >>> 7) & groupMask;
+        for (int probe = 0; ; probe++) {
+            long free = ctrl[group] & MSBS;
+            if (free != 0) {
+                return (group << 3) + lowestByte(free);
+            }
+            group = (group + probe + 1) & groupMask;
+        }
+    }
+
+    private void removeSlot(int slot) {
+        // A group which still has an EMPTY slot has never been full since the
+        // last rebuild, so no probe has ever continued past it and the slot
+        // can simply be emptied; otherwise it must become a tombstone.
+        if (matchEmpty(ctrl[slot >>> 3]) != 0) {
+            setCtrl(slot, EMPTY);
+            growthLeft++;
+        } else {
+            setCtrl(slot, DELETED);
+        }
+        keys[slot] = null;
+        values[slot] = null;
+        size--;
+        modCount++;
+    }
+
+    /**
+     * makes room for at least one more entry: the table doubles if it is
+     * more than half full of live entries, otherwise it is rebuilt at the
+     * same size to reclaim tombstones
+     */
+    private void rebuild() {
+        int capacity = keys.length;
+        if (size >= maxLoad(capacity) >> 1) {
+            capacity <<= 1;
+        }
+        resize(capacity);
+    }
+
+    private void resize(int capacity) {
+        Object[] oldKeys = keys;
+        Object[] oldValues = values;
+        init(capacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            Object k = oldKeys[i];
+            if (k != null) {
+                // keys are known to be distinct, so no equals() is needed
+                int hash = hash(k);
+                int slot = findInsertSlot(hash);
+                setCtrl(slot, hash & 0x7F);
+                keys[slot] = k;
+                values[slot] = oldValues[i];
+            }
+        }
+        growthLeft -= size;
+        modCount++;
+    }
+
+    private void init(int capacity) {
+        ctrl = new long[capacity / GROUP_SIZE];
+        for (int i = 0; i < ctrl.length; i++) {
+            ctrl[i] = ALL_EMPTY;
+        }
+        keys = new Object[capacity];
+        values = new Object[capacity];
+        groupMask = ctrl.length - 1;
+        growthLeft = maxLoad(capacity);
+    }
+
+    private int ctrlAt(int slot) {
+        return (int) (ctrl[slot >>> 3] >>> ((slot & 7) << 3)) & 0xFF;
+    }
+
+    private void setCtrl(int slot, int value) {
+        int shift = (slot & 7) << 3;
+        int g = slot >>> 3;
+        ctrl[g] = (ctrl[g] & ~(0xFFL << shift)) | ((long) value << shift);
+    }
+
+    /** returns a word with the high bit set in each byte which is EMPTY */
+    private static long matchEmpty(long word) {
+        // EMPTY is the only control byte with bit 7 set and bit 1 clear
+        return word & (~word << 6) & MSBS;
+    }
+
+    /** returns the index of the lowest byte whose high bit is set in bits */
+    private static int lowestByte(long bits) {
+        int i = 0;
+        if ((bits & 0x80808080L) == 0) {
+            bits >>>= 32;
+            i = 4;
+        }
+        if ((bits & 0x8080L) == 0) {
+            bits >>>= 16;
+            i += 2;
+        }
+        if ((bits & 0x80L) == 0) {
+            i++;
+        }
+        return i;
+    }
+
+    private static int hash(Object k) {
+        int h = k.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private static int maxLoad(int capacity) {
+        return capacity - (capacity >>> 3);
+    }
+
+    /** returns the smallest table size which can hold n entries */
+    private static int tableSizeFor(int n) {
+        int capacity = GROUP_SIZE;
+        while (maxLoad(capacity) < n) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    private static Object maskNull(Object key) {
+        return (key == null) ? NULL_KEY : key;
+    }
+
+    private static Object unmaskNull(Object key) {
+        return (key == NULL_KEY) ? null : key;
+    }
+
+    private void writeObject(ObjectOutputStream s) throws IOException {
+        s.defaultWriteObject();
+        s.writeInt(size);
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != null) {
+                s.writeObject(unmaskNull(keys[i]));
+                s.writeObject(values[i]);
+            }
+        }
+    }
+
+    private void readObject(ObjectInputStream s)
+        throws IOException, ClassNotFoundException {
+        s.defaultReadObject();
+        int n = s.readInt();
+        init(tableSizeFor(n));
+        for (int i = 0; i < n; i++) {
+            Object key = s.readObject();
+            put(key, s.readObject());
+        }
+    }
+
+    /**
+     * a Map.Entry view of one slot; it reads through to the table, so it
+     * reflects later changes to the entry's value
+     */
+    private class SlotEntry implements Map.Entry {
+        private final int slot;
+        private final Object key;
+
+        SlotEntry(int slot) {
+            this.slot = slot;
+            this.key = keys[slot];
+        }
+
+        public Object getKey() {
+            return unmaskNull(key);
+        }
+
+        public Object getValue() {
+            return (keys[slot] == key) ? values[slot] : null;
+        }
+
+        public Object setValue(Object value) {
+            if (keys[slot] != key) {
+                throw new IllegalStateException();
+            }
+            Object old = values[slot];
+            values[slot] = value;
+            return old;
+        }
+
+        public boolean equals(Object o) {
+            if (!(o instanceof Map.Entry)) {
+                return false;
+            }
+            Map.Entry e = (Map.Entry) o;
+            Object k = getKey();
+            Object v = getValue();
+            return (k == null ? e.getKey() == null : k.equals(e.getKey()))
+                && (v == null ? e.getValue() == null : v.equals(e.getValue()));
+        }
+
+        public int hashCode() {
+            Object k = getKey();
+            Object v = getValue();
+            return (k == null ? 0 : k.hashCode()) ^ (v == null ? 0 : v.hashCode());
+        }
+
+        public String toString() {
+            return getKey() + "=" + getValue();
+        }
+    }
+
+    /**
+     * a Set view of the keys or entries of the HashMap; like Hashtable's
+     * views it is backed by the map and does not support adding
+     */
+    private class HashMapSet extends AbstractSet {
+        private final int setType;
+
+        HashMapSet(int type) {
+            setType = type;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public void clear() {
+            HashMap.this.clear();
+        }
+
+        public boolean contains(Object o) {
+            if (setType == KEYS) {
+                return containsKey(o);
+            }
+            if (!(o instanceof Map.Entry)) {
+                return false;
+            }
+            Map.Entry e = (Map.Entry) o;
+            int slot = find(maskNull(e.getKey()));
+            if (slot < 0) {
+                return false;
+            }
+            Object v = values[slot];
+            return (v == null) ? e.getValue() == null : v.equals(e.getValue());
+        }
+
+        public boolean remove(Object o) {
+            Object key;
+            if (setType == KEYS) {
+                key = o;
+            } else if (contains(o)) {
+                key = ((Map.Entry) o).getKey();
+            } else {
+                return false;
+            }
+            int slot = find(maskNull(key));
+            if (slot < 0) {
+                return false;
+            }
+            removeSlot(slot);
+            return true;
+        }
+
+        public Iterator iterator() {
+            return new HashMapIterator(setType);
+        }
+    }
+
+    /** a Collection view of the values of the HashMap */
+    private class HashMapCollection extends AbstractCollection {
+        public int size() {
+            return size;
+        }
+
+        public void clear() {
+            HashMap.this.clear();
+        }
+
+        public boolean contains(Object o) {
+            return containsValue(o);
+        }
+
+        public Iterator iterator() {
+            return new HashMapIterator(VALUES);
+        }
+    }
+
+    /**
+     * walks the slot arrays in order, skipping slots without a key; since
+     * entries never move except when the table is rebuilt (which counts as
+     * a modification), removal through the iterator is safe
+     */
+    private class HashMapIterator implements Iterator {
+        private final int type;
+        private int knownMods = modCount;
+        private int next = -1;
+        private int current = -1;
+
+        HashMapIterator(int type) {
+            this.type = type;
+            advance();
+        }
+
+        private void checkMod() {
+            if (knownMods != modCount) {
+                throw new ConcurrentModificationException();
+            }
+        }
+
+        private void advance() {
+            Object[] k = keys;
+            do {
+                next++;
+            } while (next < k.length && k[next] == null);
+        }
+
+        public boolean hasNext() {
+            checkMod();
+            return next < keys.length;
+        }
+
+        public Object next() {
+            checkMod();
+            if (next >= keys.length) {
+                throw new NoSuchElementException();
+            }
+            current = next;
+            advance();
+            if (type == KEYS) {
+                return unmaskNull(keys[current]);
+            } else if (type == VALUES) {
+                return values[current];
+            } else {
+                return new SlotEntry(current);
+            }
+        }
+
+        public void remove() {
+            checkMod();
+            if (current < 0) {
+                throw new IllegalStateException();
+            }
+            removeSlot(current);
+            knownMods = modCount;
+            current = -1;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+/////////////////////////////////////////////////////////////////////////////
+// HashSet.java -- a Set backed by an open-addressing HashMap
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU Library General Public License as published
+// by the Free Software Foundation, version 2. (see COPYING.LIB)
+//
+// This program is distributed in the hope that it will be useful, but
+// WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Library General Public License for more details.
+//
+// You should have received a copy of the GNU Library General Public License
+// along with this program; if not, write to the Free Software Foundation
+// Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307 USA
+/////////////////////////////////////////////////////////////////////////////
+
+package java.util;
+
+import java.io.Serializable;
+
+/**
+ * An unsynchronized Set which permits the null element, implemented on top
+ * of HashMap.  Each element is a key of the backing map; since HashMap
+ * stores its keys in a flat array, adding an element allocates nothing
+ * beyond the occasional table resize.
+ */
+public class HashSet extends AbstractSet implements Set, Serializable {
+
+    /** the value stored against every key of the backing map */
+    private static final Object PRESENT = Boolean.TRUE;
+
+    private HashMap map;
+
+    public HashSet() {
+        map = new HashMap();
+    }
+
+    public HashSet(int initialCapacity) {
+        map = new HashMap(initialCapacity);
+    }
+
+    public HashSet(Collection c) {
+        map = new HashMap(c.size());
+        addAll(c);
+    }
+
+    public boolean add(Object o) {
+        return map.put(o, PRESENT) == null;
+    }
+
+    public void clear() {
+        map.clear();
+    }
+
+    public boolean contains(Object o) {
+        return map.containsKey(o);
+    }
+
+    public boolean isEmpty() {
+        return map.isEmpty();
+    }
+
+    public Iterator iterator() {
+        return map.keySet().iterator();
+    }
+
+    public boolean remove(Object o) {
+        return map.remove(o) != null;
+    }
+
+    public int size() {
+        return map.size();
+    }
+}
@@ -14,6 +14,10 @@
 /////////////////////////////////////////////////////////////////////////////
 package java.util;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
 /**
  * a class which implements a Hashtable data structure
  *
@@ -22,8 +26,9 @@ package java.util;
  * to a simple linked-list which, in the best case, only has one node.
  * Assuming a large enough table, low enough load factor, and / or well
  * implemented hashCode() methods, Hashtable should provide O(1) 
- * insertion, deletion, and searching of keys.  Hashtable is O(n) in
- * the worst case for all of these (if all keys has to the same bucket).
+ * insertion, deletion, and searching of keys.  A bucket which collects
+ * many keys is turned into a balanced tree (see Bucket), so even if all
+ * keys hash to the same bucket these are O(log n) rather than O(n).
  *
  * This is a JDK-1.2 compliant implementation of Hashtable.  As such, it 
  * belongs, partially, to the Collections framework (in that it implements
@@ -43,21 +48,56 @@ public class Hashtable implements java.io.Serializable, Map
 {
     // STATIC VARIABLES
     // ----------------
-    private static final int DEFAULT_CAPACITY = 20; // tweak with this value
+    private static final int DEFAULT_CAPACITY = 16; // must be a power of two
+
+    /** the largest capacity; tables are never grown past this */
+    private static final int MAXIMUM_CAPACITY = 1 << 30;
 
     /** the defaulty load factor; this is explicitly specified by Sun */
-    private static final int DEFAULT_LOAD_FACTOR = 75;//(if it is div by 100 make it 75)
+    private static final float DEFAULT_LOAD_FACTOR = 0.75f;
 
     private static final int KEYS = 0;
     private static final int VALUES = 1;
     private static final int ENTRIES = 2; 
 
-    private int capacity;
-    private int size;
-    private int loadFactor;
-    private int threshold;
-    Bucket[] buckets;
-    int modCount; 
+    /**
+     * the number of old buckets moved into the new table by each put or
+     * remove while an incremental rehash is in progress; anything above two
+     * guarantees the move completes before the new table itself fills
+     */
+    private static final int MIGRATE_STEP = 8;
+
+    /** the length of <pre>buckets</pre>; always a power of two */
+    private transient int capacity;
+    private transient int size;
+    private float loadFactor;
+    private transient int threshold;
+    transient Bucket[] buckets;
+    transient int modCount; 
+
+    /** true if growing the table should spread the rehash over later writes */
+    private boolean incrementalRehash;
+    /**
+     * the previous, smaller table while an incremental rehash is under way,
+     * otherwise null; a bucket is set to null here once it has been moved
+     */
+    private transient Bucket[] oldBuckets;
+    /** the next index of <pre>oldBuckets</pre> to be moved */
+    private transient int migrateIndex;
+
+    /** true if hashCode() is kept up to date as the table changes */
+    private boolean hashCodeCached;
+    /** the sum of the entries' hash codes, while hashCodeCached */
+    private transient int contentHash;
+
+    /** how many times the table has grown, and the time whole rehashes took */
+    private transient int rehashCount;
+    private transient long rehashMillis;
+    /** every sampleInterval-th lookup is measured; 0 means none are */
+    private transient int sampleInterval;
+    private transient int sampleCountdown;
+    private transient long sampledLookups;
+    private transient long sampledEqualsCalls;
 
     public Hashtable()
     {	init(DEFAULT_CAPACITY, DEFAULT_LOAD_FACTOR);
@@ -71,6 +111,15 @@ public class Hashtable implements java.io.Serializable, Map
 	    init(initialCapacity, DEFAULT_LOAD_FACTOR);
     }
 
+    public Hashtable(int initialCapacity, float loadFactor) 
+	throws IllegalArgumentException 
+    {
+	if (initialCapacity < 0 || !(loadFactor > 0))
+	    throw new IllegalArgumentException();
+	else
+	    init(initialCapacity, loadFactor);
+    }
+
     public synchronized int size()
     {	return size;
     }
@@ -87,6 +136,54 @@ public class Hashtable implements java.io.Serializable, Map
     {	return new HashtableEnumeration(VALUES);
     }
 
+    /** hands each key to visitor, without making a Set or an Iterator */
+    public synchronized void forEachKey(ElementVisitor visitor)
+    {	visit(KEYS, visitor, null);
+    }
+
+    /** hands each value to visitor, without making a Set or an Iterator */
+    public synchronized void forEachElement(ElementVisitor visitor)
+    {	visit(VALUES, visitor, null);
+    }
+
+    /** hands each key / value pair to visitor, without making any Map.Entry */
+    public synchronized void forEachEntry(EntryVisitor visitor)
+    {	visit(ENTRIES, null, visitor);
+    }
+
+    /**
+     * walks the nodes of both tables (the old one too while an incremental
+     * rehash is in progress) directly.  The tables are read into locals
+     * first, so a visitor which modifies this Hashtable cannot derail the
+     * walk; it is caught once, at the end.
+     */
+    private void visit(int type, ElementVisitor elements, EntryVisitor entries)
+    {
+	Bucket[] data = buckets;
+	Bucket[] old = oldBuckets;
+	int knownMods = modCount;
+	Bucket.Node node;
+	for (int pass = 0; pass < 2; pass++, data = old)
+	    {
+		for (int i = 0; data != null && i < data.length; i++)
+		    {
+			if (data[i] == null)
+			    continue;
+			for (node = data[i].first; node != null; node = node.next)
+			    {
+				if (type == KEYS)
+				    elements.visit(node.key);
+				else if (type == VALUES)
+				    elements.visit(node.value);
+				else
+				    entries.visit(node.key, node.value);
+			    }
+		    }
+	    }
+	if (knownMods != modCount)
+	    throw new ConcurrentModificationException();
+    }
+
     public boolean contains(Object value) throws NullPointerException
     {
 	if (value == null)
@@ -103,6 +200,14 @@ public class Hashtable implements java.io.Serializable, Map
 	if (list != null && list.containsValue(value))
 	    return true;
 	}
+    if (oldBuckets != null)
+	{
+	    for (i = migrateIndex; i < oldBuckets.length; i++)
+		{	list = oldBuckets[i];
+		if (list != null && list.containsValue(value))
+		    return true;
+		}
+	}
     return false;
     }
 
@@ -123,11 +228,110 @@ public class Hashtable implements java.io.Serializable, Map
 	    }
 	else
 	    {
-		list = buckets[hash(key)];
-		return (list == null) ? null : list.getValueByKey(key);
+		int h = spread(key.hashCode());
+		list = bucketFor(h);
+		if (sampleInterval != 0 && --sampleCountdown <= 0)
+		    return sampledGet(list, key, h);
+		return (list == null) ? null : list.getValueByKey(key, h);
 	    }
     }
 
+    /** a lookup which also records the calls to equals() it makes */
+    private Object sampledGet(Bucket list, Object key, int h)
+    {
+	int[] equalsCalls = new int[1];
+	Bucket.Node node = (list == null) ? null : list.getEntryByKey(key, h, equalsCalls);
+	sampleCountdown = sampleInterval;
+	sampledLookups++;
+	sampledEqualsCalls += equalsCalls[0];
+	return (node == null) ? null : node.value;
+    }
+
+    /**
+     * measures every interval-th call to <pre>get()</pre> or
+     * <pre>containsKey()</pre>, counting the calls to <pre>equals()</pre> it
+     * makes, for <pre>getStats()</pre>; 1 measures every lookup and 0 (the
+     * default) turns sampling off.  The figures gathered so far are
+     * discarded.
+     *
+     * @param      interval      the number of lookups per sample
+     */
+    public synchronized void setLookupSampling(int interval)
+    {
+	if (interval < 0)
+	    throw new IllegalArgumentException();
+	sampleInterval = interval;
+	sampleCountdown = interval;
+	sampledLookups = 0;
+	sampledEqualsCalls = 0;
+    }
+
+    /** returns the interval set by <pre>setLookupSampling()</pre> */
+    public synchronized int getLookupSampling()
+    {
+	return sampleInterval;
+    }
+
+    /**
+     * returns a snapshot of the shape of the table (the length of every
+     * chain), of the rehashes so far and of the sampled lookups, for
+     * finding keys whose hashCode() collides.  This walks every bucket.
+     */
+    public synchronized HashtableStats getStats()
+    {
+	int[] histogram = new int[Bucket.TREEIFY_THRESHOLD + 1];
+	int[] grown;
+	Bucket[] data = buckets;
+	int counted = 0;
+	int trees = 0;
+	int maxChain = 0;
+	int length;
+	for (int pass = 0; pass < 2; pass++, data = oldBuckets)
+	    {
+		// only the old buckets not yet moved are still part of the table
+		for (int i = (pass == 0) ? 0 : migrateIndex; data != null && i < data.length; i++)
+		    {
+			length = (data[i] == null) ? 0 : data[i].count;
+			if (length > 0 && data[i].root != null)
+			    trees++;
+			if (length >= histogram.length)
+			    {
+				grown = new int[Math.max(length + 1, histogram.length * 2)];
+				System.arraycopy(histogram, 0, grown, 0, histogram.length);
+				histogram = grown;
+			    }
+			histogram[length]++;
+			if (length > maxChain)
+			    maxChain = length;
+			counted++;
+		    }
+	    }
+	grown = new int[maxChain + 1];
+	System.arraycopy(histogram, 0, grown, 0, grown.length);
+	return new HashtableStats(capacity, size, threshold, loadFactor, grown,
+				  counted, trees, rehashCount, rehashMillis,
+				  sampledLookups, sampledEqualsCalls);
+    }
+
+    /**
+     * returns the Bucket which holds a key with the supplied (spread) hash
+     * if it is present.
+     * During an incremental rehash a key lives in the old table until its
+     * old bucket has been moved (writes move a key's bucket before touching
+     * the key), so an old bucket which is still there is authoritative.
+     */
+    private Bucket bucketFor(int h)
+    {
+	Bucket list;
+	if (oldBuckets != null)
+	    {
+		list = oldBuckets[h & (oldBuckets.length - 1)];
+		if (list != null)
+		    return list;
+	    }
+	return buckets[h & (capacity - 1)];
+    }
+
     /**
      * a private method used by inner class HashtableSet to implement its own 
      * <pre>contains(Map.Entry)</pre> method; returns true if the supplied
@@ -151,28 +355,38 @@ public class Hashtable implements java.io.Serializable, Map
 	    }
     }
 
+    /**
+     * doubles the table.  Each bucket is split in place between its old
+     * index and the one oldLength above it, using the hash cached in each
+     * node, so no entries are allocated and no keys are compared.
+     */
     protected void rehash()
     {
 	int i;
-	Bucket[] data = buckets;
-	Bucket.Node node;
+	int oldLength;
+	Bucket[] data;
+	long start;
+	if (oldBuckets != null)
+	    finishRehash();
+	data = buckets;
+	if (capacity == MAXIMUM_CAPACITY)
+	    {
+		threshold = Integer.MAX_VALUE;
+		return;
+	    }
+	start = System.currentTimeMillis();
 	modCount++;
-	capacity = (capacity * 2) + 1;
-	size = 0;
-	// divide by 100(approx).. fix divide
-	threshold = (capacity * loadFactor)>>7; 
+	oldLength = capacity;
+	capacity <<= 1;
+	threshold = computeThreshold(capacity, loadFactor);
 	buckets = new Bucket[capacity];
-	for (i = 0; i < data.length; i++)
+	for (i = 0; i < oldLength; i++)
 	    {
 		if (data[i] != null)
-		    {	node = data[i].first;
-		    while (node != null)
-			{
-			    internalPut(node.getKey(), node.getValue());
-			    node = node.next;
-			}
-		    }
+		    data[i].split(buckets, i, oldLength);
 	    }
+	rehashCount++;
+	rehashMillis += System.currentTimeMillis() - start;
     }
 
     public synchronized Object put(Object key, Object value) 
@@ -184,53 +398,197 @@ public class Hashtable implements java.io.Serializable, Map
 	    return internalPut(key, value);
     }
 
+    /**
+     * selects whether growing this Hashtable rehashes all entries at once
+     * (the default) or incrementally.  In incremental mode, crossing the
+     * threshold only allocates the larger table; the entries stay in the
+     * old table and every subsequent put or remove moves a few of its
+     * buckets across, so no single operation pays for the whole rehash.
+     * Lookups consult both tables until the move completes.  Turning the
+     * mode off completes any rehash in progress.
+     *
+     * @param      incremental      true to rehash incrementally
+     */
+    public synchronized void setIncrementalRehash(boolean incremental)
+    {
+	incrementalRehash = incremental;
+	if (!incremental && oldBuckets != null)
+	    finishRehash();
+    }
+
+    /** returns true if this Hashtable rehashes incrementally */
+    public synchronized boolean isIncrementalRehash()
+    {
+	return incrementalRehash;
+    }
+
+    /**
+     * selects whether this Hashtable keeps a running hash code.  While it
+     * does, every put, remove and Map.Entry setValue() adjusts the sum by
+     * the hash codes of the entry which changed, so hashCode() returns at
+     * once instead of walking the table, and equals() against another such
+     * Hashtable can tell them apart by their hash codes.  Switching it on
+     * costs one walk of the table.  The keys' and values' own hash codes
+     * must not change while they are in the table.
+     *
+     * @param      cached      true to keep a running hash code
+     */
+    public synchronized void setHashCodeCached(boolean cached)
+    {
+	if (cached && !hashCodeCached)
+	    contentHash = computeHashCode();
+	hashCodeCached = cached;
+    }
+
+    /** returns true if this Hashtable keeps a running hash code */
+    public synchronized boolean isHashCodeCached()
+    {
+	return hashCodeCached;
+    }
+
+    /**
+     * moves the running hash code, if there is one, on for key's value
+     * changing from oldValue to newValue; either may be null, for a key
+     * which is being added or removed
+     */
+    private void updateHashCode(Object key, Object oldValue, Object newValue)
+    {
+	int k;
+	if (!hashCodeCached)
+	    return;
+	k = key.hashCode();
+	if (oldValue != null)
+	    contentHash -= k ^ oldValue.hashCode();
+	if (newValue != null)
+	    contentHash += k ^ newValue.hashCode();
+    }
+
+    /**
+     * starts an incremental rehash: the current table becomes the old table
+     * and an empty one twice its size takes its place
+     */
+    private void beginRehash()
+    {
+	if (oldBuckets != null)
+	    finishRehash();
+	if (capacity == MAXIMUM_CAPACITY)
+	    {
+		threshold = Integer.MAX_VALUE;
+		return;
+	    }
+	oldBuckets = buckets;
+	migrateIndex = 0;
+	rehashCount++;
+	capacity <<= 1;
+	threshold = computeThreshold(capacity, loadFactor);
+	buckets = new Bucket[capacity];
+    }
+
+    /** moves up to MIGRATE_STEP old buckets into the new table */
+    private void migrateSome()
+    {
+	int end = Math.min(migrateIndex + MIGRATE_STEP, oldBuckets.length);
+	while (migrateIndex < end)
+	    migrateBucket(migrateIndex++);
+	if (migrateIndex == oldBuckets.length)
+	    oldBuckets = null;
+    }
+
+    private void finishRehash()
+    {
+	while (migrateIndex < oldBuckets.length)
+	    migrateBucket(migrateIndex++);
+	oldBuckets = null;
+    }
+
+    /**
+     * moves one old bucket, if it has not already gone, into the new table;
+     * the two slots it splits into are necessarily still empty, because a
+     * write to either of them would have moved this bucket first
+     */
+    private void migrateBucket(int index)
+    {
+	Bucket old = oldBuckets[index];
+	if (old == null)
+	    return;
+	oldBuckets[index] = null;
+	old.split(buckets, index, oldBuckets.length);
+    }
+
     private Object internalPut(Object key, Object value)
     {
-	HashtableEntry entry;
 	Bucket list;
 	int hashIndex;
 	Object oResult;
+	int h = spread(key.hashCode());
 	modCount++;
-	if (size == threshold)
-	    rehash();
-	entry = new HashtableEntry(key, value);
-	hashIndex = hash(key);
+	if (size >= threshold)
+	    {
+		if (incrementalRehash)
+		    beginRehash();
+		else
+		    rehash();
+	    }
+	if (oldBuckets != null)
+	    {
+		// the key's old bucket goes first, so the key is never in both tables
+		migrateBucket(h & (oldBuckets.length - 1));
+		migrateSome();
+	    }
+	hashIndex = h & (capacity - 1);
 	list = buckets[hashIndex];
 	if (list == null)
 	    {
 		list = new Bucket();
 		buckets[hashIndex] = list;
 	    }
-	oResult = list.add(entry);
+	oResult = list.put(key, value, h);
 	if (oResult == null)
-	    {
-		size++;
-		return null;
-	    }
-	else
-	    {
-		return ((Bucket.Node)oResult).getValue();
-	    }
+	    size++;
+	updateHashCode(key, oResult, value);
+	return oResult;
     }
 
     public synchronized Object remove(Object key)
     {
+	Object result = internalRemove(key);
+	if (oldBuckets != null)
+	    migrateSome();
+	return result;
+    }
+
+    /**
+     * removes a key from whichever table holds it, without advancing an
+     * incremental rehash; iterators remove through here so that buckets
+     * are not moved underneath them
+     */
+    private Object internalRemove(Object key)
+    {
+	Bucket[] table;
 	Bucket list;
 	int index;
 	Object result = null;
 	if (key != null && size > 0)
 	    {
-		index = hash(key);
-		list = buckets[index];
+		int h = spread(key.hashCode());
+		table = buckets;
+		index = h & (capacity - 1);
+		if (oldBuckets != null && oldBuckets[h & (oldBuckets.length - 1)] != null)
+		    {
+			table = oldBuckets;
+			index = h & (oldBuckets.length - 1);
+		    }
+		list = table[index];
 		if (list != null)
 		    {
-			result = list.removeByKey(key);
+			result = list.removeByKey(key, h);
 			if (result != null)
 			    {
 				size--;
 				modCount++;
+				updateHashCode(key, result, null);
 				if (list.first == null)
-				    buckets[index] = null;
+				    table[index] = null;
 			    }
 		    }
 	    }
@@ -240,8 +598,59 @@ public class Hashtable implements java.io.Serializable, Map
     public synchronized void clear()
     {
 	size = 0;
+	contentHash = 0;
 	modCount++;
 	buckets = new Bucket[capacity];
+	oldBuckets = null;
+    }
+
+    /**
+     * writes the capacity and size, then each key / value pair in turn;
+     * none of the buckets or nodes are written, so the stream holds only
+     * the keys and values themselves
+     */
+    private synchronized void writeObject(ObjectOutputStream s) throws IOException
+    {
+	Bucket.Node node;
+	int end = capacity + ((oldBuckets == null) ? 0 : oldBuckets.length);
+	s.defaultWriteObject();
+	s.writeInt(capacity);
+	s.writeInt(size);
+	for (int i = 0; i < end; i++)
+	    {
+		if (bucketAt(i) == null)
+		    continue;
+		for (node = bucketAt(i).first; node != null; node = node.next)
+		    {
+			s.writeObject(node.key);
+			s.writeObject(node.value);
+		    }
+	    }
+    }
+
+    /**
+     * reads what writeObject() wrote; the table is allocated once, large
+     * enough for every pair, and the pairs go straight into their buckets
+     * without any threshold checks
+     */
+    private void readObject(ObjectInputStream s)
+	throws IOException, ClassNotFoundException
+    {
+	int n;
+	Object key, value;
+	s.defaultReadObject();
+	capacity = tableSizeFor(s.readInt());
+	n = s.readInt();
+	while (computeThreshold(capacity, loadFactor) < n && capacity < MAXIMUM_CAPACITY)
+	    capacity <<= 1;
+	threshold = computeThreshold(capacity, loadFactor);
+	buckets = new Bucket[capacity];
+	for (int i = 0; i < n; i++)
+	    {
+		key = s.readObject();
+		value = s.readObject();
+		bulkPut(key, value, spread(key.hashCode()));
+	    }
     }
 
     public synchronized Object clone()
@@ -284,23 +693,114 @@ public class Hashtable implements java.io.Serializable, Map
     }
 
     /**
-     * part of the Map interface; for each Map.Entry in t, the key / value pair is
-     * added to this Hashtable, <b>using the <pre>put()</pre> method -- this may not be
-     * you want, so be warned (see notes to <pre>internalPut()</pre>, above</b>
+     * part of the Map interface; adds every key / value pair of t to this
+     * Hashtable.  The table is grown once, up front, to hold the result,
+     * and the pairs are then inserted directly rather than through
+     * <pre>put()</pre>, so there is no threshold check or rehash per pair
+     * (and a subclass which overrides <pre>put()</pre> will not see them).
+     * When t is itself a Hashtable its buckets are walked directly, reusing
+     * the hash cached in each node, so no iterator or Map.Entry is made and
+     * no hashCode() is called.  As with iterating over t, t must not be
+     * modified while this runs.
      *
      * @param    t       a Map whose key / value pairs will be added to this Hashtable
      */
     public synchronized void putAll(Map t) throws NullPointerException
     {
 	Map.Entry entry;
-	Iterator it = t.entrySet().iterator();
+	Iterator it;
+	Hashtable source;
+	Bucket list;
+	Bucket.Node node;
+	int knownMods, end;
+	Object key, value;
+	if (t == this)
+	    return;
+	ensureCapacity(size + t.size());
+	modCount++;
+	if (t instanceof Hashtable)
+	    {
+		source = (Hashtable) t;
+		knownMods = source.modCount;
+		end = source.capacity + 
+		    ((source.oldBuckets == null) ? 0 : source.oldBuckets.length);
+		for (int i = 0; i < end; i++)
+		    {
+			list = source.bucketAt(i);
+			if (list == null)
+			    continue;
+			for (node = list.first; node != null; node = node.next)
+			    bulkPut(node.key, node.value, node.hash);
+		    }
+		if (knownMods != source.modCount)
+		    throw new ConcurrentModificationException();
+		return;
+	    }
+	it = t.entrySet().iterator();
 	while (it.hasNext())
 	    {
 		entry = (Map.Entry) it.next();
-		put(entry.getKey(), entry.getValue());
+		key = entry.getKey();
+		value = entry.getValue();
+		if (key == null || value == null)
+		    throw new NullPointerException();
+		bulkPut(key, value, spread(key.hashCode()));
 	    }
     }
 
+    /**
+     * grows the table, in a single step, so that it holds n entries without
+     * passing the threshold; an incremental rehash in progress is finished
+     * first
+     */
+    private void ensureCapacity(int n)
+    {
+	int newCapacity;
+	int oldLength;
+	Bucket[] data;
+	long start;
+	if (oldBuckets != null)
+	    finishRehash();
+	if (n <= threshold || capacity == MAXIMUM_CAPACITY)
+	    return;
+	newCapacity = capacity;
+	while (newCapacity < MAXIMUM_CAPACITY && computeThreshold(newCapacity, loadFactor) < n)
+	    newCapacity <<= 1;
+	start = System.currentTimeMillis();
+	modCount++;
+	data = buckets;
+	oldLength = capacity;
+	capacity = newCapacity;
+	threshold = computeThreshold(capacity, loadFactor);
+	buckets = new Bucket[capacity];
+	for (int i = 0; i < oldLength; i++)
+	    {
+		if (data[i] != null)
+		    data[i].redistribute(buckets, i, oldLength);
+	    }
+	rehashCount++;
+	rehashMillis += System.currentTimeMillis() - start;
+    }
+
+    /**
+     * inserts a pair for putAll(), which has already made room for it and
+     * counted the modification
+     */
+    private void bulkPut(Object key, Object value, int h)
+    {
+	int hashIndex = h & (capacity - 1);
+	Bucket list = buckets[hashIndex];
+	if (list == null)
+	    {
+		list = new Bucket();
+		buckets[hashIndex] = list;
+	    }
+	Object oResult = list.put(key, value, h);
+	if (oResult == null)
+	    size++;
+	updateHashCode(key, oResult, value);
+    }
+
     /** 
      * returns a Set of Map.Entry objects in this Hashtable;
      * note, this was called <pre>entries()</pre> prior to JDK-1.2b4 */
@@ -309,38 +809,173 @@ public class Hashtable implements java.io.Serializable, Map
 	return new HashtableSet(ENTRIES);
     }
 
+    /**
+     * returns true if o is a Map with the same mappings as this Hashtable.
+     * Maps of different sizes, or Hashtables which both keep running hash
+     * codes that differ, are rejected without looking at any entry.
+     */
     public synchronized boolean equals(Object o)
-    {	return false;
+    {
+	Map t;
+	Hashtable other;
+	Bucket list;
+	Bucket.Node node;
+	int end;
+	if (o == this)
+	    return true;
+	if (!(o instanceof Map))
+	    return false;
+	t = (Map) o;
+	if (t.size() != size)
+	    return false;
+	if (hashCodeCached && o instanceof Hashtable)
+	    {
+		other = (Hashtable) o;
+		if (other.isHashCodeCached() && other.hashCode() != contentHash)
+		    return false;
+	    }
+	end = capacity + ((oldBuckets == null) ? 0 : oldBuckets.length);
+	for (int i = 0; i < end; i++)
+	    {
+		list = bucketAt(i);
+		if (list == null)
+		    continue;
+		for (node = list.first; node != null; node = node.next)
+		    {
+			if (!node.value.equals(t.get(node.key)))
+			    return false;
+		    }
+	    }
+	return true;
     }
 
-    /** a Map's hashCode is the sum of the hashCodes of all of its Map.Entry objects */
+    /** 
+     * a Map's hashCode is the sum of the hashCodes of all of its Map.Entry objects;
+     * see <pre>setHashCodeCached()</pre>
+     */
     public synchronized int hashCode()
     {
-	Iterator it = entrySet().iterator();
+	return hashCodeCached ? contentHash : computeHashCode();
+    }
+
+    /** sums the entries' hash codes, walking the nodes without making views */
+    private int computeHashCode()
+    {
+	Bucket list;
+	Bucket.Node node;
 	int result = 0;
-	while (it.hasNext())
-	    result += it.next().hashCode();
+	int end = capacity + ((oldBuckets == null) ? 0 : oldBuckets.length);
+	for (int i = 0; i < end; i++)
+	    {
+		list = bucketAt(i);
+		if (list == null)
+		    continue;
+		for (node = list.first; node != null; node = node.next)
+		    result += node.key.hashCode() ^ node.value.hashCode();
+	    }
 	return result;
     }
 
-    private int hash(Object key)
-    {	return Math.abs(key.hashCode() % capacity);
+    /**
+     * returns what an entry iterator hands out for node: the node itself,
+     * unless there is a running hash code for setValue() to keep up to date
+     */
+    private Object entryFor(Bucket.Node node)
+    {
+	return hashCodeCached ? new CachingEntry(node) : node;
+    }
+
+    /**
+     * returns the bucket at a position in the combined iteration order:
+     * the current table followed by whatever remains of the old one
+     */
+    Bucket bucketAt(int index)
+    {
+	return (index < capacity) ? buckets[index] : oldBuckets[index - capacity];
+    }
+
+    /**
+     * returns the hash used to place a key; since capacity is a power of two
+     * the bucket index is a mask of this rather than a division, so the hash
+     * code is first spread to fold its high bits into the low bits the mask
+     * keeps (keys such as Integers and Floats otherwise differ only in bits
+     * which are masked away); LinkedHashtable places its keys the same way
+     */
+    static int spread(int h)
+    {
+	h ^= (h >>> 20) ^ (h >>> 12);
+	return h ^ (h >>> 7) ^ (h >>> 4);
+    }
+
+    private static int computeThreshold(int capacity, float loadFactor)
+    {
+	float t = capacity * loadFactor;
+	return (t >= Integer.MAX_VALUE) ? Integer.MAX_VALUE : (int) t;
+    }
+
+    /** rounds a requested capacity up to a power of two */
+    private static int tableSizeFor(int n)
+    {
+	int c = 1;
+	while (c < n && c < MAXIMUM_CAPACITY)
+	    c <<= 1;
+	return c;
     }
 
-    private void init(int initialCapacity, int initialLoadFactor)
+    private void init(int initialCapacity, float initialLoadFactor)
     {
         size = 0;
         modCount = 0;
-        capacity = initialCapacity;
+        capacity = tableSizeFor(initialCapacity);
         loadFactor = initialLoadFactor;
-        threshold =  (capacity * loadFactor) >> 7;// FIX DIVIDE (approx for div by 100)
+        threshold = computeThreshold(capacity, loadFactor);
         buckets = new Bucket[capacity];
     }
 
-    private static class HashtableEntry extends Bucket.Node 
+    /**
+     * an entry handed out in place of a node while there is a running hash
+     * code, so that setValue() goes through the table and adjusts it
+     */
+    private class CachingEntry implements Map.Entry
     {
-	public HashtableEntry(Object key, Object value)
-	{	super(key, value);
+	private Bucket.Node node;
+
+	CachingEntry(Bucket.Node node)
+	{	this.node = node;
+	}
+
+	public Object getKey()
+	{	return node.key;
+	}
+
+	public Object getValue()
+	{	return node.value;
+	}
+
+	public Object setValue(Object value)
+	{
+	    Object oldValue;
+	    if (value == null)
+		throw new NullPointerException();
+	    synchronized (Hashtable.this)
+		{
+		    oldValue = node.value;
+		    node.value = value;
+		    updateHashCode(node.key, oldValue, value);
+		}
+	    return oldValue;
+	}
+
+	public boolean equals(Object o)
+	{	return node.equals(o);
+	}
+
+	public int hashCode()
+	{	return node.hashCode();
+	}
+
+	public String toString()
+	{	return node.toString();
 	}
     }
 
@@ -373,7 +1008,7 @@ public class Hashtable implements java.io.Serializable, Map
 		while (currentNode == null)
 		    {
 			while (list == null)
-			    list = Hashtable.this.buckets[++bucketIndex];
+			    list = Hashtable.this.bucketAt(++bucketIndex);
 			currentNode = list.first;
 		    }
 		result = (myType == KEYS) ? currentNode.getKey() : 
@@ -582,7 +1217,7 @@ public class Hashtable implements java.io.Serializable, Map
      * @version      $Revision: 1.1 $
      * @modified     $Id: Hashtable.java,v 1.1 1998/10/13 00:38:38 jaz Exp $
      */
-    class HashtableIterator implements Iterator
+    class HashtableIterator implements BatchIterator
     {
 	/** the type of this Iterator: KEYS, VALUES, or ENTRIES */
 	private int myType;
@@ -642,12 +1277,12 @@ public class Hashtable implements java.io.Serializable, Map
 		    while (currentNode == null)
 			{
 			    while (list == null)
-				list = Hashtable.this.buckets[++bucketIndex];
+				list = Hashtable.this.bucketAt(++bucketIndex);
 			    currentNode = list.first;
 			}
 		    currentKey = currentNode.getKey();
 		    result = (myType == KEYS) ? currentKey : 
-			((myType == VALUES) ? currentNode.getValue() : currentNode);
+			((myType == VALUES) ? currentNode.getValue() : entryFor(currentNode));
 		    currentNode = currentNode.next;
 		}
 	    catch(Exception e)
@@ -658,6 +1293,35 @@ public class Hashtable implements java.io.Serializable, Map
 	    return result;
 	}
 
+	/**
+	 * fills buf with the next elements, walking the nodes directly rather
+	 * than through next(), so the mod-check and the size() lookup are paid
+	 * once per batch
+	 */
+	public int nextBatch(Object[] buf)
+	{
+	    Bucket list;
+	    int n = 0;
+	    int count;
+	    checkMod();
+	    count = Math.min(buf.length, Hashtable.this.size() - position);
+	    while (n < count)
+		{
+		    while (currentNode == null)
+			{
+			    list = Hashtable.this.bucketAt(++bucketIndex);
+			    if (list != null)
+				currentNode = list.first;
+			}
+		    buf[n++] = (myType == KEYS) ? currentNode.key : 
+			((myType == VALUES) ? currentNode.value : entryFor(currentNode));
+		    currentKey = currentNode.key;
+		    currentNode = currentNode.next;
+		}
+	    position += n;
+	    return n;
+	}
+
 	/** 
 	 * removes from the backing Hashtable the last element which was fetched with the
 	 * <pre>next()</pre> method
@@ -671,7 +1335,12 @@ public class Hashtable implements java.io.Serializable, Map
 		}
 	    else
 		{
-		    Hashtable.this.remove(currentKey);
+		    synchronized (Hashtable.this)
+			{
+			    Hashtable.this.internalRemove(currentKey);
+			}
+		    // hasNext() compares position against the shrunken size
+		    position--;
 		    knownMods++;
 		    currentKey = null;
 		}
@@ -0,0 +1,178 @@
+/////////////////////////////////////////////////////////////////////////////
+// HashtableStats.java -- a snapshot of how well a Hashtable's keys hash
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU Library General Public License as published
+// by the Free Software Foundation, version 2. (see COPYING.LIB)
+//
+// This program is distributed in the hope that it will be useful, but
+// WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Library General Public License for more details.
+//
+// You should have received a copy of the GNU Library General Public License
+// along with this program; if not, write to the Free Software Foundation
+// Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307 USA
+/////////////////////////////////////////////////////////////////////////////
+
+package java.util;
+
+/**
+ * the figures returned by <pre>Hashtable.getStats()</pre>: the shape of the
+ * table at that moment, the rehashes it has gone through, and, if lookup
+ * sampling is on, how much work its lookups do.
+ *
+ * With well spread keys most buckets hold zero, one or two entries and
+ * sampled lookups make about one call to equals(); long chains, or many
+ * equals() calls per lookup, point at a hashCode() which collides.
+ * (Chains past Bucket.TREEIFY_THRESHOLD are kept as trees, so they cost
+ * O(log n) rather than O(n), but they still show up here.)
+ *
+ * A snapshot never changes; call getStats() again for fresh figures.
+ */
+public final class HashtableStats implements java.io.Serializable
+{
+    private final int capacity;
+    private final int size;
+    private final int threshold;
+    private final float loadFactor;
+    private final int[] chainHistogram;
+    private final int buckets;
+    private final int treeBuckets;
+    private final int rehashCount;
+    private final long rehashMillis;
+    private final long sampledLookups;
+    private final long sampledEqualsCalls;
+
+    HashtableStats(int capacity, int size, int threshold, float loadFactor,
+		   int[] chainHistogram, int buckets, int treeBuckets,
+		   int rehashCount, long rehashMillis,
+		   long sampledLookups, long sampledEqualsCalls)
+    {
+	this.capacity = capacity;
+	this.size = size;
+	this.threshold = threshold;
+	this.loadFactor = loadFactor;
+	this.chainHistogram = chainHistogram;
+	this.buckets = buckets;
+	this.treeBuckets = treeBuckets;
+	this.rehashCount = rehashCount;
+	this.rehashMillis = rehashMillis;
+	this.sampledLookups = sampledLookups;
+	this.sampledEqualsCalls = sampledEqualsCalls;
+    }
+
+    /** the number of buckets in the table */
+    public int getCapacity()
+    {	return capacity;
+    }
+
+    public int getSize()
+    {	return size;
+    }
+
+    /** the size at which the table will next grow */
+    public int getThreshold()
+    {	return threshold;
+    }
+
+    public float getLoadFactor()
+    {	return loadFactor;
+    }
+
+    /**
+     * returns a new array whose element i is the number of buckets holding
+     * exactly i entries; its length is one more than the longest chain.
+     * During an incremental rehash the buckets of the old table which have
+     * not been moved yet are counted too.
+     */
+    public int[] getChainHistogram()
+    {
+	int[] result = new int[chainHistogram.length];
+	System.arraycopy(chainHistogram, 0, result, 0, result.length);
+	return result;
+    }
+
+    /** the number of entries in the longest chain */
+    public int getMaxChain()
+    {	return chainHistogram.length - 1;
+    }
+
+    /** the number of buckets, out of those counted, holding no entries */
+    public int getEmptyBuckets()
+    {	return chainHistogram[0];
+    }
+
+    /** the fraction, from 0 to 1, of the buckets counted which are empty */
+    public double getEmptyBucketRatio()
+    {	return (buckets == 0) ? 0 : (double) chainHistogram[0] / buckets;
+    }
+
+    /** the mean number of entries in the buckets which are not empty */
+    public double getAverageChain()
+    {
+	int used = buckets - chainHistogram[0];
+	return (used == 0) ? 0 : (double) size / used;
+    }
+
+    /** the number of buckets which have been turned into trees */
+    public int getTreeBuckets()
+    {	return treeBuckets;
+    }
+
+    /** the number of times the table has grown */
+    public int getRehashCount()
+    {	return rehashCount;
+    }
+
+    /**
+     * the total time, in milliseconds, spent in rehashes which moved the
+     * whole table at once.  Incremental rehashes spread their work over
+     * later puts and removes, so only their count is recorded.
+     */
+    public long getRehashMillis()
+    {	return rehashMillis;
+    }
+
+    /** the number of lookups measured since sampling was last switched on */
+    public long getSampledLookups()
+    {	return sampledLookups;
+    }
+
+    /** the calls to equals() made by the sampled lookups */
+    public long getSampledEqualsCalls()
+    {	return sampledEqualsCalls;
+    }
+
+    /**
+     * the mean number of calls to equals() per sampled lookup, or 0 if no
+     * lookup has been sampled.  About 1 for a hit and 0 for a miss is
+     * ideal; much more means keys with equal hashes are piling up.
+     */
+    public double getAverageEqualsPerLookup()
+    {	return (sampledLookups == 0) ? 0 : (double) sampledEqualsCalls / sampledLookups;
+    }
+
+    public String toString()
+    {
+	StringBuffer buf = new StringBuffer();
+	buf.append("size=").append(size);
+	buf.append(" capacity=").append(capacity);
+	buf.append(" threshold=").append(threshold);
+	buf.append(" maxChain=").append(getMaxChain());
+	buf.append(" emptyBuckets=").append(getEmptyBuckets());
+	buf.append(" treeBuckets=").append(treeBuckets);
+	buf.append(" rehashes=").append(rehashCount);
+	buf.append(" rehashMillis=").append(rehashMillis);
+	if (sampledLookups > 0)
+	    buf.append(" equalsPerLookup=").append(getAverageEqualsPerLookup());
+	buf.append(" chains=[");
+	for (int i = 0; i < chainHistogram.length; i++)
+	    {
+		if (i > 0)
+		    buf.append(", ");
+		buf.append(chainHistogram[i]);
+	    }
+	return buf.append(']').toString();
+    }
+}
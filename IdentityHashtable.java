@@ -0,0 +1,592 @@
+/////////////////////////////////////////////////////////////////////////////
+// IdentityHashtable.java -- a Hashtable which compares keys by reference
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU Library General Public License as published
+// by the Free Software Foundation, version 2. (see COPYING.LIB)
+//
+// This program is distributed in the hope that it will be useful, but
+// WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Library General Public License for more details.
+//
+// You should have received a copy of the GNU Library General Public License
+// along with this program; if not, write to the Free Software Foundation
+// Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307 USA
+/////////////////////////////////////////////////////////////////////////////
+
+package java.util;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+
+/**
+ * a synchronized Map which compares keys, and values, with == and hashes
+ * keys with System.identityHashCode(), never calling hashCode() or
+ * equals() on them.  This is what observer registries, visited sets in
+ * graph walks and serialization back-references want; it deliberately
+ * breaks the general Map contract, which is written in terms of equals().
+ *
+ * The table is a single Object[] holding each key at an even index and its
+ * value just after it, so a probe reads the key and the value from the
+ * same cache line.  Collisions are resolved by linear probing, removal
+ * shifts the rest of the run back instead of leaving a tombstone, and the
+ * table grows when it is two thirds full.  Like Hashtable, neither keys
+ * nor values may be null; a null key marks an empty slot.
+ *
+ * Iterators are fail-fast.
+ */
+public class IdentityHashtable extends AbstractMap implements Map, Serializable
+{
+    private static final int DEFAULT_CAPACITY = 32; // must be a power of two
+    private static final int MAXIMUM_CAPACITY = 1 << 29;
+
+    private static final int KEYS = 0;
+    private static final int VALUES = 1;
+    private static final int ENTRIES = 2;
+
+    /** keys at even indices, each followed by its value */
+    private transient Object[] table;
+    private transient int size;
+    private transient int threshold;
+    transient int modCount;
+
+    public IdentityHashtable()
+    {	init(DEFAULT_CAPACITY);
+    }
+
+    /** makes a table which holds expectedSize entries without growing */
+    public IdentityHashtable(int expectedSize)
+    {
+	if (expectedSize < 0)
+	    throw new IllegalArgumentException();
+	init(capacityFor(expectedSize));
+    }
+
+    public IdentityHashtable(Map t)
+    {
+	init(capacityFor(t.size()));
+	putAll(t);
+    }
+
+    private static int capacityFor(int expectedSize)
+    {
+	int capacity = 4;
+	while (capacity < MAXIMUM_CAPACITY && capacity * 2 / 3 < expectedSize)
+	    capacity <<= 1;
+	return capacity;
+    }
+
+    private void init(int capacity)
+    {
+	table = new Object[capacity << 1];
+	threshold = capacity * 2 / 3;
+    }
+
+    /** the even index of the slot at which a probe for key starts */
+    private static int slotFor(Object key, int length)
+    {
+	return (IntHashtable.mix(System.identityHashCode(key)) << 1) & (length - 1);
+    }
+
+    public synchronized int size()
+    {	return size;
+    }
+
+    public synchronized boolean isEmpty()
+    {	return size == 0;
+    }
+
+    /** the index of key in the table, or -1 */
+    private int indexOf(Object key)
+    {
+	Object[] tab = table;
+	int i = slotFor(key, tab.length);
+	Object k;
+	while ((k = tab[i]) != null)
+	    {
+		if (k == key)
+		    return i;
+		i = (i + 2) & (tab.length - 1);
+	    }
+	return -1;
+    }
+
+    public synchronized boolean containsKey(Object key)
+    {	return key != null && indexOf(key) >= 0;
+    }
+
+    /** true if some key maps to this very object */
+    public synchronized boolean containsValue(Object value)
+    {
+	if (value == null)
+	    return false;
+	for (int i = 1; i < table.length; i += 2)
+	    {
+		if (table[i] == value)
+		    return true;
+	    }
+	return false;
+    }
+
+    /** the Hashtable name for containsValue() */
+    public boolean contains(Object value)
+    {	return containsValue(value);
+    }
+
+    public synchronized Object get(Object key)
+    {
+	int i;
+	if (key == null)
+	    return null;
+	i = indexOf(key);
+	return (i < 0) ? null : table[i + 1];
+    }
+
+    public synchronized Object put(Object key, Object value)
+    {
+	Object[] tab = table;
+	int i;
+	Object k, old;
+	if (key == null || value == null)
+	    throw new NullPointerException();
+	i = slotFor(key, tab.length);
+	while ((k = tab[i]) != null)
+	    {
+		if (k == key)
+		    {
+			old = tab[i + 1];
+			tab[i + 1] = value;
+			return old;
+		    }
+		i = (i + 2) & (tab.length - 1);
+	    }
+	modCount++;
+	if (size >= threshold)
+	    {
+		resize();
+		tab = table;
+		i = slotFor(key, tab.length);
+		while (tab[i] != null)
+		    i = (i + 2) & (tab.length - 1);
+	    }
+	tab[i] = key;
+	tab[i + 1] = value;
+	size++;
+	return null;
+    }
+
+    public synchronized Object remove(Object key)
+    {
+	int i;
+	Object old;
+	if (key == null)
+	    return null;
+	i = indexOf(key);
+	if (i < 0)
+	    return null;
+	old = table[i + 1];
+	modCount++;
+	size--;
+	deleteSlot(i);
+	return old;
+    }
+
+    /**
+     * empties the slot at index i, moving back any later entry of the run
+     * which could not otherwise be reached from its home slot; entries
+     * only ever move towards the empty slot, and never past an empty slot
+     */
+    private void deleteSlot(int i)
+    {
+	Object[] tab = table;
+	int mask = tab.length - 1;
+	int j = i;
+	int home;
+	Object k;
+	while (true)
+	    {
+		j = (j + 2) & mask;
+		if ((k = tab[j]) == null)
+		    break;
+		home = slotFor(k, tab.length);
+		// leave j alone if its home lies cyclically in (i, j]
+		if ((i <= j) ? (i < home && home <= j) : (i < home || home <= j))
+		    continue;
+		tab[i] = k;
+		tab[i + 1] = tab[j + 1];
+		i = j;
+	    }
+	tab[i] = null;
+	tab[i + 1] = null;
+    }
+
+    public synchronized void putAll(Map t)
+    {
+	Map.Entry e;
+	for (Iterator it = t.entrySet().iterator(); it.hasNext(); )
+	    {
+		e = (Map.Entry) it.next();
+		put(e.getKey(), e.getValue());
+	    }
+    }
+
+    public synchronized void clear()
+    {
+	modCount++;
+	for (int i = 0; i < table.length; i++)
+	    table[i] = null;
+	size = 0;
+    }
+
+    /** doubles the table */
+    private void resize()
+    {
+	Object[] oldTable = table;
+	Object[] tab;
+	int i;
+	Object k;
+	if (oldTable.length >= (MAXIMUM_CAPACITY << 1))
+	    {
+		if (size >= (MAXIMUM_CAPACITY - 1))
+		    throw new IllegalStateException("IdentityHashtable is full");
+		threshold = MAXIMUM_CAPACITY - 1;
+		return;
+	    }
+	init(oldTable.length);
+	tab = table;
+	for (int j = 0; j < oldTable.length; j += 2)
+	    {
+		if ((k = oldTable[j]) == null)
+		    continue;
+		i = slotFor(k, tab.length);
+		while (tab[i] != null)
+		    i = (i + 2) & (tab.length - 1);
+		tab[i] = k;
+		tab[i + 1] = oldTable[j + 1];
+	    }
+    }
+
+    /**
+     * two identity maps are equal when they hold the same key objects
+     * mapped to the same value objects; against any other Map the usual
+     * equals()-based comparison of AbstractMap applies
+     */
+    public synchronized boolean equals(Object o)
+    {
+	IdentityHashtable t;
+	Object[] tab;
+	if (o == this)
+	    return true;
+	if (!(o instanceof IdentityHashtable))
+	    return super.equals(o);
+	t = (IdentityHashtable) o;
+	if (t.size() != size)
+	    return false;
+	tab = table;
+	for (int i = 0; i < tab.length; i += 2)
+	    {
+		if (tab[i] != null && t.get(tab[i]) != tab[i + 1])
+		    return false;
+	    }
+	return true;
+    }
+
+    public synchronized int hashCode()
+    {
+	int h = 0;
+	for (int i = 0; i < table.length; i += 2)
+	    {
+		if (table[i] != null)
+		    h += System.identityHashCode(table[i])
+			^ System.identityHashCode(table[i + 1]);
+	    }
+	return h;
+    }
+
+    public Enumeration keys()
+    {	return new TableIterator(KEYS);
+    }
+
+    public Enumeration elements()
+    {	return new TableIterator(VALUES);
+    }
+
+    public Set keySet()
+    {	return new TableSet(KEYS);
+    }
+
+    public Set entrySet()
+    {	return new TableSet(ENTRIES);
+    }
+
+    public Collection values()
+    {
+	return new AbstractCollection()
+	    {
+		public Iterator iterator()
+		{
+		    return new TableIterator(VALUES);
+		}
+
+		public int size()
+		{
+		    return IdentityHashtable.this.size();
+		}
+
+		public boolean contains(Object o)
+		{
+		    return IdentityHashtable.this.containsValue(o);
+		}
+
+		public void clear()
+		{
+		    IdentityHashtable.this.clear();
+		}
+	    };
+    }
+
+    /**
+     * identity hash codes are not preserved by serialization, so the pairs
+     * are written out and hashed afresh when read back
+     */
+    private synchronized void writeObject(ObjectOutputStream s) throws IOException
+    {
+	s.defaultWriteObject();
+	s.writeInt(size);
+	for (int i = 0; i < table.length; i += 2)
+	    {
+		if (table[i] != null)
+		    {
+			s.writeObject(table[i]);
+			s.writeObject(table[i + 1]);
+		    }
+	    }
+    }
+
+    private void readObject(ObjectInputStream s)
+	throws IOException, ClassNotFoundException
+    {
+	int n;
+	s.defaultReadObject();
+	n = s.readInt();
+	init(capacityFor(n));
+	for (int i = 0; i < n; i++)
+	    put(s.readObject(), s.readObject());
+    }
+
+    /** an entry whose equality, like the table's, is by reference */
+    private final class IdentityEntry implements Map.Entry
+    {
+	private final Object key;
+	private Object value;
+
+	IdentityEntry(Object key, Object value)
+	{
+	    this.key = key;
+	    this.value = value;
+	}
+
+	public Object getKey()
+	{
+	    return key;
+	}
+
+	public Object getValue()
+	{
+	    return value;
+	}
+
+	/** writes through to the table */
+	public Object setValue(Object value)
+	{
+	    Object old = this.value;
+	    if (value == null)
+		throw new NullPointerException();
+	    synchronized (IdentityHashtable.this)
+		{
+		    if (indexOf(key) < 0)
+			throw new IllegalStateException();
+		    put(key, value);
+		}
+	    this.value = value;
+	    return old;
+	}
+
+	public boolean equals(Object o)
+	{
+	    Map.Entry e;
+	    if (!(o instanceof Map.Entry))
+		return false;
+	    e = (Map.Entry) o;
+	    return key == e.getKey() && value == e.getValue();
+	}
+
+	public int hashCode()
+	{
+	    return System.identityHashCode(key) ^ System.identityHashCode(value);
+	}
+
+	public String toString()
+	{
+	    return key + "=" + value;
+	}
+    }
+
+    /** a Set view of the keys or entries */
+    private final class TableSet extends AbstractSet
+    {
+	private final int setType;
+
+	TableSet(int type)
+	{
+	    setType = type;
+	}
+
+	public Iterator iterator()
+	{
+	    return new TableIterator(setType);
+	}
+
+	public int size()
+	{
+	    return IdentityHashtable.this.size();
+	}
+
+	public boolean contains(Object o)
+	{
+	    Map.Entry e;
+	    if (setType == KEYS)
+		return containsKey(o);
+	    if (!(o instanceof Map.Entry))
+		return false;
+	    e = (Map.Entry) o;
+	    return e.getValue() != null && get(e.getKey()) == e.getValue();
+	}
+
+	public boolean remove(Object o)
+	{
+	    if (setType == KEYS)
+		return IdentityHashtable.this.remove(o) != null;
+	    synchronized (IdentityHashtable.this)
+		{
+		    if (!contains(o))
+			return false;
+		    IdentityHashtable.this.remove(((Map.Entry) o).getKey());
+		    return true;
+		}
+	}
+
+	public void clear()
+	{
+	    IdentityHashtable.this.clear();
+	}
+    }
+
+    /**
+     * walks the table once round, starting just past a slot which was
+     * empty when the walk began.  Since deleteSlot() never moves an entry
+     * past an empty slot, the only entry remove() can carry behind the
+     * cursor is one moved into the slot just returned, so the walk simply
+     * looks at that slot again
+     */
+    private final class TableIterator implements Iterator, Enumeration
+    {
+	private final int type;
+	private int index;
+	private int remaining;
+	private int lastReturned = -1;
+	private int knownMods;
+	private int next = -1;
+
+	TableIterator(int type)
+	{
+	    this.type = type;
+	    synchronized (IdentityHashtable.this)
+		{
+		    int i = 0;
+		    while (table[i] != null)
+			i += 2;
+		    index = i;
+		    remaining = table.length >> 1;
+		    knownMods = modCount;
+		}
+	}
+
+	/** finds the next used slot, leaving it in next, or -1 */
+	private int findNext()
+	{
+	    Object[] tab = table;
+	    if (knownMods != modCount)
+		throw new ConcurrentModificationException();
+	    while (next < 0 && remaining > 0)
+		{
+		    index = (index + 2) & (tab.length - 1);
+		    remaining--;
+		    if (tab[index] != null)
+			next = index;
+		}
+	    return next;
+	}
+
+	public boolean hasNext()
+	{
+	    synchronized (IdentityHashtable.this)
+		{
+		    return findNext() >= 0;
+		}
+	}
+
+	public boolean hasMoreElements()
+	{
+	    return hasNext();
+	}
+
+	public Object next()
+	{
+	    synchronized (IdentityHashtable.this)
+		{
+		    int i = findNext();
+		    if (i < 0)
+			throw new NoSuchElementException();
+		    next = -1;
+		    lastReturned = i;
+		    if (type == KEYS)
+			return table[i];
+		    else if (type == VALUES)
+			return table[i + 1];
+		    else
+			return new IdentityEntry(table[i], table[i + 1]);
+		}
+	}
+
+	public Object nextElement()
+	{
+	    return next();
+	}
+
+	public void remove()
+	{
+	    if (lastReturned < 0)
+		throw new IllegalStateException();
+	    synchronized (IdentityHashtable.this)
+		{
+		    if (knownMods != modCount)
+			throw new ConcurrentModificationException();
+		    int mask = table.length - 1;
+		    modCount++;
+		    size--;
+		    deleteSlot(lastReturned);
+		    knownMods = modCount;
+		    // rewind to look at the slot just emptied again, giving
+		    // back any slots hasNext() has already looked past
+		    remaining += (((index - lastReturned) & mask) >> 1) + 1;
+		    index = (lastReturned - 2) & mask;
+		    next = -1;
+		    lastReturned = -1;
+		}
+	}
+    }
+}
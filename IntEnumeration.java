@@ -0,0 +1,30 @@
+/////////////////////////////////////////////////////////////////////////////
+// IntEnumeration.java -- an Enumeration of unboxed ints
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU Library General Public License as published
+// by the Free Software Foundation, version 2. (see COPYING.LIB)
+//
+// This program is distributed in the hope that it will be useful, but
+// WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Library General Public License for more details.
+//
+// You should have received a copy of the GNU Library General Public License
+// along with this program; if not, write to the Free Software Foundation
+// Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307 USA
+/////////////////////////////////////////////////////////////////////////////
+
+package java.util;
+
+/**
+ * the int counterpart of Enumeration, used by the int-keyed tables so
+ * that walking their keys does not box each one
+ */
+public interface IntEnumeration
+{
+    public boolean hasMoreElements();
+
+    /** @throws NoSuchElementException if there are no more elements */
+    public int nextInt();
+}
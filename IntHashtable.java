@@ -0,0 +1,328 @@
+/////////////////////////////////////////////////////////////////////////////
+// IntHashtable.java -- a Hashtable keyed by unboxed ints
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU Library General Public License as published
+// by the Free Software Foundation, version 2. (see COPYING.LIB)
+//
+// This program is distributed in the hope that it will be useful, but
+// WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Library General Public License for more details.
+//
+// You should have received a copy of the GNU Library General Public License
+// along with this program; if not, write to the Free Software Foundation
+// Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307 USA
+/////////////////////////////////////////////////////////////////////////////
+
+package java.util;
+
+import java.io.Serializable;
+
+/**
+ * a synchronized table mapping int keys to non-null Object values, with
+ * the get/put/remove/keys/elements interface of Hashtable.
+ *
+ * Keys and values are kept in two flat parallel arrays and found by linear
+ * probing, so nothing is boxed and nothing is allocated per entry.  Since
+ * values may not be null, a null value marks an empty slot; every int,
+ * including 0 and -1, is a legal key.  remove() shifts the following run
+ * of the probe sequence back rather than leaving a tombstone, so lookups
+ * do not slow down after many removals.
+ *
+ * As with Hashtable, an Enumeration can end up in an undefined state if
+ * the table changes while it is open.
+ */
+public class IntHashtable implements Serializable
+{
+    private static final int DEFAULT_CAPACITY = 16; // must be a power of two
+    private static final float DEFAULT_LOAD_FACTOR = 0.75f;
+    private static final int MAXIMUM_CAPACITY = 1 << 30;
+
+    private int[] keys;
+    private Object[] values;
+    private int size;
+    private float loadFactor;
+    private int threshold;
+
+    public IntHashtable()
+    {	this(DEFAULT_CAPACITY, DEFAULT_LOAD_FACTOR);
+    }
+
+    public IntHashtable(int initialCapacity)
+    {	this(initialCapacity, DEFAULT_LOAD_FACTOR);
+    }
+
+    public IntHashtable(int initialCapacity, float loadFactor)
+    {
+	int capacity;
+	if (initialCapacity < 0 || !(loadFactor > 0) || loadFactor >= 1)
+	    throw new IllegalArgumentException();
+	this.loadFactor = loadFactor;
+	capacity = tableSizeFor(initialCapacity, loadFactor);
+	keys = new int[capacity];
+	values = new Object[capacity];
+	threshold = computeThreshold(capacity, loadFactor);
+    }
+
+    /**
+     * scrambles an int key so that keys which differ only in their high
+     * bits, or which form a stride, still land in different slots; shared
+     * with IntIntHashtable
+     */
+    static int mix(int key)
+    {
+	int h = key * 0x9E3779B9;
+	return h ^ (h >>> 16);
+    }
+
+    /**
+     * the smallest power of two which holds initialCapacity entries
+     * without passing the load factor
+     */
+    static int tableSizeFor(int initialCapacity, float loadFactor)
+    {
+	int capacity = DEFAULT_CAPACITY;
+	while (capacity < MAXIMUM_CAPACITY
+	       && computeThreshold(capacity, loadFactor) < initialCapacity)
+	    capacity <<= 1;
+	return capacity;
+    }
+
+    /** always leaves at least one empty slot, so probing terminates */
+    static int computeThreshold(int capacity, float loadFactor)
+    {
+	int t = (int) (capacity * loadFactor);
+	return (t < capacity) ? t : capacity - 1;
+    }
+
+    public synchronized int size()
+    {	return size;
+    }
+
+    public synchronized boolean isEmpty()
+    {	return size == 0;
+    }
+
+    public synchronized IntEnumeration keys()
+    {	return new KeyEnumeration();
+    }
+
+    public synchronized Enumeration elements()
+    {	return new ValueEnumeration();
+    }
+
+    /** the index of key's slot, or -1 if it is not in the table */
+    private int indexOf(int key)
+    {
+	int mask = keys.length - 1;
+	int i = mix(key) & mask;
+	while (values[i] != null)
+	    {
+		if (keys[i] == key)
+		    return i;
+		i = (i + 1) & mask;
+	    }
+	return -1;
+    }
+
+    public synchronized boolean containsKey(int key)
+    {	return indexOf(key) >= 0;
+    }
+
+    public synchronized boolean contains(Object value)
+    {
+	if (value == null)
+	    throw new NullPointerException();
+	for (int i = 0; i < values.length; i++)
+	    {
+		if (values[i] != null && value.equals(values[i]))
+		    return true;
+	    }
+	return false;
+    }
+
+    public boolean containsValue(Object value)
+    {	return contains(value);
+    }
+
+    /** returns the value for key, or null if there is none */
+    public synchronized Object get(int key)
+    {
+	int i = indexOf(key);
+	return (i < 0) ? null : values[i];
+    }
+
+    /**
+     * maps key to value, returning the value it replaced, or null
+     *
+     * @throws NullPointerException if value is null
+     */
+    public synchronized Object put(int key, Object value)
+    {
+	int mask, i;
+	Object old;
+	if (value == null)
+	    throw new NullPointerException();
+	mask = keys.length - 1;
+	i = mix(key) & mask;
+	while (values[i] != null)
+	    {
+		if (keys[i] == key)
+		    {
+			old = values[i];
+			values[i] = value;
+			return old;
+		    }
+		i = (i + 1) & mask;
+	    }
+	if (size >= threshold)
+	    {
+		rehash();
+		mask = keys.length - 1;
+		i = mix(key) & mask;
+		while (values[i] != null)
+		    i = (i + 1) & mask;
+	    }
+	keys[i] = key;
+	values[i] = value;
+	size++;
+	return null;
+    }
+
+    /** removes key, returning its value, or null if it was not present */
+    public synchronized Object remove(int key)
+    {
+	int i = indexOf(key);
+	Object old;
+	if (i < 0)
+	    return null;
+	old = values[i];
+	deleteSlot(i);
+	size--;
+	return old;
+    }
+
+    /**
+     * empties slot i, then moves back any later entry in the same run
+     * which could not otherwise be reached from its home slot
+     */
+    private void deleteSlot(int i)
+    {
+	int mask = keys.length - 1;
+	int j = i;
+	int home;
+	while (true)
+	    {
+		j = (j + 1) & mask;
+		if (values[j] == null)
+		    break;
+		home = mix(keys[j]) & mask;
+		// leave j alone if its home lies cyclically in (i, j]
+		if ((i <= j) ? (i < home && home <= j) : (i < home || home <= j))
+		    continue;
+		keys[i] = keys[j];
+		values[i] = values[j];
+		i = j;
+	    }
+	values[i] = null;
+    }
+
+    public synchronized void clear()
+    {
+	for (int i = 0; i < values.length; i++)
+	    values[i] = null;
+	size = 0;
+    }
+
+    /** doubles the table and reinserts every entry */
+    protected void rehash()
+    {
+	int[] oldKeys = keys;
+	Object[] oldValues = values;
+	int capacity = oldKeys.length << 1;
+	int mask = capacity - 1;
+	int i;
+	if (oldKeys.length >= MAXIMUM_CAPACITY)
+	    throw new IllegalStateException("IntHashtable is full");
+	keys = new int[capacity];
+	values = new Object[capacity];
+	threshold = computeThreshold(capacity, loadFactor);
+	for (int j = 0; j < oldKeys.length; j++)
+	    {
+		if (oldValues[j] == null)
+		    continue;
+		i = mix(oldKeys[j]) & mask;
+		while (values[i] != null)
+		    i = (i + 1) & mask;
+		keys[i] = oldKeys[j];
+		values[i] = oldValues[j];
+	    }
+    }
+
+    public synchronized String toString()
+    {
+	StringBuffer sb = new StringBuffer();
+	boolean first = true;
+	sb.append('{');
+	for (int i = 0; i < values.length; i++)
+	    {
+		if (values[i] == null)
+		    continue;
+		if (!first)
+		    sb.append(", ");
+		first = false;
+		sb.append(keys[i]).append('=').append(values[i]);
+	    }
+	return sb.append('}').toString();
+    }
+
+    /** walks the slots in table order, skipping empty ones */
+    private abstract class SlotEnumeration
+    {
+	int next;
+
+	SlotEnumeration()
+	{
+	    next = -1;
+	    advance();
+	}
+
+	void advance()
+	{
+	    do
+		next++;
+	    while (next < values.length && values[next] == null);
+	}
+
+	public boolean hasMoreElements()
+	{
+	    return next < values.length;
+	}
+
+	int nextSlot()
+	{
+	    int slot = next;
+	    if (slot >= values.length)
+		throw new NoSuchElementException();
+	    advance();
+	    return slot;
+	}
+    }
+
+    private class KeyEnumeration extends SlotEnumeration implements IntEnumeration
+    {
+	public int nextInt()
+	{
+	    return keys[nextSlot()];
+	}
+    }
+
+    private class ValueEnumeration extends SlotEnumeration implements Enumeration
+    {
+	public Object nextElement()
+	{
+	    return values[nextSlot()];
+	}
+    }
+}
@@ -0,0 +1,285 @@
+/////////////////////////////////////////////////////////////////////////////
+// IntIntHashtable.java -- a Hashtable mapping unboxed ints to unboxed ints
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU Library General Public License as published
+// by the Free Software Foundation, version 2. (see COPYING.LIB)
+//
+// This program is distributed in the hope that it will be useful, but
+// WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Library General Public License for more details.
+//
+// You should have received a copy of the GNU Library General Public License
+// along with this program; if not, write to the Free Software Foundation
+// Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307 USA
+/////////////////////////////////////////////////////////////////////////////
+
+package java.util;
+
+import java.io.Serializable;
+
+/**
+ * a synchronized table mapping int keys to int values, with the
+ * get/put/remove/keys/elements interface of Hashtable.
+ *
+ * Keys and values live in two flat int arrays and are found by linear
+ * probing, as in IntHashtable.  Neither array has a spare value to mark
+ * an empty slot, so occupancy is kept in a separate bitmap; any int may be
+ * a key or a value.  A slot costs 8 bytes plus one bit, against the
+ * boxed keys, boxed values, nodes and buckets of a Hashtable.
+ *
+ * Since there is no null int, get(), put() and remove() return 0 where
+ * Hashtable would return null; use containsKey() or get(int, int) where
+ * that matters.
+ */
+public class IntIntHashtable implements Serializable
+{
+    private static final int DEFAULT_CAPACITY = 16; // must be a power of two
+    private static final float DEFAULT_LOAD_FACTOR = 0.75f;
+    private static final int MAXIMUM_CAPACITY = 1 << 30;
+
+    private int[] keys;
+    private int[] values;
+    /** bit i of used[i >> 5] is set when slot i holds an entry */
+    private int[] used;
+    private int size;
+    private float loadFactor;
+    private int threshold;
+
+    public IntIntHashtable()
+    {	this(DEFAULT_CAPACITY, DEFAULT_LOAD_FACTOR);
+    }
+
+    public IntIntHashtable(int initialCapacity)
+    {	this(initialCapacity, DEFAULT_LOAD_FACTOR);
+    }
+
+    public IntIntHashtable(int initialCapacity, float loadFactor)
+    {
+	if (initialCapacity < 0 || !(loadFactor > 0) || loadFactor >= 1)
+	    throw new IllegalArgumentException();
+	this.loadFactor = loadFactor;
+	allocate(IntHashtable.tableSizeFor(initialCapacity, loadFactor));
+    }
+
+    private void allocate(int capacity)
+    {
+	keys = new int[capacity];
+	values = new int[capacity];
+	used = new int[(capacity + 31) >>> 5];
+	threshold = IntHashtable.computeThreshold(capacity, loadFactor);
+    }
+
+    private boolean isUsed(int i)
+    {	return (used[i >>> 5] & (1 << i)) != 0;
+    }
+
+    public synchronized int size()
+    {	return size;
+    }
+
+    public synchronized boolean isEmpty()
+    {	return size == 0;
+    }
+
+    public synchronized IntEnumeration keys()
+    {	return new SlotEnumeration(true);
+    }
+
+    public synchronized IntEnumeration elements()
+    {	return new SlotEnumeration(false);
+    }
+
+    /** the index of key's slot, or -1 if it is not in the table */
+    private int indexOf(int key)
+    {
+	int mask = keys.length - 1;
+	int i = IntHashtable.mix(key) & mask;
+	while (isUsed(i))
+	    {
+		if (keys[i] == key)
+		    return i;
+		i = (i + 1) & mask;
+	    }
+	return -1;
+    }
+
+    public synchronized boolean containsKey(int key)
+    {	return indexOf(key) >= 0;
+    }
+
+    public synchronized boolean contains(int value)
+    {
+	for (int i = 0; i < values.length; i++)
+	    {
+		if (values[i] == value && isUsed(i))
+		    return true;
+	    }
+	return false;
+    }
+
+    public boolean containsValue(int value)
+    {	return contains(value);
+    }
+
+    /** returns the value for key, or 0 if there is none */
+    public int get(int key)
+    {	return get(key, 0);
+    }
+
+    /** returns the value for key, or missing if there is none */
+    public synchronized int get(int key, int missing)
+    {
+	int i = indexOf(key);
+	return (i < 0) ? missing : values[i];
+    }
+
+    /** maps key to value, returning the value it replaced, or 0 */
+    public synchronized int put(int key, int value)
+    {
+	int mask = keys.length - 1;
+	int i = IntHashtable.mix(key) & mask;
+	int old;
+	while (isUsed(i))
+	    {
+		if (keys[i] == key)
+		    {
+			old = values[i];
+			values[i] = value;
+			return old;
+		    }
+		i = (i + 1) & mask;
+	    }
+	if (size >= threshold)
+	    {
+		rehash();
+		mask = keys.length - 1;
+		i = IntHashtable.mix(key) & mask;
+		while (isUsed(i))
+		    i = (i + 1) & mask;
+	    }
+	keys[i] = key;
+	values[i] = value;
+	used[i >>> 5] |= 1 << i;
+	size++;
+	return 0;
+    }
+
+    /** removes key, returning its value, or 0 if it was not present */
+    public synchronized int remove(int key)
+    {
+	int i = indexOf(key);
+	int old;
+	if (i < 0)
+	    return 0;
+	old = values[i];
+	deleteSlot(i);
+	size--;
+	return old;
+    }
+
+    /** backward-shift deletion; see IntHashtable.deleteSlot */
+    private void deleteSlot(int i)
+    {
+	int mask = keys.length - 1;
+	int j = i;
+	int home;
+	while (true)
+	    {
+		j = (j + 1) & mask;
+		if (!isUsed(j))
+		    break;
+		home = IntHashtable.mix(keys[j]) & mask;
+		if ((i <= j) ? (i < home && home <= j) : (i < home || home <= j))
+		    continue;
+		keys[i] = keys[j];
+		values[i] = values[j];
+		i = j;
+	    }
+	used[i >>> 5] &= ~(1 << i);
+    }
+
+    public synchronized void clear()
+    {
+	for (int i = 0; i < used.length; i++)
+	    used[i] = 0;
+	size = 0;
+    }
+
+    /** doubles the table and reinserts every entry */
+    protected void rehash()
+    {
+	int[] oldKeys = keys;
+	int[] oldValues = values;
+	int[] oldUsed = used;
+	int mask, i;
+	if (oldKeys.length >= MAXIMUM_CAPACITY)
+	    throw new IllegalStateException("IntIntHashtable is full");
+	allocate(oldKeys.length << 1);
+	mask = keys.length - 1;
+	for (int j = 0; j < oldKeys.length; j++)
+	    {
+		if ((oldUsed[j >>> 5] & (1 << j)) == 0)
+		    continue;
+		i = IntHashtable.mix(oldKeys[j]) & mask;
+		while (isUsed(i))
+		    i = (i + 1) & mask;
+		keys[i] = oldKeys[j];
+		values[i] = oldValues[j];
+		used[i >>> 5] |= 1 << i;
+	    }
+    }
+
+    public synchronized String toString()
+    {
+	StringBuffer sb = new StringBuffer();
+	boolean first = true;
+	sb.append('{');
+	for (int i = 0; i < keys.length; i++)
+	    {
+		if (!isUsed(i))
+		    continue;
+		if (!first)
+		    sb.append(", ");
+		first = false;
+		sb.append(keys[i]).append('=').append(values[i]);
+	    }
+	return sb.append('}').toString();
+    }
+
+    /** walks the used slots in table order, yielding keys or values */
+    private class SlotEnumeration implements IntEnumeration
+    {
+	private final boolean wantKeys;
+	private int next;
+
+	SlotEnumeration(boolean wantKeys)
+	{
+	    this.wantKeys = wantKeys;
+	    next = -1;
+	    advance();
+	}
+
+	private void advance()
+	{
+	    do
+		next++;
+	    while (next < keys.length && !isUsed(next));
+	}
+
+	public boolean hasMoreElements()
+	{
+	    return next < keys.length;
+	}
+
+	public int nextInt()
+	{
+	    int slot = next;
+	    if (slot >= keys.length)
+		throw new NoSuchElementException();
+	    advance();
+	    return wantKeys ? keys[slot] : values[slot];
+	}
+    }
+}
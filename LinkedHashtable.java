@@ -0,0 +1,586 @@
+/////////////////////////////////////////////////////////////////////////////
+// LinkedHashtable.java -- a Hashtable with a predictable iteration order,
+//                         usable as a bounded LRU cache
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU Library General Public License as published
+// by the Free Software Foundation, version 2. (see COPYING.LIB)
+//
+// This program is distributed in the hope that it will be useful, but
+// WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Library General Public License for more details.
+//
+// You should have received a copy of the GNU Library General Public License
+// along with this program; if not, write to the Free Software Foundation
+// Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307 USA
+/////////////////////////////////////////////////////////////////////////////
+
+package java.util;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+
+/**
+ * a synchronized, Hashtable-like Map whose entries are also threaded onto
+ * a doubly linked list, so that iteration follows either the order in
+ * which keys were inserted or, in access order mode, the order in which
+ * they were last used (least recently used first).
+ *
+ * In access order mode get() and put() move the entry they touch to the
+ * end of the list by relinking it, which is O(1) and allocates nothing.
+ * After each insertion the eldest entry, the one at the head of the list,
+ * is offered to removeEldestEntry(), and removed if that says so; by
+ * default that happens only once the table holds more than its maximum
+ * size (see setMaxSize()).  Together these make a bounded LRU cache:
+ *
+ * <pre>
+ *   LinkedHashtable cache = new LinkedHashtable(64, 0.75f, true);
+ *   cache.setMaxSize(1000);
+ * </pre>
+ *
+ * As in Hashtable, neither keys nor values may be null, and get(),
+ * containsKey() and remove() of a null key find nothing.  Iterators are
+ * fail-fast; note that in access order mode get() is a structural
+ * modification.
+ */
+public class LinkedHashtable extends AbstractMap implements Map, Serializable
+{
+    private static final int DEFAULT_CAPACITY = 16;
+    private static final int MAXIMUM_CAPACITY = 1 << 30;
+    private static final float DEFAULT_LOAD_FACTOR = 0.75f;
+
+    private static final int KEYS = 0;
+    private static final int VALUES = 1;
+    private static final int ENTRIES = 2;
+
+    private transient Entry[] table;
+    /**
+     * the sentinel of the circular list; header.after is the eldest entry
+     * and header.before the youngest
+     */
+    private transient Entry header;
+    private transient int size;
+    private transient int threshold;
+    transient int modCount;
+    private final float loadFactor;
+    /** true for access order, false for insertion order */
+    private final boolean accessOrder;
+    /** the size beyond which the eldest entry is evicted; 0 for no limit */
+    private int maxSize;
+
+    public LinkedHashtable()
+    {	this(DEFAULT_CAPACITY, DEFAULT_LOAD_FACTOR, false);
+    }
+
+    public LinkedHashtable(int initialCapacity)
+    {	this(initialCapacity, DEFAULT_LOAD_FACTOR, false);
+    }
+
+    public LinkedHashtable(int initialCapacity, float loadFactor)
+    {	this(initialCapacity, loadFactor, false);
+    }
+
+    /**
+     * @param accessOrder true to order entries by last access rather than
+     *        by insertion
+     */
+    public LinkedHashtable(int initialCapacity, float loadFactor,
+			   boolean accessOrder)
+    {
+	if (initialCapacity < 0 || !(loadFactor > 0))
+	    throw new IllegalArgumentException();
+	this.loadFactor = loadFactor;
+	this.accessOrder = accessOrder;
+	init(initialCapacity);
+    }
+
+    public LinkedHashtable(Map t)
+    {
+	this(Math.max((int) (t.size() / DEFAULT_LOAD_FACTOR) + 1, DEFAULT_CAPACITY),
+	     DEFAULT_LOAD_FACTOR, false);
+	putAll(t);
+    }
+
+    private void init(int initialCapacity)
+    {
+	int c = 1;
+	while (c < initialCapacity && c < MAXIMUM_CAPACITY)
+	    c <<= 1;
+	table = new Entry[c];
+	threshold = (int) Math.min(c * loadFactor, Integer.MAX_VALUE);
+	header = new Entry(null, null, 0, null);
+	header.before = header.after = header;
+    }
+
+    /**
+     * sets the number of entries above which each insertion evicts the
+     * eldest one; 0, the default, means no limit.  Entries already over
+     * the new limit are evicted straight away.
+     */
+    public synchronized void setMaxSize(int maxSize)
+    {
+	if (maxSize < 0)
+	    throw new IllegalArgumentException();
+	this.maxSize = maxSize;
+	while (maxSize > 0 && size > maxSize)
+	    removeEntry(header.after);
+    }
+
+    public synchronized int getMaxSize()
+    {	return maxSize;
+    }
+
+    public boolean isAccessOrder()
+    {	return accessOrder;
+    }
+
+    /**
+     * called by put() after it inserts a new entry, with the eldest entry
+     * in the table, which is removed if this returns true.  The default
+     * returns true once the table holds more than getMaxSize() entries;
+     * subclasses may override it to evict on some other condition.  It
+     * may also remove entries itself, in which case it should return
+     * false.
+     */
+    protected boolean removeEldestEntry(Map.Entry eldest)
+    {	return maxSize > 0 && size > maxSize;
+    }
+
+    public synchronized int size()
+    {	return size;
+    }
+
+    public synchronized boolean isEmpty()
+    {	return size == 0;
+    }
+
+    /** returns key's entry, or null if there is none (always, for a null key) */
+    private Entry getEntry(Object key)
+    {
+	int h;
+	if (key == null)
+	    return null;
+	h = Hashtable.spread(key.hashCode());
+	for (Entry e = table[h & (table.length - 1)]; e != null; e = e.next)
+	    {
+		if (e.hash == h && (e.key == key || key.equals(e.key)))
+		    return e;
+	    }
+	return null;
+    }
+
+    /** returns the value for key, making it the youngest in access order */
+    public synchronized Object get(Object key)
+    {
+	Entry e = getEntry(key);
+	if (e == null)
+	    return null;
+	if (accessOrder)
+	    moveToEnd(e);
+	return e.value;
+    }
+
+    /** unlike get(), this does not count as an access */
+    public synchronized boolean containsKey(Object key)
+    {	return getEntry(key) != null;
+    }
+
+    public synchronized boolean containsValue(Object value)
+    {
+	if (value == null)
+	    throw new NullPointerException();
+	for (Entry e = header.after; e != header; e = e.after)
+	    {
+		if (value.equals(e.value))
+		    return true;
+	    }
+	return false;
+    }
+
+    /** the Hashtable name for containsValue() */
+    public boolean contains(Object value)
+    {	return containsValue(value);
+    }
+
+    public synchronized Object put(Object key, Object value)
+    {
+	Entry e;
+	Object old;
+	int h, index;
+	Entry eldest;
+	if (key == null || value == null)
+	    throw new NullPointerException();
+	h = Hashtable.spread(key.hashCode());
+	index = h & (table.length - 1);
+	for (e = table[index]; e != null; e = e.next)
+	    {
+		if (e.hash == h && (e.key == key || key.equals(e.key)))
+		    {
+			old = e.value;
+			e.value = value;
+			if (accessOrder)
+			    moveToEnd(e);
+			return old;
+		    }
+	    }
+	modCount++;
+	if (size >= threshold && table.length < MAXIMUM_CAPACITY)
+	    {
+		resize();
+		index = h & (table.length - 1);
+	    }
+	e = new Entry(key, value, h, table[index]);
+	table[index] = e;
+	e.linkBefore(header);
+	size++;
+	eldest = header.after;
+	if (removeEldestEntry(eldest) && eldest != e && eldest != header)
+	    removeEntry(eldest);
+	return null;
+    }
+
+    public synchronized void putAll(Map t)
+    {
+	Map.Entry e;
+	for (Iterator it = t.entrySet().iterator(); it.hasNext(); )
+	    {
+		e = (Map.Entry) it.next();
+		put(e.getKey(), e.getValue());
+	    }
+    }
+
+    public synchronized Object remove(Object key)
+    {
+	Entry e = getEntry(key);
+	if (e == null)
+	    return null;
+	removeEntry(e);
+	return e.value;
+    }
+
+    /** unlinks e from both its chain and the list */
+    private void removeEntry(Entry e)
+    {
+	int index = e.hash & (table.length - 1);
+	Entry p = table[index];
+	if (p == e)
+	    table[index] = e.next;
+	else
+	    {
+		while (p.next != e)
+		    p = p.next;
+		p.next = e.next;
+	    }
+	e.unlink();
+	size--;
+	modCount++;
+    }
+
+    /** makes e the youngest entry */
+    private void moveToEnd(Entry e)
+    {
+	if (header.before != e)
+	    {
+		e.unlink();
+		e.linkBefore(header);
+		modCount++;
+	    }
+    }
+
+    public synchronized void clear()
+    {
+	for (int i = 0; i < table.length; i++)
+	    table[i] = null;
+	header.before = header.after = header;
+	size = 0;
+	modCount++;
+    }
+
+    /**
+     * doubles the table; the list already holds every entry, so it is
+     * walked instead of the old buckets
+     */
+    private void resize()
+    {
+	Entry[] newTable = new Entry[table.length << 1];
+	int mask = newTable.length - 1;
+	int index;
+	for (Entry e = header.after; e != header; e = e.after)
+	    {
+		index = e.hash & mask;
+		e.next = newTable[index];
+		newTable[index] = e;
+	    }
+	table = newTable;
+	threshold = (int) Math.min(newTable.length * loadFactor, Integer.MAX_VALUE);
+    }
+
+    public Enumeration keys()
+    {	return new LinkedIterator(KEYS);
+    }
+
+    public Enumeration elements()
+    {	return new LinkedIterator(VALUES);
+    }
+
+    public Set keySet()
+    {	return new ListSet(KEYS);
+    }
+
+    public Set entrySet()
+    {	return new ListSet(ENTRIES);
+    }
+
+    public Collection values()
+    {
+	return new AbstractCollection()
+	    {
+		public Iterator iterator()
+		{
+		    return new LinkedIterator(VALUES);
+		}
+
+		public int size()
+		{
+		    return LinkedHashtable.this.size();
+		}
+
+		public boolean contains(Object o)
+		{
+		    return LinkedHashtable.this.containsValue(o);
+		}
+
+		public void clear()
+		{
+		    LinkedHashtable.this.clear();
+		}
+	    };
+    }
+
+    /** writes the entries in list order, so that order survives */
+    private synchronized void writeObject(ObjectOutputStream s) throws IOException
+    {
+	s.defaultWriteObject();
+	s.writeInt(table.length);
+	s.writeInt(size);
+	for (Entry e = header.after; e != header; e = e.after)
+	    {
+		s.writeObject(e.key);
+		s.writeObject(e.value);
+	    }
+    }
+
+    private void readObject(ObjectInputStream s)
+	throws IOException, ClassNotFoundException
+    {
+	int capacity, n;
+	int limit;
+	s.defaultReadObject();
+	capacity = s.readInt();
+	n = s.readInt();
+	init(capacity);
+	// the entries were within the limit when written
+	limit = maxSize;
+	maxSize = 0;
+	for (int i = 0; i < n; i++)
+	    put(s.readObject(), s.readObject());
+	maxSize = limit;
+    }
+
+    private static final class Entry implements Map.Entry
+    {
+	final Object key;
+	Object value;
+	final int hash;
+	/** the next entry in the same bucket */
+	Entry next;
+	/** the neighbours in iteration order */
+	Entry before, after;
+
+	Entry(Object key, Object value, int hash, Entry next)
+	{
+	    this.key = key;
+	    this.value = value;
+	    this.hash = hash;
+	    this.next = next;
+	}
+
+	void unlink()
+	{
+	    before.after = after;
+	    after.before = before;
+	}
+
+	/** links this in just before existing */
+	void linkBefore(Entry existing)
+	{
+	    after = existing;
+	    before = existing.before;
+	    before.after = this;
+	    existing.before = this;
+	}
+
+	public Object getKey()
+	{
+	    return key;
+	}
+
+	public Object getValue()
+	{
+	    return value;
+	}
+
+	public Object setValue(Object newValue)
+	{
+	    Object old = value;
+	    if (newValue == null)
+		throw new NullPointerException();
+	    value = newValue;
+	    return old;
+	}
+
+	public boolean equals(Object o)
+	{
+	    Map.Entry e;
+	    if (!(o instanceof Map.Entry))
+		return false;
+	    e = (Map.Entry) o;
+	    return key.equals(e.getKey()) && value.equals(e.getValue());
+	}
+
+	public int hashCode()
+	{
+	    return key.hashCode() ^ value.hashCode();
+	}
+
+	public String toString()
+	{
+	    return key + "=" + value;
+	}
+    }
+
+    /** a Set view of the keys or entries */
+    private final class ListSet extends AbstractSet
+    {
+	private final int setType;
+
+	ListSet(int type)
+	{
+	    setType = type;
+	}
+
+	public Iterator iterator()
+	{
+	    return new LinkedIterator(setType);
+	}
+
+	public int size()
+	{
+	    return LinkedHashtable.this.size();
+	}
+
+	public boolean contains(Object o)
+	{
+	    Map.Entry e;
+	    Entry candidate;
+	    if (setType == KEYS)
+		return containsKey(o);
+	    if (!(o instanceof Map.Entry))
+		return false;
+	    e = (Map.Entry) o;
+	    synchronized (LinkedHashtable.this)
+		{
+		    candidate = getEntry(e.getKey());
+		    return candidate != null && candidate.value.equals(e.getValue());
+		}
+	}
+
+	public boolean remove(Object o)
+	{
+	    if (setType == KEYS)
+		return LinkedHashtable.this.remove(o) != null;
+	    synchronized (LinkedHashtable.this)
+		{
+		    if (!contains(o))
+			return false;
+		    LinkedHashtable.this.remove(((Map.Entry) o).getKey());
+		    return true;
+		}
+	}
+
+	public void clear()
+	{
+	    LinkedHashtable.this.clear();
+	}
+    }
+
+    /** a fail-fast walk along the list, eldest first */
+    private final class LinkedIterator implements Iterator, Enumeration
+    {
+	private final int type;
+	private Entry next;
+	private Entry lastReturned;
+	private int knownMods;
+
+	LinkedIterator(int type)
+	{
+	    this.type = type;
+	    synchronized (LinkedHashtable.this)
+		{
+		    next = header.after;
+		    knownMods = modCount;
+		}
+	}
+
+	public boolean hasNext()
+	{
+	    return next != header;
+	}
+
+	public boolean hasMoreElements()
+	{
+	    return next != header;
+	}
+
+	public Object next()
+	{
+	    synchronized (LinkedHashtable.this)
+		{
+		    if (knownMods != modCount)
+			throw new ConcurrentModificationException();
+		    if (next == header)
+			throw new NoSuchElementException();
+		    lastReturned = next;
+		    next = next.after;
+		}
+	    if (type == KEYS)
+		return lastReturned.key;
+	    else if (type == VALUES)
+		return lastReturned.value;
+	    else
+		return lastReturned;
+	}
+
+	public Object nextElement()
+	{
+	    return next();
+	}
+
+	public void remove()
+	{
+	    if (lastReturned == null)
+		throw new IllegalStateException();
+	    synchronized (LinkedHashtable.this)
+		{
+		    if (knownMods != modCount)
+			throw new ConcurrentModificationException();
+		    removeEntry(lastReturned);
+		    knownMods = modCount;
+		}
+	    lastReturned = null;
+	}
+    }
+}
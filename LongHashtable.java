@@ -0,0 +1,368 @@
+/////////////////////////////////////////////////////////////////////////////
+// LongHashtable.java -- a Hashtable keyed by unboxed longs
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU Library General Public License as published
+// by the Free Software Foundation, version 2. (see COPYING.LIB)
+//
+// This program is distributed in the hope that it will be useful, but
+// WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Library General Public License for more details.
+//
+// You should have received a copy of the GNU Library General Public License
+// along with this program; if not, write to the Free Software Foundation
+// Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307 USA
+/////////////////////////////////////////////////////////////////////////////
+
+package java.util;
+
+import java.io.Serializable;
+
+/**
+ * a synchronized table mapping long keys, such as Date.getTime() millis or
+ * 64-bit ids, to non-null Object values, with the get/put/remove/keys/
+ * elements interface of Hashtable.
+ *
+ * This is the long counterpart of IntHashtable: flat parallel arrays,
+ * linear probing, a null value marking an empty slot, and backward-shift
+ * deletion.  Timestamps and ids tend to share their high bits and step by
+ * regular amounts in their low ones, so keys go through a full 64-bit
+ * mixing function before being reduced to a slot.
+ *
+ * putAll(long[], Object[]) and getAll(long[], Object[]) handle a whole
+ * batch of keys under one lock, and the former grows the table once up front.
+ */
+public class LongHashtable implements Serializable
+{
+    private static final int DEFAULT_CAPACITY = 16;
+    private static final float DEFAULT_LOAD_FACTOR = 0.75f;
+
+    private long[] keys;
+    private Object[] values;
+    private int size;
+    private float loadFactor;
+    private int threshold;
+
+    public LongHashtable()
+    {	this(DEFAULT_CAPACITY, DEFAULT_LOAD_FACTOR);
+    }
+
+    public LongHashtable(int initialCapacity)
+    {	this(initialCapacity, DEFAULT_LOAD_FACTOR);
+    }
+
+    public LongHashtable(int initialCapacity, float loadFactor)
+    {
+	int capacity;
+	if (initialCapacity < 0 || !(loadFactor > 0) || loadFactor >= 1)
+	    throw new IllegalArgumentException();
+	this.loadFactor = loadFactor;
+	capacity = IntHashtable.tableSizeFor(initialCapacity, loadFactor);
+	keys = new long[capacity];
+	values = new Object[capacity];
+	threshold = IntHashtable.computeThreshold(capacity, loadFactor);
+    }
+
+    /**
+     * a 64-bit finalizer (two xor-shift-multiply rounds) in which every
+     * key bit affects every bit of the result; shared with
+     * LongLongHashtable
+     */
+    static int mix(long key)
+    {
+	key = (key ^ (key >>> 30)) * 0xBF58476D1CE4E5B9L;
+	key = (key ^ (key >>> 27)) * 0x94D049BB133111EBL;
+	return (int) (key ^ (key >>> 31));
+    }
+
+    public synchronized int size()
+    {	return size;
+    }
+
+    public synchronized boolean isEmpty()
+    {	return size == 0;
+    }
+
+    public synchronized LongEnumeration keys()
+    {	return new KeyEnumeration();
+    }
+
+    public synchronized Enumeration elements()
+    {	return new ValueEnumeration();
+    }
+
+    /** the index of key's slot, or -1 if it is not in the table */
+    private int indexOf(long key)
+    {
+	int mask = keys.length - 1;
+	int i = mix(key) & mask;
+	while (values[i] != null)
+	    {
+		if (keys[i] == key)
+		    return i;
+		i = (i + 1) & mask;
+	    }
+	return -1;
+    }
+
+    public synchronized boolean containsKey(long key)
+    {	return indexOf(key) >= 0;
+    }
+
+    public synchronized boolean contains(Object value)
+    {
+	if (value == null)
+	    throw new NullPointerException();
+	for (int i = 0; i < values.length; i++)
+	    {
+		if (values[i] != null && value.equals(values[i]))
+		    return true;
+	    }
+	return false;
+    }
+
+    public boolean containsValue(Object value)
+    {	return contains(value);
+    }
+
+    /** returns the value for key, or null if there is none */
+    public synchronized Object get(long key)
+    {
+	int i = indexOf(key);
+	return (i < 0) ? null : values[i];
+    }
+
+    /**
+     * stores the value of each key in batch in the matching element of out,
+     * or null for keys which are absent; returns how many were found
+     */
+    public synchronized int getAll(long[] batch, Object[] out)
+    {
+	int found = 0;
+	int i;
+	if (out.length < batch.length)
+	    throw new IllegalArgumentException();
+	for (int j = 0; j < batch.length; j++)
+	    {
+		i = indexOf(batch[j]);
+		if (i < 0)
+		    out[j] = null;
+		else
+		    {
+			out[j] = values[i];
+			found++;
+		    }
+	    }
+	return found;
+    }
+
+    /**
+     * maps key to value, returning the value it replaced, or null
+     *
+     * @throws NullPointerException if value is null
+     */
+    public synchronized Object put(long key, Object value)
+    {
+	if (value == null)
+	    throw new NullPointerException();
+	return insert(key, value);
+    }
+
+    /**
+     * maps each key in batch to the matching element of batchValues, growing
+     * the table at most once
+     *
+     * @throws NullPointerException if any value is null; the entries
+     *         before it will have been stored
+     */
+    public synchronized void putAll(long[] batch, Object[] batchValues)
+    {
+	if (batchValues.length < batch.length)
+	    throw new IllegalArgumentException();
+	ensureCapacity(size + batch.length);
+	for (int j = 0; j < batch.length; j++)
+	    {
+		if (batchValues[j] == null)
+		    throw new NullPointerException();
+		insert(batch[j], batchValues[j]);
+	    }
+    }
+
+    /** grows the table, if need be, so that n entries fit without a rehash */
+    private void ensureCapacity(int n)
+    {
+	int capacity;
+	if (n > threshold)
+	    {
+		capacity = IntHashtable.tableSizeFor(n, loadFactor);
+		if (capacity > keys.length)
+		    rehash(capacity);
+	    }
+    }
+
+    /**
+     * stores key and value.  An existing key is looked for first, so only
+     * a key which needs a new slot can make the table grow; putAll has
+     * made room up front, so there it never does.
+     */
+    private Object insert(long key, Object value)
+    {
+	int mask = keys.length - 1;
+	int i = mix(key) & mask;
+	Object old;
+	while (values[i] != null)
+	    {
+		if (keys[i] == key)
+		    {
+			old = values[i];
+			values[i] = value;
+			return old;
+		    }
+		i = (i + 1) & mask;
+	    }
+	if (size >= threshold)
+	    {
+		rehash(keys.length << 1);
+		mask = keys.length - 1;
+		i = mix(key) & mask;
+		while (values[i] != null)
+		    i = (i + 1) & mask;
+	    }
+	keys[i] = key;
+	values[i] = value;
+	size++;
+	return null;
+    }
+
+    /** removes key, returning its value, or null if it was not present */
+    public synchronized Object remove(long key)
+    {
+	int i = indexOf(key);
+	Object old;
+	if (i < 0)
+	    return null;
+	old = values[i];
+	deleteSlot(i);
+	size--;
+	return old;
+    }
+
+    /** backward-shift deletion; see IntHashtable.deleteSlot */
+    private void deleteSlot(int i)
+    {
+	int mask = keys.length - 1;
+	int j = i;
+	int home;
+	while (true)
+	    {
+		j = (j + 1) & mask;
+		if (values[j] == null)
+		    break;
+		home = mix(keys[j]) & mask;
+		if ((i <= j) ? (i < home && home <= j) : (i < home || home <= j))
+		    continue;
+		keys[i] = keys[j];
+		values[i] = values[j];
+		i = j;
+	    }
+	values[i] = null;
+    }
+
+    public synchronized void clear()
+    {
+	for (int i = 0; i < values.length; i++)
+	    values[i] = null;
+	size = 0;
+    }
+
+    /** moves every entry into a table of the given power-of-two capacity */
+    private void rehash(int capacity)
+    {
+	long[] oldKeys = keys;
+	Object[] oldValues = values;
+	int mask = capacity - 1;
+	int i;
+	if (capacity <= 0)
+	    throw new IllegalStateException("LongHashtable is full");
+	keys = new long[capacity];
+	values = new Object[capacity];
+	threshold = IntHashtable.computeThreshold(capacity, loadFactor);
+	for (int j = 0; j < oldKeys.length; j++)
+	    {
+		if (oldValues[j] == null)
+		    continue;
+		i = mix(oldKeys[j]) & mask;
+		while (values[i] != null)
+		    i = (i + 1) & mask;
+		keys[i] = oldKeys[j];
+		values[i] = oldValues[j];
+	    }
+    }
+
+    public synchronized String toString()
+    {
+	StringBuffer sb = new StringBuffer();
+	boolean first = true;
+	sb.append('{');
+	for (int i = 0; i < values.length; i++)
+	    {
+		if (values[i] == null)
+		    continue;
+		if (!first)
+		    sb.append(", ");
+		first = false;
+		sb.append(keys[i]).append('=').append(values[i]);
+	    }
+	return sb.append('}').toString();
+    }
+
+    /** walks the slots in table order, skipping empty ones */
+    private abstract class SlotEnumeration
+    {
+	int next;
+
+	SlotEnumeration()
+	{
+	    next = -1;
+	    advance();
+	}
+
+	void advance()
+	{
+	    do
+		next++;
+	    while (next < values.length && values[next] == null);
+	}
+
+	public boolean hasMoreElements()
+	{
+	    return next < values.length;
+	}
+
+	int nextSlot()
+	{
+	    int slot = next;
+	    if (slot >= values.length)
+		throw new NoSuchElementException();
+	    advance();
+	    return slot;
+	}
+    }
+
+    private class KeyEnumeration extends SlotEnumeration implements LongEnumeration
+    {
+	public long nextLong()
+	{
+	    return keys[nextSlot()];
+	}
+    }
+
+    private class ValueEnumeration extends SlotEnumeration implements Enumeration
+    {
+	public Object nextElement()
+	{
+	    return values[nextSlot()];
+	}
+    }
+}
@@ -0,0 +1,345 @@
+/////////////////////////////////////////////////////////////////////////////
+// LongLongHashtable.java -- a Hashtable mapping unboxed longs to unboxed
+//                           longs
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU Library General Public License as published
+// by the Free Software Foundation, version 2. (see COPYING.LIB)
+//
+// This program is distributed in the hope that it will be useful, but
+// WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Library General Public License for more details.
+//
+// You should have received a copy of the GNU Library General Public License
+// along with this program; if not, write to the Free Software Foundation
+// Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307 USA
+/////////////////////////////////////////////////////////////////////////////
+
+package java.util;
+
+import java.io.Serializable;
+
+/**
+ * a synchronized table mapping long keys to long values, with the
+ * get/put/remove/keys/elements interface of Hashtable.
+ *
+ * This is the long counterpart of IntIntHashtable: flat parallel arrays,
+ * linear probing on LongHashtable.mix(), a one-bit-per-slot occupancy map
+ * so that any long may be a key or a value, and backward-shift deletion.
+ * As there, get(), put() and remove() return 0 where Hashtable would
+ * return null.
+ *
+ * putAll(long[], long[]) and getAll(long[], long[]) handle a whole batch
+ * of keys under one lock, and the former grows the table once up front.
+ */
+public class LongLongHashtable implements Serializable
+{
+    private static final int DEFAULT_CAPACITY = 16;
+    private static final float DEFAULT_LOAD_FACTOR = 0.75f;
+
+    private long[] keys;
+    private long[] values;
+    /** bit i of used[i >> 5] is set when slot i holds an entry */
+    private int[] used;
+    private int size;
+    private float loadFactor;
+    private int threshold;
+
+    public LongLongHashtable()
+    {	this(DEFAULT_CAPACITY, DEFAULT_LOAD_FACTOR);
+    }
+
+    public LongLongHashtable(int initialCapacity)
+    {	this(initialCapacity, DEFAULT_LOAD_FACTOR);
+    }
+
+    public LongLongHashtable(int initialCapacity, float loadFactor)
+    {
+	if (initialCapacity < 0 || !(loadFactor > 0) || loadFactor >= 1)
+	    throw new IllegalArgumentException();
+	this.loadFactor = loadFactor;
+	allocate(IntHashtable.tableSizeFor(initialCapacity, loadFactor));
+    }
+
+    private void allocate(int capacity)
+    {
+	keys = new long[capacity];
+	values = new long[capacity];
+	used = new int[(capacity + 31) >>> 5];
+	threshold = IntHashtable.computeThreshold(capacity, loadFactor);
+    }
+
+    private boolean isUsed(int i)
+    {	return (used[i >>> 5] & (1 << i)) != 0;
+    }
+
+    public synchronized int size()
+    {	return size;
+    }
+
+    public synchronized boolean isEmpty()
+    {	return size == 0;
+    }
+
+    public synchronized LongEnumeration keys()
+    {	return new SlotEnumeration(true);
+    }
+
+    public synchronized LongEnumeration elements()
+    {	return new SlotEnumeration(false);
+    }
+
+    /** the index of key's slot, or -1 if it is not in the table */
+    private int indexOf(long key)
+    {
+	int mask = keys.length - 1;
+	int i = LongHashtable.mix(key) & mask;
+	while (isUsed(i))
+	    {
+		if (keys[i] == key)
+		    return i;
+		i = (i + 1) & mask;
+	    }
+	return -1;
+    }
+
+    public synchronized boolean containsKey(long key)
+    {	return indexOf(key) >= 0;
+    }
+
+    public synchronized boolean contains(long value)
+    {
+	for (int i = 0; i < values.length; i++)
+	    {
+		if (values[i] == value && isUsed(i))
+		    return true;
+	    }
+	return false;
+    }
+
+    public boolean containsValue(long value)
+    {	return contains(value);
+    }
+
+    /** returns the value for key, or 0 if there is none */
+    public long get(long key)
+    {	return get(key, 0);
+    }
+
+    /** returns the value for key, or missing if there is none */
+    public synchronized long get(long key, long missing)
+    {
+	int i = indexOf(key);
+	return (i < 0) ? missing : values[i];
+    }
+
+    /**
+     * stores the value of each key in batch in the matching element of out,
+     * or 0 for keys which are absent; returns how many were found
+     */
+    public int getAll(long[] batch, long[] out)
+    {	return getAll(batch, out, 0);
+    }
+
+    /**
+     * stores the value of each key in batch in the matching element of out,
+     * or missing for keys which are absent; returns how many were found
+     */
+    public synchronized int getAll(long[] batch, long[] out, long missing)
+    {
+	int found = 0;
+	int i;
+	if (out.length < batch.length)
+	    throw new IllegalArgumentException();
+	for (int j = 0; j < batch.length; j++)
+	    {
+		i = indexOf(batch[j]);
+		if (i < 0)
+		    out[j] = missing;
+		else
+		    {
+			out[j] = values[i];
+			found++;
+		    }
+	    }
+	return found;
+    }
+
+    /** maps key to value, returning the value it replaced, or 0 */
+    public synchronized long put(long key, long value)
+    {
+	return insert(key, value);
+    }
+
+    /**
+     * maps each key in batch to the matching element of batchValues, growing
+     * the table at most once
+     */
+    public synchronized void putAll(long[] batch, long[] batchValues)
+    {
+	int capacity;
+	if (batchValues.length < batch.length)
+	    throw new IllegalArgumentException();
+	if (size + batch.length > threshold)
+	    {
+		capacity = IntHashtable.tableSizeFor(size + batch.length, loadFactor);
+		if (capacity > keys.length)
+		    rehash(capacity);
+	    }
+	for (int j = 0; j < batch.length; j++)
+	    insert(batch[j], batchValues[j]);
+    }
+
+    /**
+     * stores key and value.  An existing key is looked for first, so only
+     * a key which needs a new slot can make the table grow; putAll has
+     * made room up front, so there it never does.
+     */
+    private long insert(long key, long value)
+    {
+	int mask = keys.length - 1;
+	int i = LongHashtable.mix(key) & mask;
+	long old;
+	while (isUsed(i))
+	    {
+		if (keys[i] == key)
+		    {
+			old = values[i];
+			values[i] = value;
+			return old;
+		    }
+		i = (i + 1) & mask;
+	    }
+	if (size >= threshold)
+	    {
+		rehash(keys.length << 1);
+		mask = keys.length - 1;
+		i = LongHashtable.mix(key) & mask;
+		while (isUsed(i))
+		    i = (i + 1) & mask;
+	    }
+	keys[i] = key;
+	values[i] = value;
+	used[i >>> 5] |= 1 << i;
+	size++;
+	return 0;
+    }
+
+    /** removes key, returning its value, or 0 if it was not present */
+    public synchronized long remove(long key)
+    {
+	int i = indexOf(key);
+	long old;
+	if (i < 0)
+	    return 0;
+	old = values[i];
+	deleteSlot(i);
+	size--;
+	return old;
+    }
+
+    /** backward-shift deletion; see IntHashtable.deleteSlot */
+    private void deleteSlot(int i)
+    {
+	int mask = keys.length - 1;
+	int j = i;
+	int home;
+	while (true)
+	    {
+		j = (j + 1) & mask;
+		if (!isUsed(j))
+		    break;
+		home = LongHashtable.mix(keys[j]) & mask;
+		if ((i <= j) ? (i < home && home <= j) : (i < home || home <= j))
+		    continue;
+		keys[i] = keys[j];
+		values[i] = values[j];
+		i = j;
+	    }
+	used[i >>> 5] &= ~(1 << i);
+    }
+
+    public synchronized void clear()
+    {
+	for (int i = 0; i < used.length; i++)
+	    used[i] = 0;
+	size = 0;
+    }
+
+    /** moves every entry into a table of the given power-of-two capacity */
+    private void rehash(int capacity)
+    {
+	long[] oldKeys = keys;
+	long[] oldValues = values;
+	int[] oldUsed = used;
+	int mask, i;
+	if (capacity <= 0)
+	    throw new IllegalStateException("LongLongHashtable is full");
+	allocate(capacity);
+	mask = capacity - 1;
+	for (int j = 0; j < oldKeys.length; j++)
+	    {
+		if ((oldUsed[j >>> 5] & (1 << j)) == 0)
+		    continue;
+		i = LongHashtable.mix(oldKeys[j]) & mask;
+		while (isUsed(i))
+		    i = (i + 1) & mask;
+		keys[i] = oldKeys[j];
+		values[i] = oldValues[j];
+		used[i >>> 5] |= 1 << i;
+	    }
+    }
+
+    public synchronized String toString()
+    {
+	StringBuffer sb = new StringBuffer();
+	boolean first = true;
+	sb.append('{');
+	for (int i = 0; i < keys.length; i++)
+	    {
+		if (!isUsed(i))
+		    continue;
+		if (!first)
+		    sb.append(", ");
+		first = false;
+		sb.append(keys[i]).append('=').append(values[i]);
+	    }
+	return sb.append('}').toString();
+    }
+
+    /** walks the used slots in table order, yielding keys or values */
+    private class SlotEnumeration implements LongEnumeration
+    {
+	private final boolean wantKeys;
+	private int next;
+
+	SlotEnumeration(boolean wantKeys)
+	{
+	    this.wantKeys = wantKeys;
+	    next = -1;
+	    advance();
+	}
+
+	private void advance()
+	{
+	    do
+		next++;
+	    while (next < keys.length && !isUsed(next));
+	}
+
+	public boolean hasMoreElements()
+	{
+	    return next < keys.length;
+	}
+
+	public long nextLong()
+	{
+	    int slot = next;
+	    if (slot >= keys.length)
+		throw new NoSuchElementException();
+	    advance();
+	    return wantKeys ? keys[slot] : values[slot];
+	}
+    }
+}
@@ -0,0 +1,794 @@
+/////////////////////////////////////////////////////////////////////////////
+// PersistentHashMap.java -- an immutable Map whose updates return new
+//                           versions sharing most of their structure
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU Library General Public License as published
+// by the Free Software Foundation, version 2. (see COPYING.LIB)
+//
+// This program is distributed in the hope that it will be useful, but
+// WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Library General Public License for more details.
+//
+// You should have received a copy of the GNU Library General Public License
+// along with this program; if not, write to the Free Software Foundation
+// Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307 USA
+/////////////////////////////////////////////////////////////////////////////
+
+package java.util;
+
+/**
+ * an immutable Map, built as a hash array mapped trie.  As in Hashtable,
+ * neither keys nor values may be null.
+ *
+ * The trie branches on five bits of the (spread) hash at each level.  A
+ * node holds a 32 bit bitmap of the branches in use and a packed array
+ * with one key / value pair per set bit, so an empty branch costs one bit
+ * rather than one slot; where two keys share a branch the pair is a null
+ * key followed by the child node.  Keys with the very same hash end up in
+ * a collision node, which is searched linearly.
+ *
+ * with() and without() leave this map alone and return a new version,
+ * copying only the nodes on the path to the key (at most seven for 32 bit
+ * hashes), so an update is O(log32 n) and every version shares everything
+ * else with the one it came from.  A version never changes, so it is its
+ * own snapshot: it can be handed to any number of threads, which read it
+ * without locking.  The Map methods which would modify it throw
+ * UnsupportedOperationException.
+ *
+ * For bulk construction a Builder edits its own nodes in place and only
+ * copies those it shares with a published version, so loading n keys
+ * allocates about as much as a Hashtable would; build() then publishes
+ * the result as a PersistentHashMap and retires the Builder.
+ */
+public final class PersistentHashMap extends AbstractMap implements Map
+{
+    /** the empty map, from which all others can be built */
+    public static final PersistentHashMap EMPTY = new PersistentHashMap(null, 0);
+
+    private static final int KEYS = 0;
+    private static final int VALUES = 1;
+    private static final int ENTRIES = 2;
+
+    /** bits of the hash consumed by each level of the trie */
+    private static final int BITS = 5;
+    /** the deepest a path can go: seven bitmap levels and a collision node */
+    private static final int MAX_DEPTH = 8;
+
+    /** the root of the trie, or null if the map is empty */
+    private final Node root;
+    private final int size;
+
+    private PersistentHashMap(Node root, int size)
+    {
+	this.root = root;
+	this.size = size;
+    }
+
+    /** returns a map with the mappings of t, which must not contain nulls */
+    public static PersistentHashMap from(Map t)
+    {
+	if (t instanceof PersistentHashMap)
+	    return (PersistentHashMap) t;
+	return new Builder().putAll(t).build();
+    }
+
+    public int size()
+    {
+	return size;
+    }
+
+    public boolean isEmpty()
+    {
+	return size == 0;
+    }
+
+    public Object get(Object key)
+    {
+	if (key == null || root == null)
+	    return null;
+	return root.find(0, Hashtable.spread(key.hashCode()), key);
+    }
+
+    public boolean containsKey(Object key)
+    {
+	return get(key) != null;
+    }
+
+    public boolean containsValue(Object value)
+    {
+	if (value == null)
+	    throw new NullPointerException();
+	for (Iterator it = new TrieIterator(VALUES); it.hasNext(); )
+	    {
+		if (value.equals(it.next()))
+		    return true;
+	    }
+	return false;
+    }
+
+    /** the Hashtable name for containsValue() */
+    public boolean contains(Object value)
+    {
+	return containsValue(value);
+    }
+
+    /**
+     * returns a map which maps key to value and is otherwise the same as
+     * this one; this map is returned itself if it already does
+     */
+    public PersistentHashMap with(Object key, Object value)
+    {
+	Change change = new Change();
+	Node newRoot;
+	if (key == null || value == null)
+	    throw new NullPointerException();
+	newRoot = assoc(root, null, Hashtable.spread(key.hashCode()), key, value, change);
+	if (newRoot == root)
+	    return this;
+	return new PersistentHashMap(newRoot, size + change.sizeDelta);
+    }
+
+    /**
+     * returns a map without any mapping for key and otherwise the same as
+     * this one; this map is returned itself if it has no such mapping
+     */
+    public PersistentHashMap without(Object key)
+    {
+	Change change = new Change();
+	Node newRoot;
+	if (key == null || root == null)
+	    return this;
+	newRoot = root.without(null, 0, Hashtable.spread(key.hashCode()), key, change);
+	if (newRoot == root)
+	    return this;
+	return new PersistentHashMap(newRoot, size + change.sizeDelta);
+    }
+
+    /** returns a Builder which starts from this map, without copying it */
+    public Builder toBuilder()
+    {
+	return new Builder(root, size);
+    }
+
+    /** a PersistentHashMap cannot be modified; use with() instead */
+    public Object put(Object key, Object value)
+    {
+	throw new UnsupportedOperationException();
+    }
+
+    /** a PersistentHashMap cannot be modified; use without() instead */
+    public Object remove(Object key)
+    {
+	throw new UnsupportedOperationException();
+    }
+
+    public void putAll(Map t)
+    {
+	throw new UnsupportedOperationException();
+    }
+
+    public void clear()
+    {
+	throw new UnsupportedOperationException();
+    }
+
+    public Enumeration keys()
+    {
+	return new TrieIterator(KEYS);
+    }
+
+    public Enumeration elements()
+    {
+	return new TrieIterator(VALUES);
+    }
+
+    public Set keySet()
+    {
+	return new TrieSet(KEYS);
+    }
+
+    public Set entrySet()
+    {
+	return new TrieSet(ENTRIES);
+    }
+
+    public Collection values()
+    {
+	return new AbstractCollection()
+	    {
+		public Iterator iterator()
+		{
+		    return new TrieIterator(VALUES);
+		}
+
+		public int size()
+		{
+		    return size;
+		}
+
+		public boolean contains(Object o)
+		{
+		    return containsValue(o);
+		}
+	    };
+    }
+
+    /** assoc() on a trie which may be empty */
+    private static Node assoc(Node root, Object edit, int hash, Object key,
+			      Object value, Change change)
+    {
+	if (root == null)
+	    {
+		change.sizeDelta = 1;
+		return new BitmapNode(edit, bit(hash, 0), new Object[] { key, value });
+	    }
+	return root.assoc(edit, 0, hash, key, value, change);
+    }
+
+    /** the bitmap bit of the branch hash takes at the level of shift */
+    private static int bit(int hash, int shift)
+    {
+	return 1 << ((hash >>> shift) & 31);
+    }
+
+    /**
+     * counts the set bits of i.  This is the usual parallel sum: each step
+     * adds neighbouring fields of the previous one, doubling their width.
+     */
+    static int bitCount(int i)
+    {
+	i = i - ((i >>> 1) & 0x55555555);
+	i = (i & 0x33333333) + ((i >>> 2) & 0x33333333);
+	i = (i + (i >>> 4)) & 0x0f0f0f0f;
+	return (i * 0x01010101) >>> 24;
+    }
+
+    /**
+     * returns a node holding both pairs, which are known to agree on the
+     * branches of every level above shift
+     */
+    private static Node pair(Object edit, int shift, int hash1, Object key1,
+			     Object value1, int hash2, Object key2, Object value2)
+    {
+	int bit1, bit2;
+	if (hash1 == hash2)
+	    return new CollisionNode(edit, hash1,
+				     new Object[] { key1, value1, key2, value2 });
+	bit1 = bit(hash1, shift);
+	bit2 = bit(hash2, shift);
+	if (bit1 == bit2)
+	    return new BitmapNode(edit, bit1, new Object[] { null,
+		pair(edit, shift + BITS, hash1, key1, value1, hash2, key2, value2) });
+	if ((bit1 & 0xffffffffL) < (bit2 & 0xffffffffL))
+	    return new BitmapNode(edit, bit1 | bit2,
+				  new Object[] { key1, value1, key2, value2 });
+	return new BitmapNode(edit, bit1 | bit2,
+			      new Object[] { key2, value2, key1, value1 });
+    }
+
+    /** what an assoc() or without() did to the size of the trie */
+    private static final class Change
+    {
+	int sizeDelta;
+    }
+
+    /**
+     * a node of the trie.  A node is only ever changed in place by the
+     * Builder which made it, and only while that Builder is live: edit is
+     * the Builder's token, and every other caller (and every published
+     * map) passes a different token or null, so they copy instead.
+     */
+    private static abstract class Node
+    {
+	Object edit;
+	/**
+	 * key / value pairs; a null key means the value is a child node, and
+	 * a pair of nulls is spare room at the end left by a Builder
+	 */
+	Object[] array;
+
+	abstract Object find(int shift, int hash, Object key);
+
+	abstract Node assoc(Object edit, int shift, int hash, Object key,
+			    Object value, Change change);
+
+	/** returns the node without key, or null if that leaves it empty */
+	abstract Node without(Object edit, int shift, int hash, Object key,
+			      Change change);
+    }
+
+    /** an interior node: one pair per set bit of bitmap, in bit order */
+    private static final class BitmapNode extends Node
+    {
+	int bitmap;
+
+	BitmapNode(Object edit, int bitmap, Object[] array)
+	{
+	    this.edit = edit;
+	    this.bitmap = bitmap;
+	    this.array = array;
+	}
+
+	/** the position in array of the pair for bit */
+	private int index(int bit)
+	{
+	    return bitCount(bitmap & (bit - 1)) << 1;
+	}
+
+	Object find(int shift, int hash, Object key)
+	{
+	    int bit = bit(hash, shift);
+	    int i;
+	    Object k;
+	    if ((bitmap & bit) == 0)
+		return null;
+	    i = index(bit);
+	    k = array[i];
+	    if (k == null)
+		return ((Node) array[i + 1]).find(shift + BITS, hash, key);
+	    return key.equals(k) ? array[i + 1] : null;
+	}
+
+	/** returns this node if the Builder owns it, otherwise a copy it owns */
+	private BitmapNode editable(Object edit)
+	{
+	    Object[] a;
+	    if (edit != null && this.edit == edit)
+		return this;
+	    a = new Object[bitCount(bitmap) << 1];
+	    System.arraycopy(array, 0, a, 0, a.length);
+	    return new BitmapNode(edit, bitmap, a);
+	}
+
+	private BitmapNode set(Object edit, int i, Object o)
+	{
+	    BitmapNode node = editable(edit);
+	    node.array[i] = o;
+	    return node;
+	}
+
+	Node assoc(Object edit, int shift, int hash, Object key,
+		   Object value, Change change)
+	{
+	    int bit = bit(hash, shift);
+	    int i = index(bit);
+	    int n;
+	    Object k, v;
+	    Node child;
+	    Object[] a;
+	    BitmapNode node;
+	    if ((bitmap & bit) != 0)
+		{
+		    k = array[i];
+		    v = array[i + 1];
+		    if (k == null)
+			{
+			    child = ((Node) v).assoc(edit, shift + BITS, hash, key, value, change);
+			    return (child == v) ? this : set(edit, i + 1, child);
+			}
+		    if (key.equals(k))
+			return (value == v) ? this : set(edit, i + 1, value);
+		    change.sizeDelta = 1;
+		    child = pair(edit, shift + BITS, Hashtable.spread(k.hashCode()), k, v,
+				 hash, key, value);
+		    node = set(edit, i, null);
+		    node.array[i + 1] = child;
+		    return node;
+		}
+	    change.sizeDelta = 1;
+	    n = bitCount(bitmap) << 1;
+	    if (edit != null && this.edit == edit && n + 2 <= array.length)
+		{
+		    System.arraycopy(array, i, array, i + 2, n - i);
+		    array[i] = key;
+		    array[i + 1] = value;
+		    bitmap |= bit;
+		    return this;
+		}
+	    // a Builder will probably add more here, so leave it some room
+	    a = new Object[(edit == null) ? n + 2 : Math.min(n + 8, 64)];
+	    System.arraycopy(array, 0, a, 0, i);
+	    a[i] = key;
+	    a[i + 1] = value;
+	    System.arraycopy(array, i, a, i + 2, n - i);
+	    if (edit != null && this.edit == edit)
+		{
+		    array = a;
+		    bitmap |= bit;
+		    return this;
+		}
+	    return new BitmapNode(edit, bitmap | bit, a);
+	}
+
+	Node without(Object edit, int shift, int hash, Object key, Change change)
+	{
+	    int bit = bit(hash, shift);
+	    int i, n;
+	    Object k;
+	    Node child;
+	    Object[] a;
+	    if ((bitmap & bit) == 0)
+		return this;
+	    i = index(bit);
+	    k = array[i];
+	    if (k == null)
+		{
+		    child = ((Node) array[i + 1]).without(edit, shift + BITS, hash, key, change);
+		    if (child == array[i + 1])
+			return this;
+		    if (child != null)
+			return set(edit, i + 1, child);
+		}
+	    else if (!key.equals(k))
+		return this;
+	    else
+		change.sizeDelta = -1;
+	    if (bitmap == bit)
+		return null;
+	    n = bitCount(bitmap) << 1;
+	    if (edit != null && this.edit == edit)
+		{
+		    System.arraycopy(array, i + 2, array, i, n - i - 2);
+		    array[n - 2] = null;
+		    array[n - 1] = null;
+		    bitmap ^= bit;
+		    return this;
+		}
+	    a = new Object[n - 2];
+	    System.arraycopy(array, 0, a, 0, i);
+	    System.arraycopy(array, i + 2, a, i, n - i - 2);
+	    return new BitmapNode(edit, bitmap ^ bit, a);
+	}
+    }
+
+    /** a leaf holding keys whose spread hashes are all equal to hash */
+    private static final class CollisionNode extends Node
+    {
+	final int hash;
+
+	CollisionNode(Object edit, int hash, Object[] array)
+	{
+	    this.edit = edit;
+	    this.hash = hash;
+	    this.array = array;
+	}
+
+	private int indexOf(Object key)
+	{
+	    for (int i = 0; i < array.length; i += 2)
+		{
+		    if (key.equals(array[i]))
+			return i;
+		}
+	    return -1;
+	}
+
+	Object find(int shift, int hash, Object key)
+	{
+	    int i;
+	    if (hash != this.hash)
+		return null;
+	    i = indexOf(key);
+	    return (i < 0) ? null : array[i + 1];
+	}
+
+	Node assoc(Object edit, int shift, int hash, Object key,
+		   Object value, Change change)
+	{
+	    int i;
+	    Object[] a;
+	    if (hash != this.hash)
+		{
+		    // push this node down a level, under a bitmap node which
+		    // can tell the two hashes apart
+		    return new BitmapNode(edit, bit(this.hash, shift), new Object[] { null, this })
+			.assoc(edit, shift, hash, key, value, change);
+		}
+	    i = indexOf(key);
+	    if (i >= 0)
+		{
+		    if (array[i + 1] == value)
+			return this;
+		    if (edit != null && this.edit == edit)
+			{
+			    array[i + 1] = value;
+			    return this;
+			}
+		    a = new Object[array.length];
+		    System.arraycopy(array, 0, a, 0, array.length);
+		    a[i + 1] = value;
+		    return new CollisionNode(edit, hash, a);
+		}
+	    change.sizeDelta = 1;
+	    a = new Object[array.length + 2];
+	    System.arraycopy(array, 0, a, 0, array.length);
+	    a[array.length] = key;
+	    a[array.length + 1] = value;
+	    if (edit != null && this.edit == edit)
+		{
+		    array = a;
+		    return this;
+		}
+	    return new CollisionNode(edit, hash, a);
+	}
+
+	Node without(Object edit, int shift, int hash, Object key, Change change)
+	{
+	    int i;
+	    Object[] a;
+	    if (hash != this.hash || (i = indexOf(key)) < 0)
+		return this;
+	    change.sizeDelta = -1;
+	    if (array.length == 2)
+		return null;
+	    a = new Object[array.length - 2];
+	    System.arraycopy(array, 0, a, 0, i);
+	    System.arraycopy(array, i + 2, a, i, a.length - i);
+	    if (edit != null && this.edit == edit)
+		{
+		    array = a;
+		    return this;
+		}
+	    return new CollisionNode(edit, hash, a);
+	}
+    }
+
+    /**
+     * a mutable map under construction.  It starts out sharing every node
+     * of the map it came from (or none at all) and edits in place the nodes
+     * it has already copied, so a run of updates copies each node at most
+     * once.  build() hands the trie over to a PersistentHashMap in O(1);
+     * the Builder cannot be used after that.  A Builder is not thread-safe.
+     */
+    public static final class Builder
+    {
+	/** identifies the nodes this Builder owns; null once it has built */
+	private Object edit = new Object();
+	private Node root;
+	private int size;
+
+	public Builder()
+	{
+	}
+
+	Builder(Node root, int size)
+	{
+	    this.root = root;
+	    this.size = size;
+	}
+
+	private void checkLive()
+	{
+	    if (edit == null)
+		throw new IllegalStateException();
+	}
+
+	public int size()
+	{
+	    checkLive();
+	    return size;
+	}
+
+	public Object get(Object key)
+	{
+	    checkLive();
+	    if (key == null || root == null)
+		return null;
+	    return root.find(0, Hashtable.spread(key.hashCode()), key);
+	}
+
+	public Builder put(Object key, Object value)
+	{
+	    Change change = new Change();
+	    checkLive();
+	    if (key == null || value == null)
+		throw new NullPointerException();
+	    root = assoc(root, edit, Hashtable.spread(key.hashCode()), key, value, change);
+	    size += change.sizeDelta;
+	    return this;
+	}
+
+	public Builder putAll(Map t)
+	{
+	    Map.Entry e;
+	    for (Iterator it = t.entrySet().iterator(); it.hasNext(); )
+		{
+		    e = (Map.Entry) it.next();
+		    put(e.getKey(), e.getValue());
+		}
+	    return this;
+	}
+
+	public Builder remove(Object key)
+	{
+	    Change change = new Change();
+	    checkLive();
+	    if (key == null || root == null)
+		return this;
+	    root = root.without(edit, 0, Hashtable.spread(key.hashCode()), key, change);
+	    size += change.sizeDelta;
+	    return this;
+	}
+
+	/** returns the map built so far and retires this Builder */
+	public PersistentHashMap build()
+	{
+	    checkLive();
+	    edit = null;
+	    return (size == 0) ? EMPTY : new PersistentHashMap(root, size);
+	}
+    }
+
+    /** an immutable key / value pair handed out by the entry iterator */
+    private static final class Entry implements Map.Entry
+    {
+	private final Object key;
+	private final Object value;
+
+	Entry(Object key, Object value)
+	{
+	    this.key = key;
+	    this.value = value;
+	}
+
+	public Object getKey()
+	{
+	    return key;
+	}
+
+	public Object getValue()
+	{
+	    return value;
+	}
+
+	public Object setValue(Object value)
+	{
+	    throw new UnsupportedOperationException();
+	}
+
+	public boolean equals(Object o)
+	{
+	    Map.Entry e;
+	    if (!(o instanceof Map.Entry))
+		return false;
+	    e = (Map.Entry) o;
+	    return key.equals(e.getKey()) && value.equals(e.getValue());
+	}
+
+	public int hashCode()
+	{
+	    return key.hashCode() ^ value.hashCode();
+	}
+
+	public String toString()
+	{
+	    return key + "=" + value;
+	}
+    }
+
+    /** a Set view of the keys or entries */
+    private final class TrieSet extends AbstractSet
+    {
+	private final int setType;
+
+	TrieSet(int type)
+	{
+	    setType = type;
+	}
+
+	public Iterator iterator()
+	{
+	    return new TrieIterator(setType);
+	}
+
+	public int size()
+	{
+	    return size;
+	}
+
+	public boolean contains(Object o)
+	{
+	    Map.Entry e;
+	    Object v;
+	    if (setType == KEYS)
+		return containsKey(o);
+	    if (!(o instanceof Map.Entry))
+		return false;
+	    e = (Map.Entry) o;
+	    v = get(e.getKey());
+	    return v != null && v.equals(e.getValue());
+	}
+    }
+
+    /**
+     * walks the trie depth first, keeping the array and position of each
+     * level on a small stack; as the trie never changes, there is nothing
+     * to be fail-fast about
+     */
+    private final class TrieIterator implements Iterator, Enumeration
+    {
+	private final int type;
+	private final Object[][] arrays = new Object[MAX_DEPTH][];
+	private final int[] positions = new int[MAX_DEPTH];
+	private int depth;
+	private Object nextKey;
+	private Object nextValue;
+
+	TrieIterator(int type)
+	{
+	    this.type = type;
+	    if (root == null)
+		depth = -1;
+	    else
+		arrays[0] = root.array;
+	    advance();
+	}
+
+	private void advance()
+	{
+	    Object[] a;
+	    int p;
+	    nextKey = null;
+	    while (depth >= 0)
+		{
+		    a = arrays[depth];
+		    p = positions[depth];
+		    if (p >= a.length)
+			{
+			    depth--;
+			    continue;
+			}
+		    positions[depth] = p + 2;
+		    if (a[p] != null)
+			{
+			    nextKey = a[p];
+			    nextValue = a[p + 1];
+			    return;
+			}
+		    if (a[p + 1] != null)
+			{
+			    depth++;
+			    arrays[depth] = ((Node) a[p + 1]).array;
+			    positions[depth] = 0;
+			}
+		}
+	}
+
+	public boolean hasNext()
+	{
+	    return nextKey != null;
+	}
+
+	public boolean hasMoreElements()
+	{
+	    return nextKey != null;
+	}
+
+	public Object next()
+	{
+	    Object key = nextKey;
+	    Object value = nextValue;
+	    if (key == null)
+		throw new NoSuchElementException();
+	    advance();
+	    if (type == KEYS)
+		return key;
+	    else if (type == VALUES)
+		return value;
+	    else
+		return new Entry(key, value);
+	}
+
+	public Object nextElement()
+	{
+	    return next();
+	}
+
+	public void remove()
+	{
+	    throw new UnsupportedOperationException();
+	}
+    }
+}
@@ -0,0 +1,434 @@
+/////////////////////////////////////////////////////////////////////////////
+// SortedArrayMap.java -- an immutable SortedMap kept in two sorted arrays
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU Library General Public License as published
+// by the Free Software Foundation, version 2. (see COPYING.LIB)
+//
+// This program is distributed in the hope that it will be useful, but
+// WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Library General Public License for more details.
+//
+// You should have received a copy of the GNU Library General Public License
+// along with this program; if not, write to the Free Software Foundation
+// Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307 USA
+/////////////////////////////////////////////////////////////////////////////
+
+package java.util;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+
+/**
+ * an immutable SortedMap for lookup tables which are built once and then
+ * only read.  The keys are kept in one sorted array and the values in a
+ * second array alongside it, both of exactly the right length, so there
+ * are no nodes, buckets or entries: the map costs little more than the
+ * two arrays, and get() is a binary search of the keys.  Neither keys nor
+ * values may be null.
+ *
+ * A map is made with a Builder, which takes the mappings in any order and
+ * sorts them once in build().  headMap(), tailMap() and subMap() share
+ * the arrays, marking out the part of them they cover, so they cost
+ * O(log n) to make and allocate nothing but the view; keySet() is a
+ * SortedArraySet over the same keys.  Every method which would change a
+ * map throws UnsupportedOperationException.  Being immutable, a map may
+ * be shared between threads without locking.
+ */
+public final class SortedArrayMap extends AbstractMap implements SortedMap, Serializable
+{
+    /** the ordering of the keys, or null for their natural ordering */
+    private final Comparator comparator;
+
+    /** the bounds a range view was made with, or null where it is open */
+    private final Object lowBound;
+    private final Object highBound;
+
+    /** the mappings are keys[i] to values[i] for from <= i < to */
+    private transient Object[] keys;
+    private transient Object[] values;
+    private transient int from;
+    private transient int to;
+
+    private SortedArrayMap(Comparator comparator, Object[] keys, Object[] values,
+			   int from, int to, Object lowBound, Object highBound)
+    {
+	this.comparator = comparator;
+	this.keys = keys;
+	this.values = values;
+	this.from = from;
+	this.to = to;
+	this.lowBound = lowBound;
+	this.highBound = highBound;
+    }
+
+    private int indexOf(Object key)
+    {
+	if (key == null)
+	    return -1;
+	return SortedArraySet.search(keys, from, to, key, comparator);
+    }
+
+    public int size()
+    {
+	return to - from;
+    }
+
+    public boolean isEmpty()
+    {
+	return to == from;
+    }
+
+    public Object get(Object key)
+    {
+	int i = indexOf(key);
+	return (i >= 0) ? values[i] : null;
+    }
+
+    public boolean containsKey(Object key)
+    {
+	return indexOf(key) >= 0;
+    }
+
+    public boolean containsValue(Object value)
+    {
+	for (int i = from; i < to; i++)
+	    {
+		if (values[i].equals(value))
+		    return true;
+	    }
+	return false;
+    }
+
+    public Comparator comparator()
+    {
+	return comparator;
+    }
+
+    public Object firstKey()
+    {
+	if (to == from)
+	    throw new NoSuchElementException();
+	return keys[from];
+    }
+
+    public Object lastKey()
+    {
+	if (to == from)
+	    throw new NoSuchElementException();
+	return keys[to - 1];
+    }
+
+    public SortedMap headMap(Object toKey)
+    {
+	SortedArraySet.checkBound(toKey, lowBound, highBound, comparator);
+	return new SortedArrayMap(comparator, keys, values, from,
+				  SortedArraySet.ceilingIndex(keys, from, to, toKey, comparator),
+				  lowBound, toKey);
+    }
+
+    public SortedMap tailMap(Object fromKey)
+    {
+	SortedArraySet.checkBound(fromKey, lowBound, highBound, comparator);
+	return new SortedArrayMap(comparator, keys, values,
+				  SortedArraySet.ceilingIndex(keys, from, to, fromKey, comparator),
+				  to, fromKey, highBound);
+    }
+
+    public SortedMap subMap(Object fromKey, Object toKey)
+    {
+	int lo;
+	SortedArraySet.checkBound(fromKey, lowBound, highBound, comparator);
+	SortedArraySet.checkBound(toKey, lowBound, highBound, comparator);
+	if (SortedArraySet.compare(fromKey, toKey, comparator) > 0)
+	    throw new IllegalArgumentException("fromKey > toKey");
+	lo = SortedArraySet.ceilingIndex(keys, from, to, fromKey, comparator);
+	return new SortedArrayMap(comparator, keys, values, lo,
+				  SortedArraySet.ceilingIndex(keys, lo, to, toKey, comparator),
+				  fromKey, toKey);
+    }
+
+    public Object put(Object key, Object value)
+    {
+	throw new UnsupportedOperationException();
+    }
+
+    public Object remove(Object key)
+    {
+	throw new UnsupportedOperationException();
+    }
+
+    public void putAll(Map t)
+    {
+	throw new UnsupportedOperationException();
+    }
+
+    public void clear()
+    {
+	throw new UnsupportedOperationException();
+    }
+
+    public Set keySet()
+    {
+	return new SortedArraySet(comparator, keys, from, to, lowBound, highBound);
+    }
+
+    public Collection values()
+    {
+	return new AbstractCollection()
+	    {
+		public int size()
+		{
+		    return to - from;
+		}
+
+		public Iterator iterator()
+		{
+		    return new SortedArraySet.ArrayIterator(values, from, to);
+		}
+	    };
+    }
+
+    public Set entrySet()
+    {
+	return new AbstractSet()
+	    {
+		public int size()
+		{
+		    return to - from;
+		}
+
+		public boolean contains(Object o)
+		{
+		    Map.Entry e;
+		    int i;
+		    if (!(o instanceof Map.Entry))
+			return false;
+		    e = (Map.Entry) o;
+		    i = indexOf(e.getKey());
+		    return i >= 0 && values[i].equals(e.getValue());
+		}
+
+		public Iterator iterator()
+		{
+		    return new Iterator()
+			{
+			    private int next = from;
+
+			    public boolean hasNext()
+			    {
+				return next < to;
+			    }
+
+			    public Object next()
+			    {
+				if (next >= to)
+				    throw new NoSuchElementException();
+				next++;
+				return new Entry(keys[next - 1], values[next - 1]);
+			    }
+
+			    public void remove()
+			    {
+				throw new UnsupportedOperationException();
+			    }
+			};
+		}
+	    };
+    }
+
+    /** only the mappings in range are written, so a view is written as a map of its own */
+    private void writeObject(ObjectOutputStream s) throws IOException
+    {
+	s.defaultWriteObject();
+	s.writeInt(to - from);
+	for (int i = from; i < to; i++)
+	    {
+		s.writeObject(keys[i]);
+		s.writeObject(values[i]);
+	    }
+    }
+
+    private void readObject(ObjectInputStream s)
+	throws IOException, ClassNotFoundException
+    {
+	s.defaultReadObject();
+	to = s.readInt();
+	from = 0;
+	keys = new Object[to];
+	values = new Object[to];
+	for (int i = 0; i < to; i++)
+	    {
+		keys[i] = s.readObject();
+		values[i] = s.readObject();
+	    }
+    }
+
+    private static final class Entry implements Map.Entry
+    {
+	private final Object key;
+	private final Object value;
+
+	Entry(Object key, Object value)
+	{
+	    this.key = key;
+	    this.value = value;
+	}
+
+	public Object getKey()
+	{
+	    return key;
+	}
+
+	public Object getValue()
+	{
+	    return value;
+	}
+
+	public Object setValue(Object value)
+	{
+	    throw new UnsupportedOperationException();
+	}
+
+	public boolean equals(Object o)
+	{
+	    Map.Entry e;
+	    if (!(o instanceof Map.Entry))
+		return false;
+	    e = (Map.Entry) o;
+	    return key.equals(e.getKey()) && value.equals(e.getValue());
+	}
+
+	public int hashCode()
+	{
+	    return key.hashCode() ^ value.hashCode();
+	}
+
+	public String toString()
+	{
+	    return key + "=" + value;
+	}
+    }
+
+    /**
+     * collects the mappings of a SortedArrayMap in any order; build() sorts
+     * them, keeps the last value put for each key and publishes the map,
+     * after which the Builder may not be used again
+     */
+    public static final class Builder
+    {
+	private final Comparator comparator;
+	private Object[] keys;
+	private Object[] values;
+	private int size;
+
+	public Builder()
+	{
+	    this(null);
+	}
+
+	/** @param c the ordering of the map, or null for the natural ordering */
+	public Builder(Comparator c)
+	{
+	    comparator = c;
+	    keys = new Object[16];
+	    values = new Object[16];
+	}
+
+	private void checkLive()
+	{
+	    if (keys == null)
+		throw new IllegalStateException();
+	}
+
+	public Builder put(Object key, Object value)
+	{
+	    checkLive();
+	    if (key == null || value == null)
+		throw new NullPointerException();
+	    if (size == keys.length)
+		{
+		    Object[] k = new Object[size * 2];
+		    Object[] v = new Object[size * 2];
+		    System.arraycopy(keys, 0, k, 0, size);
+		    System.arraycopy(values, 0, v, 0, size);
+		    keys = k;
+		    values = v;
+		}
+	    keys[size] = key;
+	    values[size++] = value;
+	    return this;
+	}
+
+	public Builder putAll(Map t)
+	{
+	    Map.Entry e;
+	    for (Iterator it = t.entrySet().iterator(); it.hasNext(); )
+		{
+		    e = (Map.Entry) it.next();
+		    put(e.getKey(), e.getValue());
+		}
+	    return this;
+	}
+
+	/**
+	 * Keys which arrive already in strictly ascending order, as from
+	 * another SortedMap, are only checked, not sorted.  Otherwise the
+	 * pairs are sorted stably by key, so that where a key was put more
+	 * than once the last of its values is the one kept.
+	 */
+	public SortedArrayMap build()
+	{
+	    Object[] k = new Object[size];
+	    Object[] v = new Object[size];
+	    Entry[] pairs;
+	    int n = 0;
+	    boolean sorted = true;
+	    checkLive();
+	    for (int i = 1; i < size && sorted; i++)
+		sorted = SortedArraySet.compare(keys[i - 1], keys[i], comparator) < 0;
+	    if (sorted)
+		{
+		    System.arraycopy(keys, 0, k, 0, size);
+		    System.arraycopy(values, 0, v, 0, size);
+		    n = size;
+		}
+	    else
+		{
+		    pairs = new Entry[size];
+		    for (int i = 0; i < size; i++)
+			pairs[i] = new Entry(keys[i], values[i]);
+		    Arrays.sort(pairs, new Comparator()
+			{
+			    public int compare(Object o1, Object o2)
+			    {
+				return SortedArraySet.compare(((Entry) o1).key,
+							      ((Entry) o2).key, comparator);
+			    }
+			});
+		    for (int i = 0; i < size; i++)
+			{
+			    if (n > 0 && SortedArraySet.compare(k[n - 1], pairs[i].key, comparator) == 0)
+				n--;
+			    k[n] = pairs[i].key;
+			    v[n++] = pairs[i].value;
+			}
+		    if (n < size)
+			{
+			    Object[] exact = new Object[n];
+			    System.arraycopy(k, 0, exact, 0, n);
+			    k = exact;
+			    exact = new Object[n];
+			    System.arraycopy(v, 0, exact, 0, n);
+			    v = exact;
+			}
+		}
+	    keys = null;
+	    values = null;
+	    return new SortedArrayMap(comparator, k, v, 0, n, null, null);
+	}
+    }
+}
@@ -0,0 +1,319 @@
+/////////////////////////////////////////////////////////////////////////////
+// SortedArraySet.java -- an immutable SortedSet kept in a sorted array
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU Library General Public License as published
+// by the Free Software Foundation, version 2. (see COPYING.LIB)
+//
+// This program is distributed in the hope that it will be useful, but
+// WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Library General Public License for more details.
+//
+// You should have received a copy of the GNU Library General Public License
+// along with this program; if not, write to the Free Software Foundation
+// Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307 USA
+/////////////////////////////////////////////////////////////////////////////
+
+package java.util;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+
+/**
+ * an immutable SortedSet for lookup tables which are built once and then
+ * only read.  The elements are kept in a single sorted array of exactly
+ * the right length, so the set costs little more than the array itself,
+ * and contains() is a binary search of it.  Null elements are rejected.
+ *
+ * A set is made with a Builder, which takes the elements in any order and
+ * sorts them once in build().  headSet(), tailSet() and subSet() share the
+ * array, marking out the part of it they cover, so they cost O(log n) to
+ * make and allocate nothing but the view.  Every method which would
+ * change a set throws UnsupportedOperationException.  Being immutable, a
+ * set may be shared between threads without locking.
+ */
+public final class SortedArraySet extends AbstractSet implements SortedSet, Serializable
+{
+    /** the ordering of the elements, or null for their natural ordering */
+    private final Comparator comparator;
+
+    /** the bounds a range view was made with, or null where it is open */
+    private final Object lowBound;
+    private final Object highBound;
+
+    /** the elements are elements[from] to elements[to - 1] */
+    private transient Object[] elements;
+    private transient int from;
+    private transient int to;
+
+    SortedArraySet(Comparator comparator, Object[] elements, int from, int to,
+		   Object lowBound, Object highBound)
+    {
+	this.comparator = comparator;
+	this.elements = elements;
+	this.from = from;
+	this.to = to;
+	this.lowBound = lowBound;
+	this.highBound = highBound;
+    }
+
+    static int compare(Object k1, Object k2, Comparator c)
+    {
+	return (c == null) ? ((Comparable) k1).compareTo(k2) : c.compare(k1, k2);
+    }
+
+    /**
+     * searches a[from] to a[to - 1] for key, returning its index or
+     * -(insertion point) - 1
+     */
+    static int search(Object[] a, int from, int to, Object key, Comparator c)
+    {
+	if (key == null)
+	    throw new NullPointerException();
+	return (c == null) ? Arrays.binarySearch(a, from, to, key)
+	    : Arrays.binarySearch(a, from, to, key, c);
+    }
+
+    /** returns the index of the first of a[from] to a[to - 1] no less than key */
+    static int ceilingIndex(Object[] a, int from, int to, Object key, Comparator c)
+    {
+	int i = search(a, from, to, key, c);
+	return (i >= 0) ? i : -i - 1;
+    }
+
+    /**
+     * checks that key lies within the bounds lowBound (inclusive) and
+     * highBound (inclusive here, so that a view can be cut at its own end)
+     */
+    static void checkBound(Object key, Object lowBound, Object highBound, Comparator c)
+    {
+	if (key == null)
+	    throw new NullPointerException();
+	if ((lowBound != null && compare(key, lowBound, c) < 0)
+	    || (highBound != null && compare(key, highBound, c) > 0))
+	    throw new IllegalArgumentException("key out of range");
+    }
+
+    public int size()
+    {
+	return to - from;
+    }
+
+    public boolean isEmpty()
+    {
+	return to == from;
+    }
+
+    public boolean contains(Object o)
+    {
+	return o != null && search(elements, from, to, o, comparator) >= 0;
+    }
+
+    public Iterator iterator()
+    {
+	return new ArrayIterator(elements, from, to);
+    }
+
+    public Object[] toArray()
+    {
+	Object[] result = new Object[to - from];
+	System.arraycopy(elements, from, result, 0, result.length);
+	return result;
+    }
+
+    public Comparator comparator()
+    {
+	return comparator;
+    }
+
+    public Object first()
+    {
+	if (to == from)
+	    throw new NoSuchElementException();
+	return elements[from];
+    }
+
+    public Object last()
+    {
+	if (to == from)
+	    throw new NoSuchElementException();
+	return elements[to - 1];
+    }
+
+    public SortedSet headSet(Object toElement)
+    {
+	checkBound(toElement, lowBound, highBound, comparator);
+	return new SortedArraySet(comparator, elements, from,
+				  ceilingIndex(elements, from, to, toElement, comparator),
+				  lowBound, toElement);
+    }
+
+    public SortedSet tailSet(Object fromElement)
+    {
+	checkBound(fromElement, lowBound, highBound, comparator);
+	return new SortedArraySet(comparator, elements,
+				  ceilingIndex(elements, from, to, fromElement, comparator),
+				  to, fromElement, highBound);
+    }
+
+    public SortedSet subSet(Object fromElement, Object toElement)
+    {
+	int lo;
+	checkBound(fromElement, lowBound, highBound, comparator);
+	checkBound(toElement, lowBound, highBound, comparator);
+	if (compare(fromElement, toElement, comparator) > 0)
+	    throw new IllegalArgumentException("fromElement > toElement");
+	lo = ceilingIndex(elements, from, to, fromElement, comparator);
+	return new SortedArraySet(comparator, elements, lo,
+				  ceilingIndex(elements, lo, to, toElement, comparator),
+				  fromElement, toElement);
+    }
+
+    public boolean add(Object o)
+    {
+	throw new UnsupportedOperationException();
+    }
+
+    public boolean remove(Object o)
+    {
+	throw new UnsupportedOperationException();
+    }
+
+    public void clear()
+    {
+	throw new UnsupportedOperationException();
+    }
+
+    /** only the elements in range are written, so a view is written as a set of its own */
+    private void writeObject(ObjectOutputStream s) throws IOException
+    {
+	s.defaultWriteObject();
+	s.writeInt(to - from);
+	for (int i = from; i < to; i++)
+	    s.writeObject(elements[i]);
+    }
+
+    private void readObject(ObjectInputStream s)
+	throws IOException, ClassNotFoundException
+    {
+	s.defaultReadObject();
+	to = s.readInt();
+	from = 0;
+	elements = new Object[to];
+	for (int i = 0; i < to; i++)
+	    elements[i] = s.readObject();
+    }
+
+    /** steps through a[from] to a[to - 1]; remove() is not supported */
+    static final class ArrayIterator implements Iterator
+    {
+	private final Object[] a;
+	private final int to;
+	private int next;
+
+	ArrayIterator(Object[] a, int from, int to)
+	{
+	    this.a = a;
+	    this.next = from;
+	    this.to = to;
+	}
+
+	public boolean hasNext()
+	{
+	    return next < to;
+	}
+
+	public Object next()
+	{
+	    if (next >= to)
+		throw new NoSuchElementException();
+	    return a[next++];
+	}
+
+	public void remove()
+	{
+	    throw new UnsupportedOperationException();
+	}
+    }
+
+    /**
+     * collects the elements of a SortedArraySet in any order; build() sorts
+     * them, drops duplicates and publishes the set, after which the Builder
+     * may not be used again
+     */
+    public static final class Builder
+    {
+	private final Comparator comparator;
+	private Object[] elements;
+	private int size;
+
+	public Builder()
+	{
+	    this(null);
+	}
+
+	/** @param c the ordering of the set, or null for the natural ordering */
+	public Builder(Comparator c)
+	{
+	    comparator = c;
+	    elements = new Object[16];
+	}
+
+	private void checkLive()
+	{
+	    if (elements == null)
+		throw new IllegalStateException();
+	}
+
+	public Builder add(Object o)
+	{
+	    checkLive();
+	    if (o == null)
+		throw new NullPointerException();
+	    if (size == elements.length)
+		{
+		    Object[] bigger = new Object[size * 2];
+		    System.arraycopy(elements, 0, bigger, 0, size);
+		    elements = bigger;
+		}
+	    elements[size++] = o;
+	    return this;
+	}
+
+	public Builder addAll(Collection c)
+	{
+	    for (Iterator it = c.iterator(); it.hasNext(); )
+		add(it.next());
+	    return this;
+	}
+
+	public SortedArraySet build()
+	{
+	    Object[] a;
+	    int n = 0;
+	    checkLive();
+	    a = new Object[size];
+	    System.arraycopy(elements, 0, a, 0, size);
+	    elements = null;
+	    if (comparator == null)
+		Arrays.sort(a);
+	    else
+		Arrays.sort(a, comparator);
+	    for (int i = 0; i < a.length; i++)
+		{
+		    if (n == 0 || compare(a[n - 1], a[i], comparator) != 0)
+			a[n++] = a[i];
+		}
+	    if (n < a.length)
+		{
+		    Object[] exact = new Object[n];
+		    System.arraycopy(a, 0, exact, 0, n);
+		    a = exact;
+		}
+	    return new SortedArraySet(comparator, a, 0, n, null, null);
+	}
+    }
+}
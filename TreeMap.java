@@ -0,0 +1,815 @@
+/////////////////////////////////////////////////////////////////////////////
+// TreeMap.java -- a red-black tree implementation of SortedMap
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU Library General Public License as published
+// by the Free Software Foundation, version 2. (see COPYING.LIB)
+//
+// This program is distributed in the hope that it will be useful, but
+// WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Library General Public License for more details.
+//
+// You should have received a copy of the GNU Library General Public License
+// along with this program; if not, write to the Free Software Foundation
+// Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307 USA
+/////////////////////////////////////////////////////////////////////////////
+
+package java.util;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+
+/**
+ * An unsynchronized SortedMap, kept in key order by a red-black tree, so
+ * that get(), put(), remove(), containsKey(), firstKey() and lastKey() are
+ * all O(log n).  Keys are ordered by the Comparator given to the
+ * constructor or, without one, by their own compareTo(); null values are
+ * permitted, and a null key is permitted only if the Comparator accepts it.
+ *
+ * headMap(), tailMap() and subMap() return views of a range of this map,
+ * not copies: they are made in O(1), see every later change to the map,
+ * and write through to it.  Every node links to its parent, so iterators
+ * step from one entry to its successor through those links and never
+ * allocate a stack; a view's iterator starts at the first entry of its
+ * range (found in O(log n)) and stops at the first key past it.
+ *
+ * Iterators are fail-fast in the same manner as Hashtable's.
+ */
+public class TreeMap extends AbstractMap implements SortedMap, Serializable {
+
+    private static final boolean RED = false;
+    private static final boolean BLACK = true;
+
+    private static final int KEYS = AbstractSubMap.KEYS;
+    private static final int VALUES = AbstractSubMap.VALUES;
+    private static final int ENTRIES = AbstractSubMap.ENTRIES;
+
+    /** the ordering of the keys, or null for their natural ordering */
+    private final Comparator comparator;
+
+    private transient Entry root;
+    private transient int size;
+    transient int modCount;
+
+    public TreeMap() {
+        comparator = null;
+    }
+
+    public TreeMap(Comparator c) {
+        comparator = c;
+    }
+
+    public TreeMap(Map m) {
+        comparator = null;
+        putAll(m);
+    }
+
+    /**
+     * makes a TreeMap with the same ordering and mappings as m; since m is
+     * already sorted, the tree is built directly, in linear time
+     */
+    public TreeMap(SortedMap m) {
+        comparator = m.comparator();
+        Object[] keys = new Object[m.size()];
+        Object[] values = new Object[keys.length];
+        Iterator it = m.entrySet().iterator();
+        for (int i = 0; i < keys.length; i++) {
+            Map.Entry e = (Map.Entry) it.next();
+            keys[i] = e.getKey();
+            values[i] = e.getValue();
+        }
+        buildFromSorted(keys, values);
+    }
+
+    public Comparator comparator() {
+        return comparator;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean containsKey(Object key) {
+        return getEntry(key) != null;
+    }
+
+    public boolean containsValue(Object value) {
+        for (Entry e = firstEntry(); e != null; e = successor(e)) {
+            if (value == null ? e.value == null : value.equals(e.value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public Object get(Object key) {
+        Entry e = getEntry(key);
+        return (e == null) ? null : e.value;
+    }
+
+    public Object firstKey() {
+        return key(firstEntry());
+    }
+
+    public Object lastKey() {
+        return key(lastEntry());
+    }
+
+    public Object put(Object key, Object value) {
+        Entry t = root;
+        if (t == null) {
+            compare(key, key); // rejects keys the ordering cannot handle
+            root = new Entry(key, value, null);
+            size = 1;
+            modCount++;
+            return null;
+        }
+        Entry parent;
+        int cmp;
+        do {
+            parent = t;
+            cmp = compare(key, t.key);
+            if (cmp < 0) {
+                t = t.left;
+            } else if (cmp > 0) {
+                t = t.right;
+            } else {
+                Object old = t.value;
+                t.value = value;
+                return old;
+            }
+        } while (t != null);
+        Entry e = new Entry(key, value, parent);
+        if (cmp < 0) {
+            parent.left = e;
+        } else {
+            parent.right = e;
+        }
+        fixAfterInsertion(e);
+        size++;
+        modCount++;
+        return null;
+    }
+
+    public Object remove(Object key) {
+        Entry e = getEntry(key);
+        if (e == null) {
+            return null;
+        }
+        Object old = e.value;
+        deleteEntry(e);
+        return old;
+    }
+
+    public void clear() {
+        modCount++;
+        size = 0;
+        root = null;
+    }
+
+    public Set keySet() {
+        return new TreeSetView(KEYS);
+    }
+
+    public Set entrySet() {
+        return new TreeSetView(ENTRIES);
+    }
+
+    public Collection values() {
+        return new TreeValues();
+    }
+
+    /** returns a view of the keys strictly less than toKey */
+    public SortedMap headMap(Object toKey) {
+        return new SubMap(true, null, false, toKey);
+    }
+
+    /** returns a view of the keys greater than or equal to fromKey */
+    public SortedMap tailMap(Object fromKey) {
+        return new SubMap(false, fromKey, true, null);
+    }
+
+    /** returns a view of the keys from fromKey, inclusive, to toKey, exclusive */
+    public SortedMap subMap(Object fromKey, Object toKey) {
+        return new SubMap(false, fromKey, false, toKey);
+    }
+
+    // Searching
+    // ---------
+
+    final int compare(Object k1, Object k2) {
+        return (comparator == null) ? ((Comparable) k1).compareTo(k2)
+            : comparator.compare(k1, k2);
+    }
+
+    private static Object key(Entry e) {
+        if (e == null) {
+            throw new NoSuchElementException();
+        }
+        return e.key;
+    }
+
+    final Entry getEntry(Object key) {
+        Entry p = root;
+        while (p != null) {
+            int cmp = compare(key, p.key);
+            if (cmp < 0) {
+                p = p.left;
+            } else if (cmp > 0) {
+                p = p.right;
+            } else {
+                return p;
+            }
+        }
+        return null;
+    }
+
+    /** returns the entry with the least key greater than or equal to key */
+    final Entry ceilingEntry(Object key) {
+        Entry p = root;
+        Entry best = null;
+        while (p != null) {
+            int cmp = compare(key, p.key);
+            if (cmp < 0) {
+                best = p;
+                p = p.left;
+            } else if (cmp > 0) {
+                p = p.right;
+            } else {
+                return p;
+            }
+        }
+        return best;
+    }
+
+    /** returns the entry with the greatest key strictly less than key */
+    final Entry lowerEntry(Object key) {
+        Entry p = root;
+        Entry best = null;
+        while (p != null) {
+            if (compare(key, p.key) > 0) {
+                best = p;
+                p = p.right;
+            } else {
+                p = p.left;
+            }
+        }
+        return best;
+    }
+
+    final Entry firstEntry() {
+        Entry p = root;
+        if (p != null) {
+            while (p.left != null) {
+                p = p.left;
+            }
+        }
+        return p;
+    }
+
+    final Entry lastEntry() {
+        Entry p = root;
+        if (p != null) {
+            while (p.right != null) {
+                p = p.right;
+            }
+        }
+        return p;
+    }
+
+    /** returns the entry after e in key order, climbing parent links if need be */
+    static Entry successor(Entry e) {
+        if (e.right != null) {
+            Entry p = e.right;
+            while (p.left != null) {
+                p = p.left;
+            }
+            return p;
+        }
+        Entry p = e.parent;
+        Entry child = e;
+        while (p != null && child == p.right) {
+            child = p;
+            p = p.parent;
+        }
+        return p;
+    }
+
+    // Balancing
+    // ---------
+    // The usual red-black rules: the root and all (null) leaves are black,
+    // a red node has black children, and every path from a node down to a
+    // leaf passes the same number of black nodes.  The helpers treat a
+    // null node as a black leaf.
+
+    private static boolean colorOf(Entry p) {
+        return (p == null) ? BLACK : p.color;
+    }
+
+    private static Entry parentOf(Entry p) {
+        return (p == null) ? null : p.parent;
+    }
+
+    private static void setColor(Entry p, boolean c) {
+        if (p != null) {
+            p.color = c;
+        }
+    }
+
+    private static Entry leftOf(Entry p) {
+        return (p == null) ? null : p.left;
+    }
+
+    private static Entry rightOf(Entry p) {
+        return (p == null) ? null : p.right;
+    }
+
+    private void rotateLeft(Entry p) {
+        Entry r = p.right;
+        p.right = r.left;
+        if (r.left != null) {
+            r.left.parent = p;
+        }
+        r.parent = p.parent;
+        if (p.parent == null) {
+            root = r;
+        } else if (p.parent.left == p) {
+            p.parent.left = r;
+        } else {
+            p.parent.right = r;
+        }
+        r.left = p;
+        p.parent = r;
+    }
+
+    private void rotateRight(Entry p) {
+        Entry l = p.left;
+        p.left = l.right;
+        if (l.right != null) {
+            l.right.parent = p;
+        }
+        l.parent = p.parent;
+        if (p.parent == null) {
+            root = l;
+        } else if (p.parent.right == p) {
+            p.parent.right = l;
+        } else {
+            p.parent.left = l;
+        }
+        l.right = p;
+        p.parent = l;
+    }
+
+    private void fixAfterInsertion(Entry x) {
+        x.color = RED;
+        while (x != null && x != root && x.parent.color == RED) {
+            if (parentOf(x) == leftOf(parentOf(parentOf(x)))) {
+                Entry y = rightOf(parentOf(parentOf(x)));
+                if (colorOf(y) == RED) {
+                    setColor(parentOf(x), BLACK);
+                    setColor(y, BLACK);
+                    setColor(parentOf(parentOf(x)), RED);
+                    x = parentOf(parentOf(x));
+                } else {
+                    if (x == rightOf(parentOf(x))) {
+                        x = parentOf(x);
+                        rotateLeft(x);
+                    }
+                    setColor(parentOf(x), BLACK);
+                    setColor(parentOf(parentOf(x)), RED);
+                    rotateRight(parentOf(parentOf(x)));
+                }
+            } else {
+                Entry y = leftOf(parentOf(parentOf(x)));
+                if (colorOf(y) == RED) {
+                    setColor(parentOf(x), BLACK);
+                    setColor(y, BLACK);
+                    setColor(parentOf(parentOf(x)), RED);
+                    x = parentOf(parentOf(x));
+                } else {
+                    if (x == leftOf(parentOf(x))) {
+                        x = parentOf(x);
+                        rotateRight(x);
+                    }
+                    setColor(parentOf(x), BLACK);
+                    setColor(parentOf(parentOf(x)), RED);
+                    rotateLeft(parentOf(parentOf(x)));
+                }
+            }
+        }
+        root.color = BLACK;
+    }
+
+    /**
+     * unlinks p from the tree.  If p has two children, its successor's key
+     * and value are moved into p and the successor's node is unlinked
+     * instead, so it is that node which leaves the tree.
+     */
+    final void deleteEntry(Entry p) {
+        modCount++;
+        size--;
+        if (p.left != null && p.right != null) {
+            Entry s = successor(p);
+            p.key = s.key;
+            p.value = s.value;
+            p = s;
+        }
+        Entry replacement = (p.left != null) ? p.left : p.right;
+        if (replacement != null) {
+            replacement.parent = p.parent;
+            if (p.parent == null) {
+                root = replacement;
+            } else if (p == p.parent.left) {
+                p.parent.left = replacement;
+            } else {
+                p.parent.right = replacement;
+            }
+            p.left = p.right = p.parent = null;
+            if (p.color == BLACK) {
+                fixAfterDeletion(replacement);
+            }
+        } else if (p.parent == null) {
+            root = null;
+        } else {
+            // no children: use p itself as the phantom replacement
+            if (p.color == BLACK) {
+                fixAfterDeletion(p);
+            }
+            if (p.parent != null) {
+                if (p == p.parent.left) {
+                    p.parent.left = null;
+                } else if (p == p.parent.right) {
+                    p.parent.right = null;
+                }
+                p.parent = null;
+            }
+        }
+    }
+
+    private void fixAfterDeletion(Entry x) {
+        while (x != root && colorOf(x) == BLACK) {
+            if (x == leftOf(parentOf(x))) {
+                Entry sib = rightOf(parentOf(x));
+                if (colorOf(sib) == RED) {
+                    setColor(sib, BLACK);
+                    setColor(parentOf(x), RED);
+                    rotateLeft(parentOf(x));
+                    sib = rightOf(parentOf(x));
+                }
+                if (colorOf(leftOf(sib)) == BLACK && colorOf(rightOf(sib)) == BLACK) {
+                    setColor(sib, RED);
+                    x = parentOf(x);
+                } else {
+                    if (colorOf(rightOf(sib)) == BLACK) {
+                        setColor(leftOf(sib), BLACK);
+                        setColor(sib, RED);
+                        rotateRight(sib);
+                        sib = rightOf(parentOf(x));
+                    }
+                    setColor(sib, colorOf(parentOf(x)));
+                    setColor(parentOf(x), BLACK);
+                    setColor(rightOf(sib), BLACK);
+                    rotateLeft(parentOf(x));
+                    x = root;
+                }
+            } else {
+                Entry sib = leftOf(parentOf(x));
+                if (colorOf(sib) == RED) {
+                    setColor(sib, BLACK);
+                    setColor(parentOf(x), RED);
+                    rotateRight(parentOf(x));
+                    sib = leftOf(parentOf(x));
+                }
+                if (colorOf(rightOf(sib)) == BLACK && colorOf(leftOf(sib)) == BLACK) {
+                    setColor(sib, RED);
+                    x = parentOf(x);
+                } else {
+                    if (colorOf(leftOf(sib)) == BLACK) {
+                        setColor(rightOf(sib), BLACK);
+                        setColor(sib, RED);
+                        rotateLeft(sib);
+                        sib = leftOf(parentOf(x));
+                    }
+                    setColor(sib, colorOf(parentOf(x)));
+                    setColor(parentOf(x), BLACK);
+                    setColor(leftOf(sib), BLACK);
+                    rotateRight(parentOf(x));
+                    x = root;
+                }
+            }
+        }
+        setColor(x, BLACK);
+    }
+
+    // Bulk building and serialization
+    // -------------------------------
+
+    /**
+     * replaces the contents of this map with the given pairs, which must
+     * be in ascending key order; the tree is built balanced in linear
+     * time, with every level complete and black except the deepest, which
+     * is red
+     */
+    private void buildFromSorted(Object[] keys, Object[] values) {
+        int redLevel = 0;
+        for (int m = keys.length - 1; m >= 0; m = m / 2 - 1) {
+            redLevel++;
+        }
+        root = build(0, 0, keys.length - 1, redLevel, keys, values);
+        size = keys.length;
+        modCount++;
+    }
+
+    private static Entry build(int level, int lo, int hi, int redLevel,
+                               Object[] keys, Object[] values) {
+        if (hi < lo) {
+            return null;
+        }
+        int mid = (lo + hi) >>> 1;
+        Entry left = build(level + 1, lo, mid - 1, redLevel, keys, values);
+        Entry middle = new Entry(keys[mid], values[mid], null);
+        if (level == redLevel) {
+            middle.color = RED;
+        }
+        if (left != null) {
+            middle.left = left;
+            left.parent = middle;
+        }
+        Entry right = build(level + 1, mid + 1, hi, redLevel, keys, values);
+        if (right != null) {
+            middle.right = right;
+            right.parent = middle;
+        }
+        return middle;
+    }
+
+    private void writeObject(ObjectOutputStream s) throws IOException {
+        s.defaultWriteObject();
+        s.writeInt(size);
+        for (Entry e = firstEntry(); e != null; e = successor(e)) {
+            s.writeObject(e.key);
+            s.writeObject(e.value);
+        }
+    }
+
+    /** the pairs arrive in key order, so the tree is rebuilt without any comparisons */
+    private void readObject(ObjectInputStream s)
+        throws IOException, ClassNotFoundException {
+        s.defaultReadObject();
+        int n = s.readInt();
+        Object[] keys = new Object[n];
+        Object[] values = new Object[n];
+        for (int i = 0; i < n; i++) {
+            keys[i] = s.readObject();
+            values[i] = s.readObject();
+        }
+        buildFromSorted(keys, values);
+    }
+
+    /** a node of the tree, which is also the Map.Entry handed out for it */
+    static final class Entry implements Map.Entry {
+        Object key;
+        Object value;
+        Entry left;
+        Entry right;
+        Entry parent;
+        boolean color = BLACK;
+
+        Entry(Object key, Object value, Entry parent) {
+            this.key = key;
+            this.value = value;
+            this.parent = parent;
+        }
+
+        public Object getKey() {
+            return key;
+        }
+
+        public Object getValue() {
+            return value;
+        }
+
+        public Object setValue(Object value) {
+            Object old = this.value;
+            this.value = value;
+            return old;
+        }
+
+        public boolean equals(Object o) {
+            if (!(o instanceof Map.Entry)) {
+                return false;
+            }
+            Map.Entry e = (Map.Entry) o;
+            return (key == null ? e.getKey() == null : key.equals(e.getKey()))
+                && (value == null ? e.getValue() == null : value.equals(e.getValue()));
+        }
+
+        public int hashCode() {
+            return (key == null ? 0 : key.hashCode()) ^ (value == null ? 0 : value.hashCode());
+        }
+
+        public String toString() {
+            return key + "=" + value;
+        }
+    }
+
+    // Views
+    // -----
+
+    /** a Set view of the keys or entries of the whole map */
+    private class TreeSetView extends AbstractSet {
+        private final int setType;
+
+        TreeSetView(int type) {
+            setType = type;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public boolean isEmpty() {
+            return size == 0;
+        }
+
+        public void clear() {
+            TreeMap.this.clear();
+        }
+
+        /** returns the entry this view holds for o, or null */
+        private Entry entryFor(Object o) {
+            Object key;
+            if (setType == KEYS) {
+                key = o;
+            } else if (o instanceof Map.Entry) {
+                key = ((Map.Entry) o).getKey();
+            } else {
+                return null;
+            }
+            Entry e = getEntry(key);
+            if (e == null || setType == KEYS) {
+                return e;
+            }
+            Object v = ((Map.Entry) o).getValue();
+            return (v == null ? e.value == null : v.equals(e.value)) ? e : null;
+        }
+
+        public boolean contains(Object o) {
+            return entryFor(o) != null;
+        }
+
+        public boolean remove(Object o) {
+            Entry e = entryFor(o);
+            if (e == null) {
+                return false;
+            }
+            deleteEntry(e);
+            return true;
+        }
+
+        public Iterator iterator() {
+            return new TreeIterator(setType, firstEntry(), true, null);
+        }
+    }
+
+    /** a Collection view of the values of the whole map */
+    private class TreeValues extends AbstractCollection {
+        public int size() {
+            return size;
+        }
+
+        public void clear() {
+            TreeMap.this.clear();
+        }
+
+        public Iterator iterator() {
+            return new TreeIterator(VALUES, firstEntry(), true, null);
+        }
+    }
+
+    /**
+     * steps from an entry to its successor until it runs out of entries or
+     * reaches toKey (exclusive; ignored if toEnd).  The stopping point is a
+     * key, rather than the entry which held it, because removing an entry
+     * with two children moves its successor's key into it.
+     */
+    private class TreeIterator implements Iterator {
+        private final int type;
+        private final boolean toEnd;
+        private final Object toKey;
+        private int knownMods = modCount;
+        private Entry next;
+        private Entry lastReturned;
+
+        TreeIterator(int type, Entry first, boolean toEnd, Object toKey) {
+            this.type = type;
+            this.toEnd = toEnd;
+            this.toKey = toKey;
+            next = fence(first);
+        }
+
+        /** returns e, or null if it lies past the end of the range */
+        private Entry fence(Entry e) {
+            return (e == null || toEnd || compare(e.key, toKey) < 0) ? e : null;
+        }
+
+        private void checkMod() {
+            if (knownMods != modCount) {
+                throw new ConcurrentModificationException();
+            }
+        }
+
+        public boolean hasNext() {
+            checkMod();
+            return next != null;
+        }
+
+        public Object next() {
+            checkMod();
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            lastReturned = next;
+            next = fence(successor(next));
+            if (type == KEYS) {
+                return lastReturned.key;
+            } else if (type == VALUES) {
+                return lastReturned.value;
+            } else {
+                return lastReturned;
+            }
+        }
+
+        public void remove() {
+            checkMod();
+            if (lastReturned == null) {
+                throw new IllegalStateException();
+            }
+            // deleting a node with two children moves its successor into
+            // it; that successor is next unless it lies past the view
+            if (next != null && lastReturned.left != null && lastReturned.right != null) {
+                next = lastReturned;
+            }
+            deleteEntry(lastReturned);
+            knownMods = modCount;
+            lastReturned = null;
+        }
+    }
+
+    /**
+     * a range view that finds its ends by searching the tree.  size()
+     * counts the entries in range, so it is O(k + log n) for k entries.
+     */
+    private class SubMap extends AbstractSubMap {
+
+        SubMap(boolean fromStart, Object fromKey, boolean toEnd, Object toKey) {
+            super(TreeMap.this, fromStart, fromKey, toEnd, toKey);
+        }
+
+        AbstractSubMap newSubMap(boolean fromStart, Object fromKey,
+                                 boolean toEnd, Object toKey) {
+            return new SubMap(fromStart, fromKey, toEnd, toKey);
+        }
+
+        private TreeMap.Entry lowest() {
+            TreeMap.Entry e = fromStart ? firstEntry() : ceilingEntry(fromKey);
+            return (e == null || toEnd || compare(e.key, toKey) < 0) ? e : null;
+        }
+
+        private TreeMap.Entry highest() {
+            TreeMap.Entry e = toEnd ? lastEntry() : lowerEntry(toKey);
+            return (e == null || fromStart || compare(e.key, fromKey) >= 0) ? e : null;
+        }
+
+        Iterator iterator(int type) {
+            return new TreeIterator(type, lowest(), toEnd, toKey);
+        }
+
+        public int size() {
+            int n = 0;
+            for (Iterator it = iterator(KEYS); it.hasNext(); it.next()) {
+                n++;
+            }
+            return n;
+        }
+
+        public boolean isEmpty() {
+            return lowest() == null;
+        }
+
+        public Object firstKey() {
+            return key(lowest());
+        }
+
+        public Object lastKey() {
+            return key(highest());
+        }
+    }
+}
@@ -25,6 +25,10 @@
 
 package java.util;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
 /**
  * the <b>Vector</b> classes implements growable arrays of Objects.
  * You can access elements in a Vector with an index, just as you
@@ -57,9 +61,11 @@ public class Vector extends AbstractList implements List,
   protected int elementCount;
 
   /**
-   * The internal array used to hold members of a Vector
+   * The internal array used to hold members of a Vector.  It is not
+   * serialized as it stands (see writeObject), so that spare capacity
+   * costs nothing in the stream.
    */
-  protected Object[] elementData;
+  protected transient Object[] elementData;
 
   /**
    * Constructs an empty vector with an initial size of 10, and
@@ -126,6 +132,33 @@ public class Vector extends AbstractList implements List,
       System.arraycopy(elementData, 0, anArray, 0, elementCount);
   }
 
+  /**
+   * Copies a run of elements straight out of the internal array, for
+   * the batches of the iterator.
+   */
+  void getRange(int from, Object[] dest, int n) {
+    System.arraycopy(elementData, from, dest, 0, n);
+  }
+
+  /**
+   * Hands each element of this Vector, in order, to <b>visitor</b>,
+   * looping directly over the internal array.  No Iterator is created
+   * and the modification count is checked only once, at the end.
+   *
+   * @param visitor the callback to receive each element
+   * @throws ConcurrentModificationException if <b>visitor</b> modified
+   * this Vector
+   */
+  public void forEachElement(ElementVisitor visitor) {
+    Object[] data = elementData;
+    int count = elementCount;
+    int knownMod = modCount;
+    for (int i = 0; i < count; i++) {
+      visitor.visit(data[i]);
+    }
+    if (knownMod != modCount) throw new ConcurrentModificationException();
+  }
+
   /**
    * Trims the Vector down to size.  If the internal data array is larger
    * than the number of Objects its holding, a new array is constructed
@@ -164,6 +197,30 @@ public class Vector extends AbstractList implements List,
     elementData = newArray;
   }
       
+  /**
+   * Turns on or off the caching of this Vector's hash code.  While it is
+   * on, hashCode() keeps its result and addElement(), removal of the last
+   * element and setElementAt() bring it up to date in constant time;
+   * other changes make the next hashCode() recompute it.  equals() against
+   * another caching list returns false at once if the hash codes differ.
+   * The elements' own hash codes must not change while they are in the
+   * Vector.
+   *
+   * @param cached true to cache the hash code
+   */
+  public void setHashCodeCached(boolean cached) {
+    cacheHashCode(cached);
+  }
+
+  /**
+   * Returns true if this Vector caches its hash code
+   *
+   * @returns true if the hash code is cached
+   */
+  public boolean isHashCodeCached() {
+    return super.isHashCodeCached();
+  }
+
   /**
    * Explicitly sets the size of the internal data array, copying the 
    * old values to the new internal array.  If the new array is smaller
@@ -337,8 +394,11 @@ public class Vector extends AbstractList implements List,
 	(index >= elementCount)) 
       throw new ArrayIndexOutOfBoundsException(index);
 
+    int knownMod = modCount;
     modCount++;
+    Object old = elementData[index];
     elementData[index] = obj;
+    hashReplaced(knownMod, index, elementCount, old, obj);
   }
 
   /**
@@ -354,9 +414,11 @@ public class Vector extends AbstractList implements List,
     if (index >= elementCount)
       throw new ArrayIndexOutOfBoundsException(index);
     
+    int knownMod = modCount;
     modCount++;
     Object temp = elementData[index];
     elementData[index] = element;
+    hashReplaced(knownMod, index, elementCount, temp, element);
     return temp;
   }
 
@@ -370,11 +432,15 @@ public class Vector extends AbstractList implements List,
     if (index >= elementCount) 
       throw new ArrayIndexOutOfBoundsException(index);    
 
+    int knownMod = modCount;
+    Object old = elementData[index];
     modCount++;
     elementCount--;
     if (index < elementCount ) 
       System.arraycopy(elementData, index + 1, elementData, index, 
 		       elementCount - index);
+    else
+      hashRemovedLast(knownMod, old);
     //Delete the last element (which has been copied back one index)
     //so it can be garbage collected;
     elementData[elementCount] = null;
@@ -412,9 +478,11 @@ public class Vector extends AbstractList implements List,
    * @param obj The object to add to the Vector
    */
   public void addElement(Object obj) {
+    int knownMod = modCount;
     ensureCapacity(elementCount+1);
     modCount++;
     elementData[elementCount++] = obj;
+    hashAppended(knownMod, obj);
   }
 
   /**
@@ -449,6 +517,36 @@ public class Vector extends AbstractList implements List,
     elementCount = 0;
   }
 
+  /**
+   * Writes the capacity increment and element count, whether the hash code
+   * is cached, then the elements themselves, leaving out the unused part
+   * of the internal array
+   *
+   * @serialData the hash code caching flag (a boolean) and the elements,
+   *             in order, after the default fields
+   */
+  private void writeObject(ObjectOutputStream s) throws IOException {
+    s.defaultWriteObject();
+    s.writeBoolean(isHashCodeCached());
+    for (int i = 0; i < elementCount; i++) {
+      s.writeObject(elementData[i]);
+    }
+  }
+
+  /**
+   * Reads a Vector written by writeObject, into an internal array sized
+   * to hold exactly its elements
+   */
+  private void readObject(ObjectInputStream s)
+    throws IOException, ClassNotFoundException {
+    s.defaultReadObject();
+    cacheHashCode(s.readBoolean());
+    elementData = new Object[elementCount];
+    for (int i = 0; i < elementCount; i++) {
+      elementData[i] = s.readObject();
+    }
+  }
+
   /**
    * Creates a new Vector with the same contents as this one.
    */
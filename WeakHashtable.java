@@ -0,0 +1,541 @@
+/////////////////////////////////////////////////////////////////////////////
+// WeakHashtable.java -- a Hashtable which holds its keys weakly
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU Library General Public License as published
+// by the Free Software Foundation, version 2. (see COPYING.LIB)
+//
+// This program is distributed in the hope that it will be useful, but
+// WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Library General Public License for more details.
+//
+// You should have received a copy of the GNU Library General Public License
+// along with this program; if not, write to the Free Software Foundation
+// Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307 USA
+/////////////////////////////////////////////////////////////////////////////
+
+package java.util;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+
+/**
+ * a synchronized, Hashtable-like Map whose keys are only weakly reachable
+ * from it: once nothing else refers to a key, the collector may clear it,
+ * and the entry then disappears from the table.  This suits caches of
+ * metadata about objects, such as classes or class loaders, whose
+ * lifetime the cache should not extend.
+ *
+ * Each entry is itself a WeakReference to its key, registered with the
+ * table's ReferenceQueue.  Every operation first drains that queue and
+ * unlinks just the entries the collector has cleared since the last one,
+ * so the cost of cleaning up is spread over normal use in proportion to
+ * the garbage, and there is never a sweep over the whole table.
+ *
+ * Values are held strongly, so a value which refers to its own key keeps
+ * the entry alive.  Neither keys nor values may be null, though looking
+ * up a null key, as in Hashtable, just finds nothing.  size() counts
+ * entries not yet expunged, and may fall between two calls even though
+ * nothing was removed; iterators hold the key of the entry they will
+ * return next, so an entry cannot vanish between hasNext() and next().
+ */
+public class WeakHashtable extends AbstractMap implements Map
+{
+    private static final int DEFAULT_CAPACITY = 16;
+    private static final int MAXIMUM_CAPACITY = 1 << 30;
+    private static final float DEFAULT_LOAD_FACTOR = 0.75f;
+
+    private static final int KEYS = 0;
+    private static final int VALUES = 1;
+    private static final int ENTRIES = 2;
+
+    private Entry[] table;
+    private int size;
+    private int threshold;
+    private final float loadFactor;
+    /** the queue cleared entries are put on by the collector */
+    private final ReferenceQueue queue = new ReferenceQueue();
+    int modCount;
+
+    public WeakHashtable()
+    {	this(DEFAULT_CAPACITY, DEFAULT_LOAD_FACTOR);
+    }
+
+    public WeakHashtable(int initialCapacity)
+    {	this(initialCapacity, DEFAULT_LOAD_FACTOR);
+    }
+
+    public WeakHashtable(int initialCapacity, float loadFactor)
+    {
+	int c = 1;
+	if (initialCapacity < 0 || !(loadFactor > 0))
+	    throw new IllegalArgumentException();
+	while (c < initialCapacity && c < MAXIMUM_CAPACITY)
+	    c <<= 1;
+	this.loadFactor = loadFactor;
+	table = new Entry[c];
+	threshold = (int) Math.min(c * loadFactor, Integer.MAX_VALUE);
+    }
+
+    public WeakHashtable(Map t)
+    {
+	this(Math.max((int) (t.size() / DEFAULT_LOAD_FACTOR) + 1, DEFAULT_CAPACITY),
+	     DEFAULT_LOAD_FACTOR);
+	putAll(t);
+    }
+
+    /**
+     * unlinks every entry the collector has cleared since the last call;
+     * an entry which is no longer in its chain (removed explicitly after
+     * it was cleared) is simply dropped
+     */
+    private void expungeStaleEntries()
+    {
+	Entry e, p, prev;
+	int index;
+	while ((e = (Entry) queue.poll()) != null)
+	    {
+		index = e.hash & (table.length - 1);
+		prev = null;
+		for (p = table[index]; p != null; prev = p, p = p.next)
+		    {
+			if (p == e)
+			    {
+				if (prev == null)
+				    table[index] = e.next;
+				else
+				    prev.next = e.next;
+				// let the value go even if someone holds e
+				e.value = null;
+				size--;
+				break;
+			    }
+		    }
+	    }
+    }
+
+    public synchronized int size()
+    {
+	expungeStaleEntries();
+	return size;
+    }
+
+    public synchronized boolean isEmpty()
+    {
+	expungeStaleEntries();
+	return size == 0;
+    }
+
+    /** returns the live entry for key, or null; null keys are never stored */
+    private Entry getEntry(Object key)
+    {
+	int h;
+	Object k;
+	if (key == null)
+	    return null;
+	h = Hashtable.spread(key.hashCode());
+	for (Entry e = table[h & (table.length - 1)]; e != null; e = e.next)
+	    {
+		if (e.hash == h && ((k = e.get()) == key || key.equals(k)))
+		    return e;
+	    }
+	return null;
+    }
+
+    public synchronized Object get(Object key)
+    {
+	Entry e;
+	expungeStaleEntries();
+	e = getEntry(key);
+	return (e == null) ? null : e.value;
+    }
+
+    public synchronized boolean containsKey(Object key)
+    {
+	expungeStaleEntries();
+	return getEntry(key) != null;
+    }
+
+    public synchronized boolean containsValue(Object value)
+    {
+	if (value == null)
+	    throw new NullPointerException();
+	expungeStaleEntries();
+	for (int i = 0; i < table.length; i++)
+	    {
+		for (Entry e = table[i]; e != null; e = e.next)
+		    {
+			if (value.equals(e.value) && e.get() != null)
+			    return true;
+		    }
+	    }
+	return false;
+    }
+
+    /** the Hashtable name for containsValue() */
+    public boolean contains(Object value)
+    {	return containsValue(value);
+    }
+
+    public synchronized Object put(Object key, Object value)
+    {
+	Entry e;
+	Object old;
+	int h, index;
+	if (key == null || value == null)
+	    throw new NullPointerException();
+	expungeStaleEntries();
+	h = Hashtable.spread(key.hashCode());
+	e = getEntry(key);
+	if (e != null)
+	    {
+		old = e.value;
+		e.value = value;
+		return old;
+	    }
+	modCount++;
+	if (size >= threshold && table.length < MAXIMUM_CAPACITY)
+	    resize();
+	index = h & (table.length - 1);
+	table[index] = new Entry(key, value, h, table[index], queue);
+	size++;
+	return null;
+    }
+
+    public synchronized void putAll(Map t)
+    {
+	Map.Entry e;
+	for (Iterator it = t.entrySet().iterator(); it.hasNext(); )
+	    {
+		e = (Map.Entry) it.next();
+		put(e.getKey(), e.getValue());
+	    }
+    }
+
+    public synchronized Object remove(Object key)
+    {
+	Entry e;
+	expungeStaleEntries();
+	e = getEntry(key);
+	if (e == null)
+	    return null;
+	removeEntry(e);
+	return e.value;
+    }
+
+    /** unlinks e, unless the queue has beaten us to it */
+    private void removeEntry(Entry e)
+    {
+	int index = e.hash & (table.length - 1);
+	Entry p = table[index];
+	if (p == e)
+	    table[index] = e.next;
+	else
+	    {
+		while (p != null && p.next != e)
+		    p = p.next;
+		if (p == null)
+		    return;
+		p.next = e.next;
+	    }
+	size--;
+	modCount++;
+    }
+
+    public synchronized void clear()
+    {
+	// what is on the queue now refers to entries about to be dropped
+	while (queue.poll() != null)
+	    ;
+	for (int i = 0; i < table.length; i++)
+	    table[i] = null;
+	size = 0;
+	modCount++;
+    }
+
+    /**
+     * doubles the table, dropping any entries cleared since the queue was
+     * last drained rather than copying them
+     */
+    private void resize()
+    {
+	Entry[] newTable = new Entry[table.length << 1];
+	int mask = newTable.length - 1;
+	Entry e, next;
+	int index;
+	for (int i = 0; i < table.length; i++)
+	    {
+		for (e = table[i]; e != null; e = next)
+		    {
+			next = e.next;
+			if (e.get() == null)
+			    {
+				e.value = null;
+				size--;
+				continue;
+			    }
+			index = e.hash & mask;
+			e.next = newTable[index];
+			newTable[index] = e;
+		    }
+	    }
+	table = newTable;
+	threshold = (int) Math.min(newTable.length * loadFactor, Integer.MAX_VALUE);
+    }
+
+    public Enumeration keys()
+    {	return new TableIterator(KEYS);
+    }
+
+    public Enumeration elements()
+    {	return new TableIterator(VALUES);
+    }
+
+    public Set keySet()
+    {	return new TableSet(KEYS);
+    }
+
+    public Set entrySet()
+    {	return new TableSet(ENTRIES);
+    }
+
+    public Collection values()
+    {
+	return new AbstractCollection()
+	    {
+		public Iterator iterator()
+		{
+		    return new TableIterator(VALUES);
+		}
+
+		public int size()
+		{
+		    return WeakHashtable.this.size();
+		}
+
+		public boolean contains(Object o)
+		{
+		    return WeakHashtable.this.containsValue(o);
+		}
+
+		public void clear()
+		{
+		    WeakHashtable.this.clear();
+		}
+	    };
+    }
+
+    /**
+     * an entry; the referent is the key.  The hash is kept so that the
+     * entry can be found again once the key has been cleared
+     */
+    private static final class Entry extends WeakReference
+    {
+	final int hash;
+	Object value;
+	Entry next;
+
+	Entry(Object key, Object value, int hash, Entry next, ReferenceQueue queue)
+	{
+	    super(key, queue);
+	    this.value = value;
+	    this.hash = hash;
+	    this.next = next;
+	}
+    }
+
+    /**
+     * the Map.Entry handed out by entry iterators; it holds the key
+     * strongly, and setValue() writes through to the table
+     */
+    private final class StrongEntry implements Map.Entry
+    {
+	private final Object key;
+	private Object value;
+
+	StrongEntry(Object key, Object value)
+	{
+	    this.key = key;
+	    this.value = value;
+	}
+
+	public Object getKey()
+	{
+	    return key;
+	}
+
+	public Object getValue()
+	{
+	    return value;
+	}
+
+	public Object setValue(Object value)
+	{
+	    Object old = this.value;
+	    if (value == null)
+		throw new NullPointerException();
+	    this.value = value;
+	    put(key, value);
+	    return old;
+	}
+
+	public boolean equals(Object o)
+	{
+	    Map.Entry e;
+	    if (!(o instanceof Map.Entry))
+		return false;
+	    e = (Map.Entry) o;
+	    return key.equals(e.getKey()) && value.equals(e.getValue());
+	}
+
+	public int hashCode()
+	{
+	    return key.hashCode() ^ value.hashCode();
+	}
+
+	public String toString()
+	{
+	    return key + "=" + value;
+	}
+    }
+
+    /** a Set view of the keys or entries */
+    private final class TableSet extends AbstractSet
+    {
+	private final int setType;
+
+	TableSet(int type)
+	{
+	    setType = type;
+	}
+
+	public Iterator iterator()
+	{
+	    return new TableIterator(setType);
+	}
+
+	public int size()
+	{
+	    return WeakHashtable.this.size();
+	}
+
+	public boolean contains(Object o)
+	{
+	    Map.Entry e;
+	    Object v;
+	    if (setType == KEYS)
+		return containsKey(o);
+	    if (!(o instanceof Map.Entry))
+		return false;
+	    e = (Map.Entry) o;
+	    v = get(e.getKey());
+	    return v != null && v.equals(e.getValue());
+	}
+
+	public boolean remove(Object o)
+	{
+	    if (setType == KEYS)
+		return WeakHashtable.this.remove(o) != null;
+	    synchronized (WeakHashtable.this)
+		{
+		    if (!contains(o))
+			return false;
+		    WeakHashtable.this.remove(((Map.Entry) o).getKey());
+		    return true;
+		}
+	}
+
+	public void clear()
+	{
+	    WeakHashtable.this.clear();
+	}
+    }
+
+    /**
+     * a fail-fast walk over the buckets which skips cleared entries; it
+     * keeps the next key strongly reachable until it has been returned
+     */
+    private final class TableIterator implements Iterator, Enumeration
+    {
+	private final int type;
+	private Entry[] tab;
+	private int index;
+	private Entry entry;
+	private Object nextKey;
+	private Entry lastReturned;
+	private int knownMods;
+
+	TableIterator(int type)
+	{
+	    this.type = type;
+	    synchronized (WeakHashtable.this)
+		{
+		    tab = table;
+		    index = tab.length;
+		    knownMods = modCount;
+		}
+	}
+
+	public boolean hasNext()
+	{
+	    synchronized (WeakHashtable.this)
+		{
+		    while (nextKey == null)
+			{
+			    while (entry == null && index > 0)
+				entry = tab[--index];
+			    if (entry == null)
+				return false;
+			    nextKey = entry.get();
+			    if (nextKey == null)
+				entry = entry.next;
+			}
+		    return true;
+		}
+	}
+
+	public boolean hasMoreElements()
+	{
+	    return hasNext();
+	}
+
+	public Object next()
+	{
+	    Object key;
+	    if (knownMods != modCount)
+		throw new ConcurrentModificationException();
+	    if (!hasNext())
+		throw new NoSuchElementException();
+	    lastReturned = entry;
+	    entry = entry.next;
+	    key = nextKey;
+	    nextKey = null;
+	    if (type == KEYS)
+		return key;
+	    else if (type == VALUES)
+		return lastReturned.value;
+	    else
+		return new StrongEntry(key, lastReturned.value);
+	}
+
+	public Object nextElement()
+	{
+	    return next();
+	}
+
+	public void remove()
+	{
+	    if (lastReturned == null)
+		throw new IllegalStateException();
+	    synchronized (WeakHashtable.this)
+		{
+		    if (knownMods != modCount)
+			throw new ConcurrentModificationException();
+		    removeEntry(lastReturned);
+		    knownMods = modCount;
+		}
+	    lastReturned = null;
+	}
+    }
+}
@@ -36,6 +36,12 @@ package java.util;
  */
 public abstract class AbstractCollection implements Collection {
 
+  /**
+   * The number of elements pulled at a time from a BatchIterator by addAll
+   * and containsAll.
+   */
+  private static final int BATCH_SIZE = 64;
+
   /**
    * Return an Iterator over this collection. The iterator must provide the
    * hasNext and next methods and should in addition provide remove if the
@@ -67,6 +73,8 @@ public abstract class AbstractCollection implements Collection {
    * implementation obtains an Iterator over the given collection and iterates
    * over it, adding each element with the add(Object) method (thus this method
    * will fail with an UnsupportedOperationException if the add method does).
+   * If the Iterator is a BatchIterator, the elements are fetched from it in
+   * batches rather than one next() at a time.
    *
    * @param c the collection to add the elements of to this collection
    * @return true if the add operation caused the Collection to change
@@ -76,6 +84,16 @@ public abstract class AbstractCollection implements Collection {
   public boolean addAll(Collection c) {
     Iterator i = c.iterator();
     boolean modified = false;
+    if (i instanceof BatchIterator) {
+      Object[] buf = new Object[BATCH_SIZE];
+      int n;
+      while ((n = ((BatchIterator) i).nextBatch(buf)) > 0) {
+        for (int pos = 0; pos < n; pos++) {
+          modified |= add(buf[pos]);
+        }
+      }
+      return modified;
+    }
     while (i.hasNext()) {
       modified |= add(i.next());
     }
@@ -137,7 +155,8 @@ public abstract class AbstractCollection implements Collection {
    * Tests whether this collection contains all the elements in a given
    * collection. This implementation iterates over the given collection,
    * testing whether each element is contained in this collection. If any one
-   * is not, false is returned. Otherwise true is returned.
+   * is not, false is returned. Otherwise true is returned. As in addAll, a
+   * BatchIterator over the given collection is read in batches.
    *
    * @param c the collection to test against
    * @return true if this collection contains all the elements in the given
@@ -145,6 +164,18 @@ public abstract class AbstractCollection implements Collection {
    */
   public boolean containsAll(Collection c) {
     Iterator i = c.iterator();
+    if (i instanceof BatchIterator) {
+      Object[] buf = new Object[BATCH_SIZE];
+      int n;
+      while ((n = ((BatchIterator) i).nextBatch(buf)) > 0) {
+        for (int pos = 0; pos < n; pos++) {
+          if (!contains(buf[pos])) {
+            return false;
+          }
+        }
+      }
+      return true;
+    }
     while (i.hasNext()) {
       if (!contains(i.next())) {
         return false;
@@ -258,14 +289,19 @@ public abstract class AbstractCollection implements Collection {
    * Return an array containing the elements of this collection. This
    * implementation creates an Object array of size size() and then iterates
    * over the collection, setting each element of the array from the value
-   * returned by the iterator.
+   * returned by the iterator. A BatchIterator is asked to fill the whole
+   * array in one call.
    *
    * @return an array containing the elements of this collection
    */
   public Object[] toArray() {
     Object[] a = new Object[size()];
     Iterator i = iterator();
-    for (int pos = 0; pos < a.length; pos++) {
+    int pos = 0;
+    if (i instanceof BatchIterator) {
+      pos = ((BatchIterator) i).nextBatch(a);
+    }
+    for (; pos < a.length; pos++) {
       a[pos] = i.next();
     }
     return a;
@@ -296,7 +332,11 @@ public abstract class AbstractCollection implements Collection {
 //      a = (Object[])Array.newInstance(a.getClass().getComponentType(), n);
     }
     Iterator i = iterator();
-    for (int pos = 0; pos < n; pos++) {
+    int pos = 0;
+    if (i instanceof BatchIterator) {
+      pos = ((BatchIterator) i).nextBatch(a);
+    }
+    for (; pos < n; pos++) {
       a[pos] = i.next();
     }
     if (a.length > n) {
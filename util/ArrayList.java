@@ -15,6 +15,9 @@
 
 package java.util;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 //import java.lang.reflect.Array;
 
@@ -23,9 +26,9 @@ public class ArrayList extends AbstractList
 
 	private static final int DEFAULT_CAPACITY = 32;
 	private boolean fixed;		// means that size must remain fixed
-	private Object[] a;
-	private int off;
-	private int len;
+	private transient Object[] a;
+	private transient int off;
+	private transient int len;
 
 	public ArrayList() {
 		this(DEFAULT_CAPACITY);
@@ -63,6 +66,40 @@ public class ArrayList extends AbstractList
 	return null;
     }
 
+	// Caches the hash code: appending, removing the last element and set()
+	// keep it up to date in O(1), anything else makes hashCode() recompute
+	// it.  Elements must not change their own hash codes meanwhile.
+	public void setHashCodeCached(boolean cached) {
+		cacheHashCode(cached);
+	}
+
+	public boolean isHashCodeCached() {
+		return super.isHashCodeCached();
+	}
+
+	// Serialized form: the length, whether the hash code is cached, and
+	// the elements, without the unused capacity or the slack at the front.
+	private void writeObject(ObjectOutputStream s) throws IOException {
+		s.defaultWriteObject();
+		s.writeInt(len);
+		s.writeBoolean(isHashCodeCached());
+		for (int i = 0; i < len; i++) {
+			s.writeObject(a[off + i]);
+		}
+	}
+
+	private void readObject(ObjectInputStream s)
+			throws IOException, ClassNotFoundException {
+		s.defaultReadObject();
+		len = s.readInt();
+		cacheHashCode(s.readBoolean());
+		a = new Object[len];
+		off = 0;
+		for (int i = 0; i < len; i++) {
+			a[i] = s.readObject();
+		}
+	}
+
 	public void trimToSize() {
 		if (off != 0 || len != a.length) {
 			Object[] newa = new Object[len];
@@ -106,6 +143,23 @@ public class ArrayList extends AbstractList
 		return len;
 	}
 
+	/**
+	 * Hands each element, in order, to visitor, looping directly over
+	 * the backing array rather than through get(); the modification
+	 * count is checked once, at the end.
+	 */
+	public void forEachElement(ElementVisitor visitor) {
+		final Object[] arr = a;
+		final int end = off + len;
+		final int knownMod = modCount;
+		for (int i = off; i < end; i++) {
+			visitor.visit(arr[i]);
+		}
+		if (knownMod != modCount) {
+			throw new ConcurrentModificationException();
+		}
+	}
+
 	public boolean isEmpty() {
 		return len == 0;
 	}
@@ -146,6 +200,11 @@ public class ArrayList extends AbstractList
 // 		return clone;
 // 	}
 
+	// Copies straight out of the backing array for the iterator's batches
+	void getRange(int from, Object[] dest, int n) {
+		System.arraycopy(a, off + from, dest, 0, n);
+	}
+
 	public Object[] toArray() {
 		Object[] newa = new Object[len];
 		System.arraycopy(a, off, newa, 0, len);
@@ -177,6 +236,7 @@ public class ArrayList extends AbstractList
 		}
 		Object old = a[off + index];
 		a[off + index] = element;
+		hashReplaced(modCount, index, len, old, element);
 		return old;
 	}
 
@@ -207,14 +267,21 @@ public class ArrayList extends AbstractList
 		modCount = initialModCount + 1;
 		a[off + index] = element;
 		len++;
+		if (index == len - 1) {
+			hashAppended(initialModCount, element);
+		}
 	}
 
 	public Object remove(int index) {
 		if (fixed) {
 			throw new UnsupportedOperationException();
 		}
+		final int initialModCount = modCount;
 		Object old = a[off + index];	// exception here is OK
 		removeRange(index, index + 1);
+		if (index == len) {
+			hashRemovedLast(initialModCount, old);
+		}
 		return old;
 	}
 
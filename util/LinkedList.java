@@ -18,12 +18,13 @@
 /////////////////////////////////////////////////////////////////////////////
 
 package java.util;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 
 // TO DO:
 // ~ Doc comment for the class.
-// ~ Serialization (which means trying to comprehend Sun's serialized form
-//   docs)
 // ~ Doc comments for the non-list methods.
 // ~ Some commenting on the Backing API and other general implementation notes.
 
@@ -37,12 +38,12 @@ public class LinkedList extends AbstractSequentialList implements Serializable{
      * previous field) of the list. The data field is null. If the list is empty,
      * both the head and the tail point to ends itself.
      */
-    Entry ends = new Entry();
+    transient Entry ends = new Entry();
 
     /**
      * The current length of the list.
      */
-    int size = 0;
+    transient int size = 0;
 
     /**
      * Class to represent an entry in the list. Holds a single element.
@@ -145,29 +146,65 @@ public class LinkedList extends AbstractSequentialList implements Serializable{
 	void decSize(int by);
     }
 
-    private final Backing back = new Backing() {
-	public void checkMod(int known) {
-	    if (known < modCount) {
-		throw new ConcurrentModificationException();
+    private transient Backing back = mainBacking();
+
+    /**
+     * Make the Backing for the list itself. This is a method, rather than
+     * the field's initializer alone, so that readObject can make it too.
+     */
+    private Backing mainBacking() {
+	return new Backing() {
+	    public void checkMod(int known) {
+		if (known < modCount) {
+		    throw new ConcurrentModificationException();
+		}
 	    }
+	    public void upMod() {
+		modCount++;
+	    }
+	    public void incSize(int by) {
+		size += by;
+	    }
+	    public void decSize(int by) {
+		size -= by;
+	    }
+	};
+    }
+
+    /**
+     * Write the size of the list followed by its elements in order; the
+     * entries themselves are not serialized.
+     */
+    private void writeObject(ObjectOutputStream s) throws IOException {
+	s.defaultWriteObject();
+	s.writeInt(size);
+	for (Entry e = ends.next; e != ends; e = e.next) {
+	    s.writeObject(e.data);
 	}
-	public void upMod() {
-	    modCount++;
-	}
-	public void incSize(int by) {
-	    size += by;
-	}
-	public void decSize(int by) {
-	    size -= by;
-	}
-    };
+    }
+
+    /**
+     * Read a list written by writeObject, linking each element on at the
+     * tail as it arrives.
+     */
+    private void readObject(ObjectInputStream s)
+	    throws IOException, ClassNotFoundException {
+	s.defaultReadObject();
+	ends = new Entry();
+	back = mainBacking();
+	int n = s.readInt();
+	for (int i = 0; i < n; i++) {
+	    ends.previous.next = ends.previous = new Entry(s.readObject(), ends, ends.previous);
+	}
+	size = n;
+    }
 
     /** A ListIterator over the list. This class keeps track of its
      * position in the list, the size of the list, and the two list
      * entries it is between.  This enables it to be used identically
      * for both the list itself and a sublist of the list.
      */
-    private static class Iter implements ListIterator {
+    private static class Iter implements ListIterator, BatchIterator {
 
 	/**
 	 * The index of the element that will be returned by next().
@@ -249,6 +286,21 @@ public class LinkedList extends AbstractSequentialList implements Serializable{
 	    }
 	}
 
+	public int nextBatch(Object[] buf) {
+	    b.checkMod(knownMod);
+	    int n = Math.min(buf.length, size - pos);
+	    if (n <= 0) {
+		return 0;
+	    }
+	    for (int i = 0; i < n; i++) {
+		buf[i] = next.data;
+		next = next.next;
+	    }
+	    pos += n;
+	    recent = previous = next.previous;
+	    return n;
+	}
+
 	public Object previous() {
 	    b.checkMod(knownMod);
 	    if (pos <= 0) {
@@ -365,6 +417,25 @@ public class LinkedList extends AbstractSequentialList implements Serializable{
 	addAll(c);
     }
 
+    /**
+     * Hand each element, in order, to a visitor, following the links
+     * directly instead of through a ListIterator.
+     *
+     * @param visitor the callback to receive each element.
+     * @exception ConcurrentModificationException if the visitor modified
+     *   this list; this is checked once, when the traversal ends.
+     */
+    public void forEachElement(ElementVisitor visitor) {
+	final int knownMod = modCount;
+	int n = size;
+	for (Entry e = ends.next; n > 0; e = e.next, n--) {
+	    visitor.visit(e.data);
+	}
+	if (knownMod != modCount) {
+	    throw new ConcurrentModificationException();
+	}
+    }
+
     public Object getFirst() {
 	if (size == 0) {
 	    throw new NoSuchElementException();